@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+/**
+ * Snapshot of the dispatch queue of one handler.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class DispatchMetrics {
+
+    private final int capacity;
+    private final int depth;
+    private final long dispatched;
+    private final long dropped;
+    private final int peakDepth;
+
+    public DispatchMetrics(int capacity,
+                           int depth,
+                           int peakDepth,
+                           long dispatched,
+                           long dropped) {
+        this.capacity = capacity;
+        this.depth = depth;
+        this.peakDepth = peakDepth;
+        this.dispatched = dispatched;
+        this.dropped = dropped;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public int getPeakDepth() {
+        return peakDepth;
+    }
+}
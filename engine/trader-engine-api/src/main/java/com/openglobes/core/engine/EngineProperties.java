@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+/**
+ * Keys of the properties recognized by trader engine.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public final class EngineProperties {
+
+    /**
+     * Capacity of audit queue in start properties. If it is set, responses
+     * and trades are written behind the state transitions by a single writer,
+     * and callers block while the queue is full.
+     */
+    public static final String AUDIT_QUEUE_SIZE = "AuditQueueSize";
+
+    /**
+     * Directory of audit spool in start properties. If it is set with
+     * {@link #AUDIT_QUEUE_SIZE}, queued audit rows are also appended to a
+     * local spool under the directory, and rows not written to data source
+     * before a crash are written at next start.
+     */
+    public static final String AUDIT_SPOOL_DIRECTORY = "AuditSpoolDirectory";
+
+    /**
+     * Size of the event ring in start properties, must be power of 2. If it is
+     * set, trader gateway callbacks are published to the ring and return at
+     * once, and the events are processed on the consumer thread of the ring.
+     * Otherwise they are processed on the calling threads.
+     */
+    public static final String EVENT_RING_SIZE = "EventRingSize";
+
+    /**
+     * Wait strategy of the event ring consumer in start properties, one of
+     * {@code BLOCKING}, {@code YIELDING} and {@code BUSY_SPIN}. Default is
+     * {@code BLOCKING}.
+     */
+    public static final String EVENT_WAIT_STRATEGY = "EventWaitStrategy";
+
+    /**
+     * Capacity of each handler's dispatch queue in initialization properties.
+     * Default is 8192.
+     */
+    public static final String HANDLER_QUEUE_SIZE = "HandlerQueueSize";
+
+    /**
+     * Policy when a handler's dispatch queue is full in initialization
+     * properties, one of {@code BLOCK}, {@code DROP_NEWEST} and
+     * {@code DROP_OLDEST}. Default is {@code DROP_OLDEST}.
+     */
+    public static final String HANDLER_OVERFLOW_POLICY = "HandlerOverflowPolicy";
+
+    /**
+     * Policy for new order requests while engine is saturated in start
+     * properties, one of {@code REJECT} and {@code DELAY}. Default is
+     * {@code REJECT}.
+     */
+    public static final String FLOW_CONTROL_POLICY = "FlowControlPolicy";
+
+    /**
+     * High watermark of engine backlog in start properties. If it is set,
+     * engine is saturated after the backlog reaches it. Backlog counts the
+     * writes pending persistence, the events pending in event ring and the
+     * calls queued for handlers.
+     */
+    public static final String FLOW_HIGH_WATERMARK = "FlowHighWatermark";
+
+    /**
+     * Low watermark of engine backlog in start properties. Saturated engine
+     * recovers after the backlog falls to it. Default is half of the high
+     * watermark.
+     */
+    public static final String FLOW_LOW_WATERMARK = "FlowLowWatermark";
+
+    /**
+     * Maximum milliseconds a new order request is delayed under
+     * {@code DELAY} policy before it is rejected, in start properties.
+     * Default is 100.
+     */
+    public static final String FLOW_MAX_DELAY_MILLIS = "FlowMaxDelayMillis";
+
+    /**
+     * Directory of event journal in start properties. If it is set, every
+     * input of engine, requests, gateway events and status changes, is
+     * appended to a memory-mapped journal under the directory before it is
+     * processed.
+     */
+    public static final String JOURNAL_DIRECTORY = "JournalDirectory";
+
+    /**
+     * Bytes of each journal segment file in start properties. Default is
+     * 64 MiB.
+     */
+    public static final String JOURNAL_SEGMENT_SIZE = "JournalSegmentSize";
+
+    /**
+     * Number of settled trading days whose journal is kept, in start
+     * properties. Journal segments are archived at each settlement and the
+     * oldest archives beyond this number are deleted. Negative value keeps
+     * all. Default is 5.
+     */
+    public static final String JOURNAL_ARCHIVE_COUNT = "JournalArchiveCount";
+
+    /**
+     * Directory of ID tables in start properties. If it is set, each trader
+     * service keeps its ID translation in a memory-mapped file under the
+     * directory, and the translation is restored after restart. The table is
+     * cleared at settlement.
+     */
+    public static final String ID_TABLE_DIRECTORY = "IdTableDirectory";
+
+    /**
+     * Maximum number of events whose writes are committed in one transaction,
+     * in start properties. Default is 256.
+     */
+    public static final String PERSIST_GROUP_SIZE = "PersistGroupSize";
+
+    /**
+     * Milliseconds to wait for more events after the first one of a commit
+     * group arrives, in start properties. Default is zero, committing the
+     * events already queued without waiting.
+     */
+    public static final String PERSIST_WINDOW_MILLIS = "PersistWindowMillis";
+
+    /**
+     * Number of shards in start properties. If it is greater than zero,
+     * requests and trader gateway events are executed on single-threaded
+     * shards partitioned by instrument ID. Otherwise they are executed on the
+     * calling threads.
+     */
+    public static final String SHARD_COUNT = "ShardCount";
+
+    /**
+     * Directory of engine state snapshot in initialization properties. If it
+     * is set, initialization restores account, open contracts, working orders,
+     * instruments and ID translation from the snapshot instead of scanning
+     * data source, provided the snapshot is of the current trading day and
+     * nothing happens after it. A snapshot is written when engine stops.
+     */
+    public static final String SNAPSHOT_DIRECTORY = "SnapshotDirectory";
+
+    /**
+     * Milliseconds between periodic snapshots in initialization properties.
+     * Periodic snapshots are taken only if the event journal is on, and only
+     * when engine has been idle for the whole interval. Default is zero, no
+     * periodic snapshot.
+     */
+    public static final String SNAPSHOT_INTERVAL_MILLIS = "SnapshotIntervalMillis";
+
+    private EngineProperties() {
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Offset;
+
+/**
+ * Amount, margin and commissions of one lot at a price.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class FeeQuote {
+
+    private final double amount;
+    private final double closeCommission;
+    private final double closeTodayCommission;
+    private final double margin;
+    private final double openCommission;
+
+    public FeeQuote(double amount,
+                    double margin,
+                    double openCommission,
+                    double closeCommission,
+                    double closeTodayCommission) {
+        this.amount = amount;
+        this.margin = margin;
+        this.openCommission = openCommission;
+        this.closeCommission = closeCommission;
+        this.closeTodayCommission = closeTodayCommission;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public double getCloseCommission() {
+        return closeCommission;
+    }
+
+    public double getCloseTodayCommission() {
+        return closeTodayCommission;
+    }
+
+    /**
+     * Get commission of the offset.
+     *
+     * @param offset offset
+     *
+     * @return commission of one lot
+     */
+    public double getCommission(Offset offset) {
+        if (offset == Offset.OPEN) {
+            return openCommission;
+        }
+        else if (offset == Offset.CLOSE) {
+            return closeCommission;
+        }
+        else {
+            return closeTodayCommission;
+        }
+    }
+
+    public double getMargin() {
+        return margin;
+    }
+
+    public double getOpenCommission() {
+        return openCommission;
+    }
+}
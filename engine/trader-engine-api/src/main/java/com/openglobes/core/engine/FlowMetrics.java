@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+/**
+ * Snapshot of the engine backlog that flow control is decided on.
+ * <p>
+ * Backlog is the sum of the writes pending persistence, the events pending in
+ * event ring, and the calls queued for handlers. Engine is saturated after
+ * backlog reaches the high watermark, and recovers after it falls to the low
+ * watermark.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class FlowMetrics {
+
+    private final long delayed;
+    private final long dispatchDepth;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final long persistPending;
+    private final long rejected;
+    private final long ringBacklog;
+    private final boolean saturated;
+
+    public FlowMetrics(long persistPending,
+                       long ringBacklog,
+                       long dispatchDepth,
+                       long highWatermark,
+                       long lowWatermark,
+                       boolean saturated,
+                       long delayed,
+                       long rejected) {
+        this.persistPending = persistPending;
+        this.ringBacklog = ringBacklog;
+        this.dispatchDepth = dispatchDepth;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.saturated = saturated;
+        this.delayed = delayed;
+        this.rejected = rejected;
+    }
+
+    public long getBacklog() {
+        return persistPending + ringBacklog + dispatchDepth;
+    }
+
+    /**
+     * Get number of events engine accepts before it is saturated. If flow
+     * control is disabled, it is {@link Long#MAX_VALUE}.
+     *
+     * @return credit
+     */
+    public long getCredit() {
+        if (highWatermark <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return saturated ? 0L : Math.max(0L, highWatermark - getBacklog());
+    }
+
+    public long getDelayed() {
+        return delayed;
+    }
+
+    public long getDispatchDepth() {
+        return dispatchDepth;
+    }
+
+    public long getHighWatermark() {
+        return highWatermark;
+    }
+
+    public long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public long getPersistPending() {
+        return persistPending;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getRingBacklog() {
+        return ringBacklog;
+    }
+
+    public boolean isSaturated() {
+        return saturated;
+    }
+}
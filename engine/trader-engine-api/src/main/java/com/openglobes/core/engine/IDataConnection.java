@@ -30,6 +30,7 @@ import com.openglobes.core.Tick;
 import com.openglobes.core.Trade;
 import com.openglobes.core.TradingDay;
 import com.openglobes.core.Withdraw;
+import com.openglobes.core.exceptions.EngineException;
 import java.util.Collection;
 
 /**
@@ -44,14 +45,66 @@ public interface IDataConnection {
 
     void addCommission(Commission commission) throws DataSourceException;
 
+    /**
+     * Add commissions in bulk. Default adds them one by one.
+     *
+     * @param commissions commissions to add
+     *
+     * @throws DataSourceException if data source fails adding rows
+     */
+    default void addCommissions(Collection<Commission> commissions) throws DataSourceException {
+        for (var v : commissions) {
+            addCommission(v);
+        }
+    }
+
     void addContract(Contract contract) throws DataSourceException;
 
+    /**
+     * Add contracts in bulk. Default adds them one by one.
+     *
+     * @param contracts contracts to add
+     *
+     * @throws DataSourceException if data source fails adding rows
+     */
+    default void addContracts(Collection<Contract> contracts) throws DataSourceException {
+        for (var v : contracts) {
+            addContract(v);
+        }
+    }
+
     void addDeposit(Deposit deposit) throws DataSourceException;
 
     void addInstrument(Instrument instrument) throws DataSourceException;
 
+    /**
+     * Add instruments in bulk. Default adds them one by one.
+     *
+     * @param instruments instruments to add
+     *
+     * @throws DataSourceException if data source fails adding rows
+     */
+    default void addInstruments(Collection<Instrument> instruments) throws DataSourceException {
+        for (var v : instruments) {
+            addInstrument(v);
+        }
+    }
+
     void addMargin(Margin margin) throws DataSourceException;
 
+    /**
+     * Add margins in bulk. Default adds them one by one.
+     *
+     * @param margins margins to add
+     *
+     * @throws DataSourceException if data source fails adding rows
+     */
+    default void addMargins(Collection<Margin> margins) throws DataSourceException {
+        for (var v : margins) {
+            addMargin(v);
+        }
+    }
+
     void addRequest(Request request) throws DataSourceException;
 
     void addResponse(Response response) throws DataSourceException;
@@ -64,6 +117,15 @@ public interface IDataConnection {
 
     void addWithdraw(Withdraw withdraw) throws DataSourceException;
 
+    /**
+     * Close the connection and the statements it caches. Default does
+     * nothing.
+     *
+     * @throws DataSourceException if connection can't be closed
+     */
+    default void close() throws DataSourceException {
+    }
+
     void commit() throws DataSourceException;
 
     Account getAccount() throws DataSourceException;
@@ -72,6 +134,23 @@ public interface IDataConnection {
 
     Collection<Commission> getCommissions() throws DataSourceException;
 
+    /**
+     * Stream all commissions to visitor one by one, so they are not held in
+     * memory as a whole. Default visits the collection returned by {@link
+     * #getCommissions()}.
+     *
+     * @param visitor   visitor of each commission
+     * @param fetchSize rows to fetch in one round trip, or zero for the
+     *                  default
+     *
+     * @throws EngineException if data source or visitor fails
+     */
+    default void getCommissions(IDataVisitor<Commission> visitor, int fetchSize) throws EngineException {
+        for (var v : getCommissions()) {
+            visitor.visit(v);
+        }
+    }
+
     Collection<Commission> getCommissionsByOrderId(long orderId) throws DataSourceException;
 
     Collection<Commission> getCommissionsByStatus(FeeStatus status) throws DataSourceException;
@@ -80,6 +159,25 @@ public interface IDataConnection {
 
     Collection<Contract> getContracts() throws DataSourceException;
 
+    /**
+     * Stream all contracts to visitor one by one, so they are not held in
+     * memory as a whole. Default visits the collection returned by {@link
+     * #getContracts()}.
+     *
+     * @param visitor   visitor of each contract
+     * @param fetchSize rows to fetch in one round trip, or zero for the
+     *                  default
+     *
+     * @throws EngineException if data source or visitor fails
+     */
+    default void getContracts(IDataVisitor<Contract> visitor, int fetchSize) throws EngineException {
+        for (var v : getContracts()) {
+            visitor.visit(v);
+        }
+    }
+
+    Collection<Contract> getContractsByIds(Collection<Long> contractIds) throws DataSourceException;
+
     Collection<Contract> getContractsByInstrumentId(String instrumentId) throws DataSourceException;
 
     Collection<Contract> getContractsByStatus(ContractStatus status) throws DataSourceException;
@@ -94,10 +192,31 @@ public interface IDataConnection {
 
     Collection<Instrument> getInstrumentsByExchangeId(String exchangeId) throws DataSourceException;
 
+    Margin getMarginByContractId(Long contractId) throws DataSourceException;
+
     Margin getMarginById(Long marginId) throws DataSourceException;
 
     Collection<Margin> getMargins() throws DataSourceException;
 
+    /**
+     * Stream all margins to visitor one by one, so they are not held in memory
+     * as a whole. Default visits the collection returned by {@link
+     * #getMargins()}.
+     *
+     * @param visitor   visitor of each margin
+     * @param fetchSize rows to fetch in one round trip, or zero for the
+     *                  default
+     *
+     * @throws EngineException if data source or visitor fails
+     */
+    default void getMargins(IDataVisitor<Margin> visitor, int fetchSize) throws EngineException {
+        for (var v : getMargins()) {
+            visitor.visit(v);
+        }
+    }
+
+    Collection<Margin> getMarginsByContractIds(Collection<Long> contractIds) throws DataSourceException;
+
     Collection<Margin> getMarginsByOrderId(long orderId) throws DataSourceException;
 
     Collection<Margin> getMarginsByStatus(FeeStatus status) throws DataSourceException;
@@ -112,6 +231,23 @@ public interface IDataConnection {
 
     Collection<Response> getResponses() throws DataSourceException;
 
+    /**
+     * Stream all responses to visitor one by one, so they are not held in
+     * memory as a whole. Default visits the collection returned by {@link
+     * #getResponses()}.
+     *
+     * @param visitor   visitor of each response
+     * @param fetchSize rows to fetch in one round trip, or zero for the
+     *                  default
+     *
+     * @throws EngineException if data source or visitor fails
+     */
+    default void getResponses(IDataVisitor<Response> visitor, int fetchSize) throws EngineException {
+        for (var v : getResponses()) {
+            visitor.visit(v);
+        }
+    }
+
     Tick getTickByInstrumentId(String instrumentId) throws DataSourceException;
 
     Trade getTradeById(Long tradeId) throws DataSourceException;
@@ -128,12 +264,51 @@ public interface IDataConnection {
 
     void removeCommission(long commissionId) throws DataSourceException;
 
+    /**
+     * Remove commissions in bulk. Default removes them one by one.
+     *
+     * @param commissionIds IDs of commissions to remove
+     *
+     * @throws DataSourceException if data source fails removing rows
+     */
+    default void removeCommissions(Collection<Long> commissionIds) throws DataSourceException {
+        for (var v : commissionIds) {
+            removeCommission(v);
+        }
+    }
+
     void removeContract(long contractId) throws DataSourceException;
 
+    /**
+     * Remove contracts in bulk. Default removes them one by one.
+     *
+     * @param contractIds IDs of contracts to remove
+     *
+     * @throws DataSourceException if data source fails removing rows
+     */
+    default void removeContracts(Collection<Long> contractIds) throws DataSourceException {
+        for (var v : contractIds) {
+            removeContract(v);
+        }
+    }
+
     void removeInstrument(String instrumentId) throws DataSourceException;
 
     void removeMargin(long marginId) throws DataSourceException;
 
+    /**
+     * Remove margins in bulk. Default removes them one by one.
+     *
+     * @param marginIds IDs of margins to remove
+     *
+     * @throws DataSourceException if data source fails removing rows
+     */
+    default void removeMargins(Collection<Long> marginIds) throws DataSourceException {
+        for (var v : marginIds) {
+            removeMargin(v);
+        }
+    }
+
     void removeTick(String instrumentId) throws DataSourceException;
 
     void rollback() throws DataSourceException;
@@ -144,11 +319,50 @@ public interface IDataConnection {
 
     void updateCommission(Commission commission) throws DataSourceException;
 
+    /**
+     * Update commissions in bulk. Default updates them one by one.
+     *
+     * @param commissions commissions to update
+     *
+     * @throws DataSourceException if data source fails updating rows
+     */
+    default void updateCommissions(Collection<Commission> commissions) throws DataSourceException {
+        for (var v : commissions) {
+            updateCommission(v);
+        }
+    }
+
     void updateContract(Contract contract) throws DataSourceException;
 
+    /**
+     * Update contracts in bulk. Default updates them one by one.
+     *
+     * @param contracts contracts to update
+     *
+     * @throws DataSourceException if data source fails updating rows
+     */
+    default void updateContracts(Collection<Contract> contracts) throws DataSourceException {
+        for (var v : contracts) {
+            updateContract(v);
+        }
+    }
+
     void updateInstrument(Instrument instrument) throws DataSourceException;
 
     void updateMargin(Margin margin) throws DataSourceException;
 
+    /**
+     * Update margins in bulk. Default updates them one by one.
+     *
+     * @param margins margins to update
+     *
+     * @throws DataSourceException if data source fails updating rows
+     */
+    default void updateMargins(Collection<Margin> margins) throws DataSourceException {
+        for (var v : margins) {
+            updateMargin(v);
+        }
+    }
+
     void updateTick(Tick tick) throws DataSourceException;
 }
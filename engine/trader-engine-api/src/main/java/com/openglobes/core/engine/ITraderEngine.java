@@ -21,6 +21,7 @@ import com.openglobes.core.Request;
 import com.openglobes.core.exceptions.EngineException;
 import com.openglobes.core.gateway.ITraderGateway;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -75,5 +76,13 @@ public interface ITraderEngine {
 
     Collection<ITraderEngineHandler> handlers();
 
+    Map<ITraderEngineHandler, DispatchMetrics> getDispatchMetrics();
+
+    FlowMetrics getFlowMetrics();
+
     Instrument getRelatedInstrument(String instrumentId) throws EngineException;
+
+    void setRouter(ITraderRouter router) throws EngineException;
+
+    ITraderRouter getRouter();
 }
@@ -54,4 +54,8 @@ public interface ITraderEngineAlgorithm {
     double getMargin(double price, Instrument instrument) throws AlgorithmException;
 
     double getCommission(double price, Instrument instrument, Direction direction, Offset offset) throws AlgorithmException;
+
+    FeeQuote getFeeQuote(double price, Instrument instrument, Offset offset) throws AlgorithmException;
+
+    void updateInstrument(Instrument instrument) throws AlgorithmException;
 }
@@ -39,5 +39,14 @@ public interface ITraderEngineHandler {
 
     void onStatusChange(EngineStatus status);
 
+    /**
+     * Called when engine becomes saturated or recovers. While engine is
+     * saturated, new order requests are rejected or delayed.
+     *
+     * @param saturated {@code true} if engine is saturated
+     */
+    default void onFlowControl(boolean saturated) {
+    }
+
     void onTraderServiceStatusChange(int status);
 }
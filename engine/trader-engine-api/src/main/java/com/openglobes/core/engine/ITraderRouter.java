@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Request;
+import com.openglobes.core.exceptions.EngineException;
+
+/**
+ * Router to choose trader service for an order request without trader ID.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public interface ITraderRouter {
+
+    /**
+     * Choose trader service for the request. The array of candidates is shared
+     * among calls and must not be modified.
+     *
+     * @param request    order request
+     * @param candidates enabled trader services, never empty
+     *
+     * @return chosen trader service
+     *
+     * @throws EngineException if no trader service is proper
+     */
+    TraderServiceRuntime route(Request request, TraderServiceRuntime[] candidates) throws EngineException;
+}
@@ -37,12 +37,14 @@ public class TraderServiceRuntime {
     private final ZonedDateTime registerTimestamp;
     private Properties settleProperties;
     private Properties startProperties;
+    private final TraderStatistics statistics;
     private ITraderGateway trader;
     private Integer traderId;
     private ZonedDateTime updateTimestamp;
 
     public TraderServiceRuntime() {
         registerTimestamp = ZonedDateTime.now();
+        statistics = new TraderStatistics();
     }
 
     public void setEnabled(Boolean enabled) {
@@ -126,6 +128,10 @@ public class TraderServiceRuntime {
         updateTimestamp();
     }
 
+    public TraderStatistics getStatistics() {
+        return statistics;
+    }
+
     public ITraderGateway getTrader() {
         return trader;
     }
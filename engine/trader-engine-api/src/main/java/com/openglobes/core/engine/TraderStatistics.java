@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load statistics of a trader service, fed by trader engine for routing.
+ * <p>
+ * It counts in-flight orders, which are sent and not yet completed, and keeps
+ * exponentially weighted moving average of the latency from sending an order
+ * to receiving its first trade or response. Send times are kept by the
+ * engine, which measures the latency.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class TraderStatistics {
+
+    private static final double ALPHA = 0.2D;
+
+    private volatile double ackLatency;
+    private final AtomicLong inFlight;
+
+    public TraderStatistics() {
+        ackLatency = 0.0D;
+        inFlight = new AtomicLong(0L);
+    }
+
+    /**
+     * Record the first trade or response of an order.
+     *
+     * @param latency nanoseconds from sending the order to its first trade or
+     *                response
+     */
+    public void acknowledged(long latency) {
+        synchronized (this) {
+            if (ackLatency == 0.0D) {
+                ackLatency = latency;
+            }
+            else {
+                ackLatency += ALPHA * (latency - ackLatency);
+            }
+        }
+    }
+
+    public void clear() {
+        inFlight.set(0L);
+    }
+
+    /**
+     * Record the order is completed, either fulfilled or deleted.
+     */
+    public void completed() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Get moving average of acknowledging latency.
+     *
+     * @return latency in nanoseconds, or zero if it is never measured
+     */
+    public double getAckLatency() {
+        return ackLatency;
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Record an order is sent to trader service.
+     */
+    public void sent() {
+        inFlight.incrementAndGet();
+    }
+}
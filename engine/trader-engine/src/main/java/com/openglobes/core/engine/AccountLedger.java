@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Account;
+import com.openglobes.core.Deposit;
+import com.openglobes.core.Withdraw;
+import com.openglobes.core.exceptions.EngineException;
+import com.openglobes.core.exceptions.EngineRuntimeException;
+
+/**
+ * In-memory account ledger maintained incrementally by freezes, fills,
+ * cancels, deposits and withdraws.
+ * <p>
+ * Ledger is loaded from the full account computation at initialization and
+ * cross-checked at settlement, so pre-trade money check costs constant time.
+ * Position profit is not marked to market between the two computations and
+ * keeps the value of the last full computation.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class AccountLedger {
+
+    private static final double EPSILON = 1.0E-6D;
+
+    private Account base;
+    private double closeProfit;
+    private double commission;
+    private double deposit;
+    private double frozenCommission;
+    private double frozenMargin;
+    private double margin;
+    private double positionProfit;
+    private double preBalance;
+    private double withdraw;
+
+    public AccountLedger() {
+        base = new Account();
+    }
+
+    public synchronized void apply(LedgerChange change) {
+        closeProfit += change.getCloseProfit();
+        commission += change.getCommission();
+        deposit += change.getDeposit();
+        frozenCommission += change.getFrozenCommission();
+        frozenMargin += change.getFrozenMargin();
+        margin += change.getMargin();
+        withdraw += change.getWithdraw();
+    }
+
+    /**
+     * Create deposit listener that updates ledger and then calls the
+     * previous listener of data source.
+     * <p>
+     * Data connection calls listeners after commit, so a rolled back deposit
+     * never changes ledger. A created or deleted deposit is applied by its
+     * amount, and an updated deposit makes ledger re-read all deposits.
+     *
+     * @param previous listener added to data source before, or {@code null}
+     *
+     * @return deposit listener
+     */
+    public IDataListener<Deposit> depositListener(IDataListener<Deposit> previous) {
+        return new LedgerListener<Deposit>(previous) {
+            @Override
+            void apply(Deposit d, DataChange change, IDataConnection source) throws EngineException {
+                if (change == DataChange.UPDATE) {
+                    var sum = 0.0D;
+                    for (var v : source.getDeposits()) {
+                        sum += value(v.getAmount());
+                    }
+                    setDeposit(sum);
+                    return;
+                }
+                var amount = d.getAmount();
+                if (amount == null) {
+                    return;
+                }
+                var c = new LedgerChange();
+                if (change == DataChange.CREATE) {
+                    c.deposit(amount);
+                }
+                else if (change == DataChange.DELETE) {
+                    c.deposit(-amount);
+                }
+                AccountLedger.this.apply(c);
+            }
+        };
+    }
+
+    public synchronized Account getAccount() {
+        var r = new Account();
+        r.setAccountId(base.getAccountId());
+        r.setCloseProfit(closeProfit);
+        r.setCommission(commission);
+        r.setDeposit(deposit);
+        r.setFrozenCommission(frozenCommission);
+        r.setFrozenMargin(frozenMargin);
+        r.setMargin(margin);
+        r.setPositionProfit(positionProfit);
+        r.setPreBalance(preBalance);
+        r.setPreDeposit(base.getPreDeposit());
+        r.setPreMargin(base.getPreMargin());
+        r.setPreWithdraw(base.getPreWithdraw());
+        r.setTradingDay(base.getTradingDay());
+        r.setWithdraw(withdraw);
+        r.setBalance(getBalance());
+        return r;
+    }
+
+    public synchronized double getAvailable() {
+        return getBalance() - margin - frozenMargin - frozenCommission;
+    }
+
+    /**
+     * Apply the change only if available money covers the money it freezes.
+     * Checking and freezing are atomic, so concurrent requests never freeze
+     * more money than available.
+     *
+     * @param change change that freezes money
+     *
+     * @return {@code true} if the change is applied
+     */
+    public synchronized boolean reserve(LedgerChange change) {
+        if (getAvailable() < change.getFrozenMargin() + change.getFrozenCommission()) {
+            return false;
+        }
+        apply(change);
+        return true;
+    }
+
+    /**
+     * Undo a change that is applied, e.g. a reservation whose freeze fails to
+     * be written to data source.
+     *
+     * @param change applied change
+     */
+    public synchronized void revert(LedgerChange change) {
+        closeProfit -= change.getCloseProfit();
+        commission -= change.getCommission();
+        deposit -= change.getDeposit();
+        frozenCommission -= change.getFrozenCommission();
+        frozenMargin -= change.getFrozenMargin();
+        margin -= change.getMargin();
+        withdraw -= change.getWithdraw();
+    }
+
+    public synchronized void reset(Account account) {
+        base = account;
+        closeProfit = value(account.getCloseProfit());
+        commission = value(account.getCommission());
+        deposit = value(account.getDeposit());
+        frozenCommission = value(account.getFrozenCommission());
+        frozenMargin = value(account.getFrozenMargin());
+        margin = value(account.getMargin());
+        positionProfit = value(account.getPositionProfit());
+        preBalance = value(account.getPreBalance());
+        withdraw = value(account.getWithdraw());
+    }
+
+    /**
+     * Verify ledger against the account from full computation.
+     * <p>
+     * Position profit is excluded because ledger doesn't mark it to market.
+     *
+     * @param account account from full computation
+     *
+     * @return {@code true} if ledger equals the account, {@code false}
+     *         otherwise
+     */
+    public synchronized boolean verify(Account account) {
+        return equals(closeProfit, account.getCloseProfit())
+               && equals(commission, account.getCommission())
+               && equals(deposit, account.getDeposit())
+               && equals(frozenCommission, account.getFrozenCommission())
+               && equals(frozenMargin, account.getFrozenMargin())
+               && equals(margin, account.getMargin())
+               && equals(preBalance, account.getPreBalance())
+               && equals(withdraw, account.getWithdraw());
+    }
+
+    /**
+     * Create withdraw listener that updates ledger and then calls the
+     * previous listener of data source.
+     *
+     * @param previous listener added to data source before, or {@code null}
+     *
+     * @return withdraw listener
+     *
+     * @see #depositListener(IDataListener)
+     */
+    public IDataListener<Withdraw> withdrawListener(IDataListener<Withdraw> previous) {
+        return new LedgerListener<Withdraw>(previous) {
+            @Override
+            void apply(Withdraw w, DataChange change, IDataConnection source) throws EngineException {
+                if (change == DataChange.UPDATE) {
+                    var sum = 0.0D;
+                    for (var v : source.getWithdraws()) {
+                        sum += value(v.getAmount());
+                    }
+                    setWithdraw(sum);
+                    return;
+                }
+                var amount = w.getAmount();
+                if (amount == null) {
+                    return;
+                }
+                var c = new LedgerChange();
+                if (change == DataChange.CREATE) {
+                    c.withdraw(amount);
+                }
+                else if (change == DataChange.DELETE) {
+                    c.withdraw(-amount);
+                }
+                AccountLedger.this.apply(c);
+            }
+        };
+    }
+
+    private boolean equals(double v, Double expected) {
+        return Math.abs(v - value(expected)) < EPSILON;
+    }
+
+    private double getBalance() {
+        return preBalance + deposit - withdraw + closeProfit + positionProfit - commission;
+    }
+
+    private synchronized void setDeposit(double deposit) {
+        this.deposit = deposit;
+    }
+
+    private synchronized void setWithdraw(double withdraw) {
+        this.withdraw = withdraw;
+    }
+
+    private double value(Double v) {
+        return v == null ? 0.0D : v;
+    }
+
+    private static abstract class LedgerListener<T> implements IDataListener<T> {
+
+        private final IDataListener<T> next;
+
+        LedgerListener(IDataListener<T> previous) {
+            /*
+             * Chain to the listener that a ledger listener chains to, so
+             * re-initialization doesn't apply a change twice.
+             */
+            if (previous instanceof LedgerListener) {
+                next = ((LedgerListener<T>) previous).next;
+            }
+            else {
+                next = previous;
+            }
+        }
+
+        @Override
+        public void onChange(T object, DataChange change, IDataConnection source) {
+            try {
+                apply(object, change, source);
+            }
+            catch (EngineException e) {
+                throw new EngineRuntimeException(e.getCode(),
+                                                 e.getMessage(),
+                                                 e);
+            }
+            finally {
+                if (next != null) {
+                    next.onChange(object, change, source);
+                }
+            }
+        }
+
+        abstract void apply(T object, DataChange change, IDataConnection source) throws EngineException;
+    }
+}
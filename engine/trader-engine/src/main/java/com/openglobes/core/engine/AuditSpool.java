@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Response;
+import com.openglobes.core.Trade;
+import com.openglobes.core.exceptions.EngineException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only spool of audit rows pending write-behind.
+ * <p>
+ * A row is appended before it is queued, and the committed sequence in
+ * header is moved after the row is written to data source. After a crash,
+ * rows behind the committed sequence are recovered and written again. A torn
+ * record at the tail fails its checksum and ends the recovery.
+ * <p>
+ * File layout:
+ * <pre>
+ * header : magic(8) committed(8)
+ * record : length(4) sequence(8) type(1) row(length - 9) crc(4)
+ * </pre>
+ * File is truncated to header once all appended rows are committed. If rows
+ * keep flowing and the file grows past a threshold, the uncommitted records
+ * are copied to a new file that replaces the spool, so the committed prefix
+ * doesn't grow for the whole session.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class AuditSpool implements AutoCloseable {
+
+    private static final long COMPACT_SIZE = 64L << 20;
+    private static final int HEADER_SIZE = 16;
+    private static final int INIT_BUFFER_SIZE = 1024;
+    private static final long MAGIC = 0x4F47415544535031L;
+    private static final byte TYPE_RESPONSE = 1;
+    private static final byte TYPE_TRADE = 2;
+
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private long compactAt;
+    private long committed;
+    private long last;
+    private final Path path;
+
+    /**
+     * Open spool file, or create it if it doesn't exist.
+     *
+     * @param path path of spool file
+     *
+     * @throws EngineException if file can't be opened or isn't a spool
+     */
+    public AuditSpool(Path path) throws EngineException {
+        this.path = path;
+        buffer = ByteBuffer.allocate(INIT_BUFFER_SIZE);
+        compactAt = COMPACT_SIZE;
+        try {
+            channel = FileChannel.open(path,
+                                       StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            if (channel.size() < HEADER_SIZE) {
+                channel.truncate(0);
+                writeHeader(channel, 0L);
+            }
+            else {
+                var h = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(h, 0);
+                if (h.getLong(0) != MAGIC) {
+                    channel.close();
+                    throw new EngineException(ExceptionCodes.AUDIT_SPOOL_CORRUPTED.code(),
+                                              ExceptionCodes.AUDIT_SPOOL_CORRUPTED.message()
+                                              + "(" + path + ")");
+                }
+                committed = h.getLong(8);
+                last = committed;
+            }
+        }
+        catch (IOException e) {
+            throw ioFailure(e);
+        }
+    }
+
+    /**
+     * Append row to spool.
+     *
+     * @param row {@link Response} or {@link Trade}
+     *
+     * @return sequence of the row
+     *
+     * @throws EngineException if row can't be written
+     */
+    public synchronized long append(Object row) throws EngineException {
+        while (true) {
+            try {
+                buffer.clear();
+                buffer.position(4);
+                buffer.putLong(last + 1);
+                if (row instanceof Response) {
+                    buffer.put(TYPE_RESPONSE);
+                    EventCodec.putResponse(buffer, (Response) row);
+                }
+                else {
+                    buffer.put(TYPE_TRADE);
+                    EventCodec.putTrade(buffer, (Trade) row);
+                }
+                var n = buffer.position() - 4;
+                var crc = new CRC32();
+                crc.update(buffer.array(), 4, n);
+                buffer.putInt(0, n);
+                buffer.putInt((int) crc.getValue());
+                break;
+            }
+            catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+        try {
+            buffer.flip();
+            var position = channel.size();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return ++last;
+        }
+        catch (IOException e) {
+            throw ioFailure(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws EngineException {
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            throw ioFailure(e);
+        }
+    }
+
+    /**
+     * Mark rows up to the sequence written to data source. Spool is truncated
+     * if no row is pending.
+     *
+     * @param sequence sequence of the last written row
+     *
+     * @throws EngineException if spool can't be written
+     */
+    public synchronized void commit(long sequence) throws EngineException {
+        if (sequence <= committed) {
+            return;
+        }
+        committed = sequence;
+        try {
+            writeHeader(channel, committed);
+            if (committed == last) {
+                channel.truncate(HEADER_SIZE);
+            }
+            else if (channel.size() > compactAt) {
+                compact();
+            }
+            channel.force(false);
+        }
+        catch (IOException e) {
+            throw ioFailure(e);
+        }
+    }
+
+    /**
+     * Read rows that are appended but not committed.
+     *
+     * @param sequences receives sequence of each row
+     *
+     * @return rows in the order they are appended
+     *
+     * @throws EngineException if file can't be read
+     */
+    public synchronized List<Object> recover(List<Long> sequences) throws EngineException {
+        var rows = new LinkedList<Object>();
+        try {
+            var position = (long) HEADER_SIZE;
+            var size = channel.size();
+            var len = ByteBuffer.allocate(4);
+            while (position + 4 <= size) {
+                len.clear();
+                readFully(len, position);
+                var n = len.getInt(0);
+                if (n < 9 || position + 8 + n > size) {
+                    break;
+                }
+                var body = ByteBuffer.allocate(n + 4);
+                readFully(body, position + 4);
+                var crc = new CRC32();
+                crc.update(body.array(), 0, n);
+                if (body.getInt(n) != (int) crc.getValue()) {
+                    break;
+                }
+                body.position(0);
+                body.limit(n);
+                var sequence = body.getLong();
+                var type = body.get();
+                var row = type == TYPE_RESPONSE ? EventCodec.getResponse(body) : EventCodec.getTrade(body);
+                if (sequence > committed) {
+                    rows.add(row);
+                    sequences.add(sequence);
+                }
+                last = Math.max(last, sequence);
+                position += 8 + n;
+            }
+            /*
+             * Drop the torn tail so later appends follow valid records.
+             */
+            channel.truncate(position);
+            return rows;
+        }
+        catch (IOException e) {
+            throw ioFailure(e);
+        }
+    }
+
+    /*
+     * Copy records behind the committed sequence to a new file and move it
+     * over the spool, so a crash leaves either the old or the new file.
+     */
+    private void compact() throws IOException {
+        var position = (long) HEADER_SIZE;
+        var size = channel.size();
+        var h = ByteBuffer.allocate(12);
+        while (position + 12 <= size) {
+            h.clear();
+            readFully(h, position);
+            if (h.getLong(4) > committed) {
+                break;
+            }
+            position += 8 + h.getInt(0);
+        }
+        var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var out = FileChannel.open(tmp,
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.TRUNCATE_EXISTING,
+                                        StandardOpenOption.WRITE)) {
+            writeHeader(out, committed);
+            out.position(HEADER_SIZE);
+            var p = position;
+            while (p < size) {
+                p += channel.transferTo(p, size - p, out);
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path,
+                                   StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        /*
+         * If most records are still pending, wait for the file to double
+         * before copying them again.
+         */
+        compactAt = Math.max(COMPACT_SIZE, channel.size() << 1);
+    }
+
+    private EngineException ioFailure(IOException e) {
+        return new EngineException(ExceptionCodes.AUDIT_SPOOL_IO_FAILED.code(),
+                                   ExceptionCodes.AUDIT_SPOOL_IO_FAILED.message()
+                                   + "(" + path + ")",
+                                   e);
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            var n = channel.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of spool.");
+            }
+            position += n;
+        }
+    }
+
+    private void writeHeader(FileChannel ch, long sequence) throws IOException {
+        var h = ByteBuffer.allocate(HEADER_SIZE);
+        h.putLong(MAGIC).putLong(sequence).flip();
+        while (h.hasRemaining()) {
+            ch.write(h, h.position());
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Response;
+import com.openglobes.core.Trade;
+import com.openglobes.core.exceptions.EngineException;
+import com.openglobes.core.exceptions.EngineRuntimeException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Write audit rows, responses and trades, behind the state transitions.
+ * <p>
+ * Audit rows are never read on the critical path, so they don't need to be
+ * written in the transaction of state-bearing rows. Rows are queued in a
+ * bounded queue and inserted in batches on a single thread. Caller blocks if
+ * the queue is full. Call {@link #flush(long)} before reading audit rows, for
+ * example, at settlement.
+ * <p>
+ * If a spool is opened, each row is appended to the spool before it is
+ * queued, and rows not written before a crash are written at next start.
+ * Rows that fail to be written are retried, and the spool is never committed
+ * past them. A row that still fails after retries is appended to the dead
+ * letter spool if it is opened, reported and counted as done, so one bad row
+ * never blocks the others.
+ * <p>
+ * If writer is not started, rows are written on the calling thread.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class AuditWriter {
+
+    private static final int BATCH_SIZE = 512;
+    private static final long POLL_MILLIS = 100L;
+    private static final int RETRY_TIMES = 5;
+
+    private AuditSpool deadLetter;
+    private long done;
+    private final ITraderEngine engine;
+    private final Object enqueueLock;
+    private final Consumer<EngineRuntimeException> onFailure;
+    private BlockingQueue<Row> queue;
+    private volatile boolean running;
+    private AuditSpool spool;
+    private long submitted;
+    private volatile Thread worker;
+
+    public AuditWriter(ITraderEngine engine, Consumer<EngineRuntimeException> onFailure) {
+        this.engine = engine;
+        this.onFailure = onFailure;
+        enqueueLock = new Object();
+    }
+
+    public void addResponse(Response response) {
+        add(response);
+    }
+
+    public void addTrade(Trade trade) {
+        add(trade);
+    }
+
+    /**
+     * Wait until all rows added before the call are written or moved to dead
+     * letter, or until timeout.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     *
+     * @return {@code true} if all rows are done in time
+     */
+    public boolean flush(long timeoutMillis) {
+        synchronized (this) {
+            var target = submitted;
+            var deadline = System.currentTimeMillis() + timeoutMillis;
+            while (done < target && worker != null) {
+                var w = deadline - System.currentTimeMillis();
+                if (w <= 0) {
+                    return false;
+                }
+                try {
+                    wait(Math.min(w, POLL_MILLIS));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public synchronized long getPending() {
+        return submitted - done;
+    }
+
+    public boolean isStarted() {
+        return worker != null;
+    }
+
+    /**
+     * Start writer thread. Rows left in spool by last run are written before
+     * the call returns.
+     *
+     * @param queueSize  maximum rows queued
+     * @param spool      local spool, or {@code null} if rows are not spooled
+     * @param deadLetter spool of rows that can't be written, or {@code null}
+     *                   if they are only reported
+     *
+     * @throws EngineException if queue size is not positive, or spool can't
+     *                         be recovered
+     */
+    public synchronized void start(int queueSize,
+                                   AuditSpool spool,
+                                   AuditSpool deadLetter) throws EngineException {
+        if (queueSize <= 0) {
+            throw new EngineException(ExceptionCodes.INVALID_AUDIT_QUEUE_SIZE.code(),
+                                      ExceptionCodes.INVALID_AUDIT_QUEUE_SIZE.message()
+                                      + "(" + queueSize + ")");
+        }
+        if (worker != null) {
+            return;
+        }
+        this.deadLetter = deadLetter;
+        if (spool != null) {
+            recover(spool);
+        }
+        this.spool = spool;
+        queue = new ArrayBlockingQueue<>(queueSize);
+        running = true;
+        worker = new Thread(this::run, "AuditWriter");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop accepting rows and wait for the queued ones to be written.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     *
+     * @return {@code true} if all rows are written in time
+     */
+    public boolean stop(long timeoutMillis) {
+        Thread w;
+        synchronized (this) {
+            w = worker;
+            if (w == null) {
+                return true;
+            }
+            running = false;
+        }
+        try {
+            w.join(timeoutMillis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            worker = null;
+            notifyAll();
+            closeSpool();
+            return queue.isEmpty() && done == submitted;
+        }
+    }
+
+    private void add(Object value) {
+        if (worker == null) {
+            write(List.of(new Row(0L, value)), true);
+            return;
+        }
+        /*
+         * Rows are spooled and queued in the same order, so the committed
+         * sequence never passes a row that is still queued.
+         */
+        synchronized (enqueueLock) {
+            var sequence = 0L;
+            var s = spool;
+            if (s != null) {
+                try {
+                    sequence = s.append(value);
+                }
+                catch (EngineException e) {
+                    onFailure.accept(new EngineRuntimeException(e.getCode(),
+                                                                e.getMessage(),
+                                                                e));
+                }
+            }
+            synchronized (this) {
+                ++submitted;
+            }
+            try {
+                queue.put(new Row(sequence, value));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (this) {
+                    --submitted;
+                }
+            }
+        }
+    }
+
+    private void close(AuditSpool s) {
+        if (s == null) {
+            return;
+        }
+        try {
+            s.close();
+        }
+        catch (EngineException e) {
+            onFailure.accept(new EngineRuntimeException(e.getCode(),
+                                                        e.getMessage(),
+                                                        e));
+        }
+    }
+
+    private void closeSpool() {
+        close(spool);
+        close(deadLetter);
+        spool = null;
+        deadLetter = null;
+    }
+
+    private void commitSpool(long sequence) {
+        var s = spool;
+        if (s == null) {
+            return;
+        }
+        try {
+            s.commit(sequence);
+        }
+        catch (EngineException e) {
+            onFailure.accept(new EngineRuntimeException(e.getCode(),
+                                                        e.getMessage(),
+                                                        e));
+        }
+    }
+
+    private void deadLetter(Row row) {
+        var d = deadLetter;
+        if (d != null) {
+            try {
+                d.append(row.getValue());
+            }
+            catch (EngineException e) {
+                onFailure.accept(new EngineRuntimeException(e.getCode(),
+                                                            e.getMessage(),
+                                                            e));
+            }
+        }
+        var v = row.getValue();
+        onFailure.accept(new EngineRuntimeException(ExceptionCodes.AUDIT_ROW_DEAD.code(),
+                                                    ExceptionCodes.AUDIT_ROW_DEAD.message()
+                                                    + (v instanceof Response
+                                                       ? "(Response ID:" + ((Response) v).getResponseId() + ")"
+                                                       : "(Trade ID:" + ((Trade) v).getTradeId() + ")")));
+    }
+
+    private boolean isWritten(Row row) {
+        try {
+            var conn = engine.getDataSource().getConnection();
+            var v = row.getValue();
+            if (v instanceof Response) {
+                return conn.getResponseById(((Response) v).getResponseId()) != null;
+            }
+            else {
+                return conn.getTradeById(((Trade) v).getTradeId()) != null;
+            }
+        }
+        catch (EngineException e) {
+            return false;
+        }
+    }
+
+    private void recover(AuditSpool spool) throws EngineException {
+        var sequences = new LinkedList<Long>();
+        var values = spool.recover(sequences);
+        if (values.isEmpty()) {
+            return;
+        }
+        var rows = new ArrayList<Row>(values.size());
+        var i = sequences.iterator();
+        for (var v : values) {
+            rows.add(new Row(i.next(), v));
+        }
+        if (!write(rows, false)) {
+            /*
+             * Rows written after a pending row are in spool too, skip them.
+             * A row that keeps failing goes to dead letter, so it never stops
+             * the engine from starting.
+             */
+            for (var r : rows) {
+                if (isWritten(r)) {
+                    continue;
+                }
+                while (!write(List.of(r), false)) {
+                    if (r.retried() >= RETRY_TIMES) {
+                        deadLetter(r);
+                        break;
+                    }
+                }
+            }
+        }
+        spool.commit(sequences.getLast());
+    }
+
+    private void rollback(IDataConnection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.rollback();
+        }
+        catch (DataSourceException e) {
+            onFailure.accept(new EngineRuntimeException(e.getCode(),
+                                                        e.getMessage(),
+                                                        e));
+        }
+    }
+
+    private void run() {
+        var last = 0L;
+        var pending = new ArrayList<Row>(BATCH_SIZE);
+        var rows = new ArrayList<Row>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                /*
+                 * Stop taking new rows while too many rows are pending, so
+                 * queue fills up and callers block until data source is back.
+                 */
+                Row r = null;
+                if (pending.size() < BATCH_SIZE) {
+                    r = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                else {
+                    Thread.sleep(POLL_MILLIS);
+                }
+                if (r == null && pending.isEmpty()) {
+                    continue;
+                }
+                rows.addAll(pending);
+                pending.clear();
+                if (r != null) {
+                    rows.add(r);
+                    queue.drainTo(rows, BATCH_SIZE - rows.size());
+                }
+                for (var row : rows) {
+                    last = Math.max(last, row.getSequence());
+                }
+                var finished = rows.size();
+                if (!write(rows, false)) {
+                    /*
+                     * Find the bad rows, keep the good ones and retry the bad
+                     * ones later. Report a row only the first time it fails,
+                     * and move it to dead letter after retries.
+                     */
+                    finished = 0;
+                    for (var row : rows) {
+                        if (write(List.of(row), row.getAttempts() == 0)) {
+                            ++finished;
+                        }
+                        else if (row.retried() >= RETRY_TIMES) {
+                            deadLetter(row);
+                            ++finished;
+                        }
+                        else {
+                            pending.add(row);
+                        }
+                    }
+                }
+                /*
+                 * Rows are in sequence order, so commit up to the first
+                 * pending row and it is written again at next start if it is
+                 * still pending.
+                 */
+                commitSpool(pending.isEmpty() ? last : pending.get(0).getSequence() - 1);
+                synchronized (this) {
+                    done += finished;
+                    notifyAll();
+                }
+                rows.clear();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean write(List<Row> rows, boolean report) {
+        IDataConnection conn = null;
+        try {
+            conn = engine.getDataSource().getConnection();
+            conn.transaction();
+            for (var r : rows) {
+                var v = r.getValue();
+                if (v instanceof Response) {
+                    conn.addResponse((Response) v);
+                }
+                else {
+                    conn.addTrade((Trade) v);
+                }
+            }
+            conn.commit();
+            return true;
+        }
+        catch (EngineException e) {
+            rollback(conn);
+            if (report) {
+                onFailure.accept(new EngineRuntimeException(ExceptionCodes.DS_FAILURE_UNFIXABLE.code(),
+                                                            ExceptionCodes.DS_FAILURE_UNFIXABLE.message(),
+                                                            e));
+            }
+        }
+        catch (Throwable th) {
+            rollback(conn);
+            if (report) {
+                onFailure.accept(new EngineRuntimeException(ExceptionCodes.UNEXPECTED_ERROR.code(),
+                                                            ExceptionCodes.UNEXPECTED_ERROR.message(),
+                                                            th));
+            }
+        }
+        return false;
+    }
+
+    private static class Row {
+
+        private int attempts;
+        private final long sequence;
+        private final Object value;
+
+        Row(long sequence, Object value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        Object getValue() {
+            return value;
+        }
+
+        int getAttempts() {
+            return attempts;
+        }
+
+        int retried() {
+            return ++attempts;
+        }
+    }
+}
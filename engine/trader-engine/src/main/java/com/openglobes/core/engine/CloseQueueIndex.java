@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Contract;
+import com.openglobes.core.ContractStatus;
+import com.openglobes.core.Direction;
+import com.openglobes.core.Margin;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory index of open contracts for selecting contracts to close.
+ * <p>
+ * Contracts are queued per instrument, direction and trader, and ordered from
+ * earlier to later by open timestamp. Contracts opened before the current
+ * trading day and those opened today are queued separately, so a close request
+ * takes the earlier contracts first without reading data source or sorting.
+ * <p>
+ * The index is rebuilt from data source on initialization and updated after
+ * the changes of contracts are committed.
+ * <p>
+ * Margins of contracts dealed or frozen in this process are kept by contract
+ * ID, so closing them needs no read of data source. Contracts loaded from
+ * data source have no margin kept until they are frozen once.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class CloseQueueIndex {
+
+    private final Map<Long, Margin> margins;
+    private final Map<String, Map<Direction, Map<Integer, ContractQueue>>> queues;
+    private LocalDate tradingDay;
+
+    public CloseQueueIndex() {
+        margins = new HashMap<>(4096);
+        queues = new HashMap<>(512);
+    }
+
+    /**
+     * Add open contracts to index.
+     *
+     * @param contracts open contracts
+     */
+    public synchronized void add(Collection<Contract> contracts) {
+        contracts.forEach(c -> {
+            add(c);
+        });
+    }
+
+    /**
+     * Copy all indexed contracts.
+     *
+     * @return open contracts in index
+     */
+    public synchronized Collection<Contract> getContracts() {
+        var r = new LinkedList<Contract>();
+        queues.values().forEach(ds -> {
+            ds.values().forEach(ts -> {
+                ts.values().forEach(q -> {
+                    r.addAll(q.get(false));
+                    r.addAll(q.get(true));
+                });
+            });
+        });
+        return r;
+    }
+
+    /**
+     * Get kept margin of a contract.
+     *
+     * @param contractId contract ID
+     *
+     * @return margin of the contract, or {@code null} if it isn't kept
+     */
+    public synchronized Margin getMargin(Long contractId) {
+        return margins.get(contractId);
+    }
+
+    public synchronized LocalDate getTradingDay() {
+        return tradingDay;
+    }
+
+    /**
+     * Check if margins of all selected contracts are kept.
+     *
+     * @param selection selected contracts
+     *
+     * @return {@code true} if all margins are kept
+     */
+    public synchronized boolean hasMargins(CloseSelection selection) {
+        for (var c : selection.getYesterday()) {
+            if (!margins.containsKey(c.getContractId())) {
+                return false;
+            }
+        }
+        for (var c : selection.getToday()) {
+            if (!margins.containsKey(c.getContractId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keep margin of a contract. The margin object is shared with the frozen
+     * bundle, so its later changes are seen here.
+     *
+     * @param margin margin of open or closing contract
+     */
+    public synchronized void putMargin(Margin margin) {
+        margins.put(margin.getContractId(), margin);
+    }
+
+    /**
+     * Remove contracts from index if they are indexed.
+     *
+     * @param contracts contracts to remove
+     */
+    public synchronized void remove(Collection<Contract> contracts) {
+        contracts.forEach(c -> {
+            var q = getQueue(c);
+            if (q != null) {
+                q.remove(c);
+            }
+        });
+    }
+
+    public synchronized void removeMargin(Long contractId) {
+        margins.remove(contractId);
+    }
+
+    /**
+     * Remove kept margins of the contracts.
+     *
+     * @param contracts contracts closed, or whose changes are dropped
+     */
+    public synchronized void removeMargins(Collection<Contract> contracts) {
+        contracts.forEach(c -> {
+            margins.remove(c.getContractId());
+        });
+    }
+
+    /**
+     * Rebuild index with open contracts on the specified trading day.
+     * Kept margins are cleared.
+     *
+     * @param contracts  open contracts
+     * @param tradingDay current trading day
+     */
+    public synchronized void reset(Collection<Contract> contracts, LocalDate tradingDay) {
+        this.tradingDay = tradingDay;
+        margins.clear();
+        queues.clear();
+        contracts.forEach(c -> {
+            add(c);
+        });
+    }
+
+    /**
+     * Rebuild index of the specified instrument. Kept margins of the indexed
+     * contracts of the instrument are removed, for they may be changed by a
+     * failed freeze.
+     *
+     * @param instrumentId instrument ID
+     * @param contracts    contracts of the instrument
+     */
+    public synchronized void reset(String instrumentId, Collection<Contract> contracts) {
+        var ds = queues.remove(instrumentId);
+        if (ds != null) {
+            ds.values().forEach(ts -> {
+                ts.values().forEach(q -> {
+                    removeMargins(q.get(false));
+                    removeMargins(q.get(true));
+                });
+            });
+        }
+        contracts.forEach(c -> {
+            if (Objects.equals(instrumentId, c.getInstrumentId())) {
+                add(c);
+            }
+        });
+    }
+
+    /**
+     * Select earlier contracts until their lots reach the specified quantity.
+     * The selected contracts are left in index, and the last selected contract
+     * may have more lots than needed.
+     *
+     * @param instrumentId instrument ID
+     * @param direction    direction of the contracts to close
+     * @param quantity     lots to close
+     *
+     * @return selected contracts
+     */
+    public synchronized CloseSelection select(String instrumentId,
+                                              Direction direction,
+                                              long quantity) {
+        var r = new CloseSelection();
+        var ds = queues.get(instrumentId);
+        if (ds == null) {
+            return r;
+        }
+        var ts = ds.get(direction);
+        if (ts == null) {
+            return r;
+        }
+        /*
+         * Contracts opened before today are always earlier.
+         */
+        var rest = quantity;
+        var it = new Merger(ts.values(), false);
+        while (rest > 0 && it.hasNext()) {
+            var c = it.next();
+            r.addYesterday(c);
+            rest -= c.getQuantity();
+        }
+        it = new Merger(ts.values(), true);
+        while (rest > 0 && it.hasNext()) {
+            var c = it.next();
+            r.addToday(c);
+            rest -= c.getQuantity();
+        }
+        return r;
+    }
+
+    private void add(Contract c) {
+        if (c.getStatus() != ContractStatus.OPEN) {
+            return;
+        }
+        queues.computeIfAbsent(c.getInstrumentId(), k -> new HashMap<>(4))
+                .computeIfAbsent(c.getDirection(), k -> new HashMap<>(8))
+                .computeIfAbsent(c.getTraderId(), k -> new ContractQueue())
+                .add(c, isToday(c));
+    }
+
+    private ContractQueue getQueue(Contract c) {
+        var ds = queues.get(c.getInstrumentId());
+        if (ds == null) {
+            return null;
+        }
+        var ts = ds.get(c.getDirection());
+        if (ts == null) {
+            return null;
+        }
+        return ts.get(c.getTraderId());
+    }
+
+    private boolean isToday(Contract c) {
+        return tradingDay == null || !c.getOpenTradingDay().isBefore(tradingDay);
+    }
+
+    private static boolean isEarlier(Contract c0, Contract c1) {
+        return c0.getOpenTimestamp().isBefore(c1.getOpenTimestamp());
+    }
+
+    private static class ContractQueue {
+
+        private final LinkedList<Contract> today;
+        private final LinkedList<Contract> yesterday;
+
+        ContractQueue() {
+            today = new LinkedList<>();
+            yesterday = new LinkedList<>();
+        }
+
+        void add(Contract c, boolean isToday) {
+            var q = isToday ? today : yesterday;
+            /*
+             * Contracts are mostly opened in time order, so scan from the
+             * last.
+             */
+            var it = q.listIterator(q.size());
+            while (it.hasPrevious()) {
+                if (!isEarlier(c, it.previous())) {
+                    it.next();
+                    break;
+                }
+            }
+            it.add(c);
+        }
+
+        LinkedList<Contract> get(boolean isToday) {
+            return isToday ? today : yesterday;
+        }
+
+        void remove(Contract c) {
+            if (!remove(today, c)) {
+                remove(yesterday, c);
+            }
+        }
+
+        private boolean remove(LinkedList<Contract> q, Contract c) {
+            /*
+             * Closed contracts are mostly at head.
+             */
+            var it = q.iterator();
+            while (it.hasNext()) {
+                if (Objects.equals(it.next().getContractId(), c.getContractId())) {
+                    it.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /*
+     * Merge queues of all traders from earlier to later.
+     */
+    private static class Merger implements Iterator<Contract> {
+
+        private final ArrayList<Contract> heads;
+        private final ArrayList<Iterator<Contract>> its;
+
+        Merger(Collection<ContractQueue> qs, boolean isToday) {
+            heads = new ArrayList<>(qs.size());
+            its = new ArrayList<>(qs.size());
+            qs.forEach(q -> {
+                var it = q.get(isToday).iterator();
+                its.add(it);
+                heads.add(it.hasNext() ? it.next() : null);
+            });
+        }
+
+        @Override
+        public boolean hasNext() {
+            return heads.stream().anyMatch(Objects::nonNull);
+        }
+
+        @Override
+        public Contract next() {
+            int k = -1;
+            for (int i = 0; i < heads.size(); ++i) {
+                var h = heads.get(i);
+                if (h != null && (k < 0 || isEarlier(h, heads.get(k)))) {
+                    k = i;
+                }
+            }
+            var r = heads.get(k);
+            var it = its.get(k);
+            heads.set(k, it.hasNext() ? it.next() : null);
+            return r;
+        }
+    }
+}
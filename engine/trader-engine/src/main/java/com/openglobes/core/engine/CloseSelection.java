@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Contract;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * Contracts selected for closing, split by whether they are opened today.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class CloseSelection {
+
+    private long quantity;
+    private final Collection<Contract> today;
+    private final Collection<Contract> yesterday;
+
+    public CloseSelection() {
+        today = new LinkedList<>();
+        yesterday = new LinkedList<>();
+        quantity = 0L;
+    }
+
+    public void addToday(Contract contract) {
+        today.add(contract);
+        quantity += contract.getQuantity();
+    }
+
+    public void addYesterday(Contract contract) {
+        yesterday.add(contract);
+        quantity += contract.getQuantity();
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+
+    public Collection<Contract> getToday() {
+        return today;
+    }
+
+    public Collection<Contract> getYesterday() {
+        return yesterday;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Commission;
+import com.openglobes.core.Contract;
+import com.openglobes.core.Margin;
+import com.openglobes.core.utils.Utils;
+
+/**
+ * Split lot-aggregated contract and its fees.
+ * <p>
+ * It also copies contracts and fees, so rows can be written by another
+ * thread while the originals keep changing.
+ * <p>
+ * A contract holds all lots of an order, and its commission and margin hold
+ * the fees of all those lots. When only part of the lots is filled or closed,
+ * the part is split into a new contract with proportional amounts, and the
+ * original keeps the rest.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class ContractSplitter {
+
+    public static Commission copy(Commission commission) {
+        var r = new Commission();
+        r.setCommission(commission.getCommission());
+        r.setCommissionId(commission.getCommissionId());
+        r.setContractId(commission.getContractId());
+        r.setOrderId(commission.getOrderId());
+        r.setStatus(commission.getStatus());
+        r.setTimestamp(commission.getTimestamp());
+        r.setTradingDay(commission.getTradingDay());
+        return r;
+    }
+
+    public static Contract copy(Contract contract) {
+        var r = new Contract();
+        r.setCloseAmount(contract.getCloseAmount());
+        r.setCloseTradingDay(contract.getCloseTradingDay());
+        r.setContractId(contract.getContractId());
+        r.setDirection(contract.getDirection());
+        r.setInstrumentId(contract.getInstrumentId());
+        r.setOpenAmount(contract.getOpenAmount());
+        r.setOpenTimestamp(contract.getOpenTimestamp());
+        r.setOpenTradingDay(contract.getOpenTradingDay());
+        r.setQuantity(contract.getQuantity());
+        r.setStatus(contract.getStatus());
+        r.setTimestamp(contract.getTimestamp());
+        r.setTradeId(contract.getTradeId());
+        r.setTraderId(contract.getTraderId());
+        return r;
+    }
+
+    public static Margin copy(Margin margin) {
+        var r = new Margin();
+        r.setContractId(margin.getContractId());
+        r.setMargin(margin.getMargin());
+        r.setMarginId(margin.getMarginId());
+        r.setOrderId(margin.getOrderId());
+        r.setStatus(margin.getStatus());
+        r.setTimestamp(margin.getTimestamp());
+        r.setTradingDay(margin.getTradingDay());
+        return r;
+    }
+
+    /**
+     * Split the specified quantity from contract.
+     *
+     * @param contract contract to split from
+     * @param quantity quantity of the new contract
+     *
+     * @return new contract with the specified quantity
+     */
+    public static Contract split(Contract contract, long quantity) {
+        var total = contract.getQuantity();
+        if (quantity <= 0 || quantity >= total) {
+            throw new IllegalArgumentException("Invalid split quantity(" + quantity + "/" + total + ").");
+        }
+        var r = new Contract();
+        r.setContractId(Utils.nextId());
+        r.setCloseTradingDay(contract.getCloseTradingDay());
+        r.setDirection(contract.getDirection());
+        r.setInstrumentId(contract.getInstrumentId());
+        r.setOpenTimestamp(contract.getOpenTimestamp());
+        r.setOpenTradingDay(contract.getOpenTradingDay());
+        r.setQuantity(quantity);
+        r.setStatus(contract.getStatus());
+        r.setTimestamp(contract.getTimestamp());
+        r.setTradeId(contract.getTradeId());
+        r.setTraderId(contract.getTraderId());
+        if (contract.getOpenAmount() != null) {
+            var a = part(contract.getOpenAmount(), quantity, total);
+            r.setOpenAmount(a);
+            contract.setOpenAmount(contract.getOpenAmount() - a);
+        }
+        if (contract.getCloseAmount() != null) {
+            var a = part(contract.getCloseAmount(), quantity, total);
+            r.setCloseAmount(a);
+            contract.setCloseAmount(contract.getCloseAmount() - a);
+        }
+        contract.setQuantity(total - quantity);
+        return r;
+    }
+
+    /**
+     * Split commission for the contract split from the original contract.
+     *
+     * @param commission commission to split from
+     * @param contract   new contract split from the original
+     * @param total      total quantity of the original contract before split
+     *
+     * @return new commission for the new contract
+     */
+    public static Commission split(Commission commission, Contract contract, long total) {
+        var a = part(commission.getCommission(), contract.getQuantity(), total);
+        var r = new Commission();
+        r.setCommission(a);
+        r.setCommissionId(Utils.nextId());
+        r.setContractId(contract.getContractId());
+        r.setOrderId(commission.getOrderId());
+        r.setStatus(commission.getStatus());
+        r.setTimestamp(commission.getTimestamp());
+        r.setTradingDay(commission.getTradingDay());
+        commission.setCommission(commission.getCommission() - a);
+        return r;
+    }
+
+    /**
+     * Split margin for the contract split from the original contract.
+     *
+     * @param margin   margin to split from
+     * @param contract new contract split from the original
+     * @param total    total quantity of the original contract before split
+     *
+     * @return new margin for the new contract
+     */
+    public static Margin split(Margin margin, Contract contract, long total) {
+        var a = part(margin.getMargin(), contract.getQuantity(), total);
+        var r = new Margin();
+        r.setContractId(contract.getContractId());
+        r.setMargin(a);
+        r.setMarginId(Utils.nextId());
+        r.setOrderId(margin.getOrderId());
+        r.setStatus(margin.getStatus());
+        r.setTimestamp(margin.getTimestamp());
+        r.setTradingDay(margin.getTradingDay());
+        margin.setMargin(margin.getMargin() - a);
+        return r;
+    }
+
+    private static double part(double amount, long quantity, long total) {
+        return amount * quantity / total;
+    }
+
+    private ContractSplitter() {
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.exceptions.EngineException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded shards partitioned by instrument ID.
+ * <p>
+ * Requests and trader gateway events of the same instrument are always
+ * executed on the same thread in the order they are submitted, so state
+ * partitioned by instrument is written by one thread only.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class EngineShards {
+
+    private final ThreadLocal<Integer> current;
+    private final ExecutorService[] shards;
+
+    public EngineShards(int count) {
+        current = new ThreadLocal<>();
+        shards = new ExecutorService[count];
+        for (int i = 0; i < count; ++i) {
+            final var index = i;
+            shards[i] = Executors.newSingleThreadExecutor(r -> {
+                var t = new Thread(() -> {
+                    current.set(index);
+                    r.run();
+                }, "EngineShard-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Execute task on the shard of the instrument and wait for its result. If
+     * caller is already on that shard, task is executed directly.
+     *
+     * @param <T>          type of result
+     * @param instrumentId instrument ID
+     * @param task         task to execute
+     *
+     * @return result of the task
+     *
+     * @throws EngineException if task throws exception or shard fails
+     */
+    public <T> T call(String instrumentId, Callable<T> task) throws EngineException {
+        var i = indexOf(instrumentId);
+        try {
+            if (Objects.equals(current.get(), i)) {
+                return task.call();
+            }
+            return shards[i].submit(task).get();
+        }
+        catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof EngineException) {
+                throw (EngineException) cause;
+            }
+            throw new EngineException(ExceptionCodes.SHARD_TASK_FAILED.code(),
+                                      ExceptionCodes.SHARD_TASK_FAILED.message(),
+                                      cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EngineException(ExceptionCodes.SHARD_TASK_FAILED.code(),
+                                      ExceptionCodes.SHARD_TASK_FAILED.message(),
+                                      e);
+        }
+        catch (EngineException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new EngineException(ExceptionCodes.SHARD_TASK_FAILED.code(),
+                                      ExceptionCodes.SHARD_TASK_FAILED.message(),
+                                      e);
+        }
+    }
+
+    /**
+     * Execute task on the shard of the instrument without waiting.
+     *
+     * @param instrumentId instrument ID
+     * @param task         task to execute
+     *
+     * @throws EngineException if shard is shut down
+     */
+    public void execute(String instrumentId, Runnable task) throws EngineException {
+        try {
+            shards[indexOf(instrumentId)].execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            throw new EngineException(ExceptionCodes.SHARD_TASK_FAILED.code(),
+                                      ExceptionCodes.SHARD_TASK_FAILED.message(),
+                                      e);
+        }
+    }
+
+    public int getCount() {
+        return shards.length;
+    }
+
+    /**
+     * Stop accepting tasks and wait for the submitted tasks to finish.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     *
+     * @return {@code true} if all shards terminate in time
+     *
+     * @throws EngineException if waiting is interrupted
+     */
+    public boolean shutdown(long timeoutMillis) throws EngineException {
+        for (var s : shards) {
+            s.shutdown();
+        }
+        try {
+            var r = true;
+            for (var s : shards) {
+                r &= s.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            return r;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EngineException(ExceptionCodes.SHARD_TASK_FAILED.code(),
+                                      ExceptionCodes.SHARD_TASK_FAILED.message(),
+                                      e);
+        }
+    }
+
+    private int indexOf(String instrumentId) {
+        return Math.floorMod(Objects.hashCode(instrumentId), shards.length);
+    }
+}
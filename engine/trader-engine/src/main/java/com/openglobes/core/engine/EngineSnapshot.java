@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Account;
+import com.openglobes.core.Contract;
+import com.openglobes.core.Instrument;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Engine state at one point of time, restored on initialization instead of
+ * scanning data source.
+ * <p>
+ * ID translation of each trader service is kept as the array returned by
+ * {@link IdTranslator}, the base followed by destinated ID, source ID and
+ * count down of each ID.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class EngineSnapshot {
+
+    private Account account;
+    private Collection<Contract> contracts;
+    private Map<Integer, long[]> ids;
+    private Collection<Instrument> instruments;
+    private String journalDirectory;
+    private Map<Long, Integer> orderTraders;
+    private Map<Long, WorkingOrder> orders;
+    private long sequence;
+    private LocalDate tradingDay;
+
+    public EngineSnapshot() {
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public void setAccount(Account account) {
+        this.account = account;
+    }
+
+    public Collection<Contract> getContracts() {
+        return contracts;
+    }
+
+    public void setContracts(Collection<Contract> contracts) {
+        this.contracts = contracts;
+    }
+
+    public Map<Integer, long[]> getIds() {
+        return ids;
+    }
+
+    public void setIds(Map<Integer, long[]> ids) {
+        this.ids = ids;
+    }
+
+    public Collection<Instrument> getInstruments() {
+        return instruments;
+    }
+
+    public void setInstruments(Collection<Instrument> instruments) {
+        this.instruments = instruments;
+    }
+
+    /**
+     * Get directory of the event journal that sequences the snapshot.
+     *
+     * @return journal directory, {@code null} if journal is off
+     */
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public Map<Long, Integer> getOrderTraders() {
+        return orderTraders;
+    }
+
+    public void setOrderTraders(Map<Long, Integer> orderTraders) {
+        this.orderTraders = orderTraders;
+    }
+
+    public Map<Long, WorkingOrder> getOrders() {
+        return orders;
+    }
+
+    public void setOrders(Map<Long, WorkingOrder> orders) {
+        this.orders = orders;
+    }
+
+    /**
+     * Get sequence of the last journal record before the snapshot.
+     *
+     * @return journal sequence, zero if journal is off
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public LocalDate getTradingDay() {
+        return tradingDay;
+    }
+
+    public void setTradingDay(LocalDate tradingDay) {
+        this.tradingDay = tradingDay;
+    }
+}
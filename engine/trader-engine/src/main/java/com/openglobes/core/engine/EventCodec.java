@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Account;
+import com.openglobes.core.ActionType;
+import com.openglobes.core.Commission;
+import com.openglobes.core.Contract;
+import com.openglobes.core.ContractStatus;
+import com.openglobes.core.Direction;
+import com.openglobes.core.FeeStatus;
+import com.openglobes.core.Instrument;
+import com.openglobes.core.Margin;
+import com.openglobes.core.Offset;
+import com.openglobes.core.OrderStatus;
+import com.openglobes.core.RatioType;
+import com.openglobes.core.Request;
+import com.openglobes.core.Response;
+import com.openglobes.core.Trade;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Properties;
+
+/**
+ * Binary encoding of engine inputs and state.
+ * <p>
+ * Fields are written in a fixed order. A nullable field starts with one byte
+ * flag, and a string is its UTF-8 bytes prefixed by length, -1 for
+ * {@code null}. Callers catch {@link java.nio.BufferOverflowException} if the
+ * buffer may be too small.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class EventCodec {
+
+    public static Account getAccount(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var a = new Account();
+        a.setAccountId(getDouble(b));
+        a.setBalance(getDouble(b));
+        a.setCloseProfit(getDouble(b));
+        a.setCommission(getDouble(b));
+        a.setDeposit(getDouble(b));
+        a.setFrozenCommission(getDouble(b));
+        a.setFrozenMargin(getDouble(b));
+        a.setMargin(getDouble(b));
+        a.setPositionProfit(getDouble(b));
+        a.setPreBalance(getDouble(b));
+        a.setPreDeposit(getDouble(b));
+        a.setPreMargin(getDouble(b));
+        a.setPreWithdraw(getDouble(b));
+        a.setTimestamp(getTime(b));
+        a.setTradingDay(getDate(b));
+        a.setWithdraw(getDouble(b));
+        return a;
+    }
+
+    public static Commission getCommission(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var c = new Commission();
+        c.setCommission(getDouble(b));
+        c.setCommissionId(getLong(b));
+        c.setContractId(getLong(b));
+        c.setOrderId(getLong(b));
+        c.setStatus(getEnum(b, FeeStatus.class));
+        c.setTimestamp(getTime(b));
+        c.setTradingDay(getDate(b));
+        return c;
+    }
+
+    public static Contract getContract(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var c = new Contract();
+        c.setCloseAmount(getDouble(b));
+        c.setCloseTradingDay(getDate(b));
+        c.setContractId(getLong(b));
+        c.setDirection(getEnum(b, Direction.class));
+        c.setInstrumentId(getString(b));
+        c.setOpenAmount(getDouble(b));
+        c.setOpenTimestamp(getTime(b));
+        c.setOpenTradingDay(getDate(b));
+        c.setQuantity(getLong(b));
+        c.setTradeId(getLong(b));
+        c.setStatus(getEnum(b, ContractStatus.class));
+        c.setTimestamp(getTime(b));
+        c.setTraderId(getInt(b));
+        return c;
+    }
+
+    public static LocalDate getDate(ByteBuffer b) {
+        return b.get() == 0 ? null : LocalDate.ofEpochDay(b.getLong());
+    }
+
+    public static <T extends Enum<T>> T getEnum(ByteBuffer b, Class<T> clazz) {
+        var name = getString(b);
+        return name == null ? null : Enum.valueOf(clazz, name);
+    }
+
+    public static Instrument getInstrument(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var i = new Instrument();
+        i.setCommissionCloseRatio(getDouble(b));
+        i.setCommissionCloseTodayRatio(getDouble(b));
+        i.setCommissionOpenRatio(getDouble(b));
+        i.setCommissionType(getEnum(b, RatioType.class));
+        i.setEndDate(getDate(b));
+        i.setExchangeId(getString(b));
+        i.setInstrumentId(getString(b));
+        i.setMarginRatio(getDouble(b));
+        i.setMarginType(getEnum(b, RatioType.class));
+        i.setMultiple(getLong(b));
+        i.setPriceTick(getDouble(b));
+        i.setStartDate(getDate(b));
+        i.setTimestamp(getTime(b));
+        return i;
+    }
+
+    public static Margin getMargin(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var m = new Margin();
+        m.setContractId(getLong(b));
+        m.setMargin(getDouble(b));
+        m.setMarginId(getLong(b));
+        m.setOrderId(getLong(b));
+        m.setStatus(getEnum(b, FeeStatus.class));
+        m.setTimestamp(getTime(b));
+        m.setTradingDay(getDate(b));
+        return m;
+    }
+
+    public static Properties getProperties(ByteBuffer b) {
+        var n = b.getInt();
+        if (n < 0) {
+            return null;
+        }
+        var p = new Properties();
+        for (int i = 0; i < n; ++i) {
+            p.setProperty(getString(b), getString(b));
+        }
+        return p;
+    }
+
+    public static Request getRequest(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var r = new Request();
+        r.setAction(getEnum(b, ActionType.class));
+        r.setDirection(getEnum(b, Direction.class));
+        r.setInstrumentId(getString(b));
+        r.setOffset(getEnum(b, Offset.class));
+        r.setOrderId(getLong(b));
+        r.setPrice(getDouble(b));
+        r.setQuantity(getLong(b));
+        r.setTraderId(getInt(b));
+        r.setUuid(getString(b));
+        return r;
+    }
+
+    public static Response getResponse(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var r = new Response();
+        r.setAction(getEnum(b, ActionType.class));
+        r.setDirection(getEnum(b, Direction.class));
+        r.setInstrumentId(getString(b));
+        r.setOffset(getEnum(b, Offset.class));
+        r.setOrderId(getLong(b));
+        r.setResponseId(getLong(b));
+        r.setStatus(getEnum(b, OrderStatus.class));
+        r.setStatusCode(getInt(b));
+        r.setStatusMessage(getString(b));
+        r.setTimestamp(getTime(b));
+        r.setTraderId(getInt(b));
+        r.setTradingDay(getDate(b));
+        r.setUuid(getString(b));
+        return r;
+    }
+
+    public static String getString(ByteBuffer b) {
+        var n = b.getInt();
+        if (n < 0) {
+            return null;
+        }
+        var bytes = new byte[n];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static Trade getTrade(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var t = new Trade();
+        t.setAction(getEnum(b, ActionType.class));
+        t.setDirection(getEnum(b, Direction.class));
+        t.setInstrumentId(getString(b));
+        t.setOffset(getEnum(b, Offset.class));
+        t.setOrderId(getLong(b));
+        t.setPrice(getDouble(b));
+        t.setQuantity(getLong(b));
+        t.setTimestamp(getTime(b));
+        t.setTradeId(getLong(b));
+        t.setTraderId(getInt(b));
+        t.setTradingDay(getDate(b));
+        t.setUuid(getString(b));
+        return t;
+    }
+
+    public static void putAccount(ByteBuffer b, Account a) {
+        b.put((byte) (a == null ? 0 : 1));
+        if (a == null) {
+            return;
+        }
+        putDouble(b, a.getAccountId());
+        putDouble(b, a.getBalance());
+        putDouble(b, a.getCloseProfit());
+        putDouble(b, a.getCommission());
+        putDouble(b, a.getDeposit());
+        putDouble(b, a.getFrozenCommission());
+        putDouble(b, a.getFrozenMargin());
+        putDouble(b, a.getMargin());
+        putDouble(b, a.getPositionProfit());
+        putDouble(b, a.getPreBalance());
+        putDouble(b, a.getPreDeposit());
+        putDouble(b, a.getPreMargin());
+        putDouble(b, a.getPreWithdraw());
+        putTime(b, a.getTimestamp());
+        putDate(b, a.getTradingDay());
+        putDouble(b, a.getWithdraw());
+    }
+
+    public static void putCommission(ByteBuffer b, Commission c) {
+        b.put((byte) (c == null ? 0 : 1));
+        if (c == null) {
+            return;
+        }
+        putDouble(b, c.getCommission());
+        putLong(b, c.getCommissionId());
+        putLong(b, c.getContractId());
+        putLong(b, c.getOrderId());
+        putEnum(b, c.getStatus());
+        putTime(b, c.getTimestamp());
+        putDate(b, c.getTradingDay());
+    }
+
+    public static void putContract(ByteBuffer b, Contract c) {
+        b.put((byte) (c == null ? 0 : 1));
+        if (c == null) {
+            return;
+        }
+        putDouble(b, c.getCloseAmount());
+        putDate(b, c.getCloseTradingDay());
+        putLong(b, c.getContractId());
+        putEnum(b, c.getDirection());
+        putString(b, c.getInstrumentId());
+        putDouble(b, c.getOpenAmount());
+        putTime(b, c.getOpenTimestamp());
+        putDate(b, c.getOpenTradingDay());
+        putLong(b, c.getQuantity());
+        putLong(b, c.getTradeId());
+        putEnum(b, c.getStatus());
+        putTime(b, c.getTimestamp());
+        putInt(b, c.getTraderId());
+    }
+
+    public static void putDate(ByteBuffer b, LocalDate value) {
+        b.put((byte) (value == null ? 0 : 1));
+        if (value != null) {
+            b.putLong(value.toEpochDay());
+        }
+    }
+
+    public static void putEnum(ByteBuffer b, Enum<?> value) {
+        putString(b, value == null ? null : value.name());
+    }
+
+    public static void putInstrument(ByteBuffer b, Instrument i) {
+        b.put((byte) (i == null ? 0 : 1));
+        if (i == null) {
+            return;
+        }
+        putDouble(b, i.getCommissionCloseRatio());
+        putDouble(b, i.getCommissionCloseTodayRatio());
+        putDouble(b, i.getCommissionOpenRatio());
+        putEnum(b, i.getCommissionType());
+        putDate(b, i.getEndDate());
+        putString(b, i.getExchangeId());
+        putString(b, i.getInstrumentId());
+        putDouble(b, i.getMarginRatio());
+        putEnum(b, i.getMarginType());
+        putLong(b, i.getMultiple());
+        putDouble(b, i.getPriceTick());
+        putDate(b, i.getStartDate());
+        putTime(b, i.getTimestamp());
+    }
+
+    public static void putMargin(ByteBuffer b, Margin m) {
+        b.put((byte) (m == null ? 0 : 1));
+        if (m == null) {
+            return;
+        }
+        putLong(b, m.getContractId());
+        putDouble(b, m.getMargin());
+        putLong(b, m.getMarginId());
+        putLong(b, m.getOrderId());
+        putEnum(b, m.getStatus());
+        putTime(b, m.getTimestamp());
+        putDate(b, m.getTradingDay());
+    }
+
+    public static void putProperties(ByteBuffer b, Properties p) {
+        if (p == null) {
+            b.putInt(-1);
+            return;
+        }
+        var names = p.stringPropertyNames();
+        b.putInt(names.size());
+        for (var n : names) {
+            putString(b, n);
+            putString(b, p.getProperty(n));
+        }
+    }
+
+    public static void putRequest(ByteBuffer b, Request r) {
+        b.put((byte) (r == null ? 0 : 1));
+        if (r == null) {
+            return;
+        }
+        putEnum(b, r.getAction());
+        putEnum(b, r.getDirection());
+        putString(b, r.getInstrumentId());
+        putEnum(b, r.getOffset());
+        putLong(b, r.getOrderId());
+        putDouble(b, r.getPrice());
+        putLong(b, r.getQuantity());
+        putInt(b, r.getTraderId());
+        putString(b, r.getUuid());
+    }
+
+    public static void putResponse(ByteBuffer b, Response r) {
+        b.put((byte) (r == null ? 0 : 1));
+        if (r == null) {
+            return;
+        }
+        putEnum(b, r.getAction());
+        putEnum(b, r.getDirection());
+        putString(b, r.getInstrumentId());
+        putEnum(b, r.getOffset());
+        putLong(b, r.getOrderId());
+        putLong(b, r.getResponseId());
+        putEnum(b, r.getStatus());
+        putInt(b, r.getStatusCode());
+        putString(b, r.getStatusMessage());
+        putTime(b, r.getTimestamp());
+        putInt(b, r.getTraderId());
+        putDate(b, r.getTradingDay());
+        putString(b, r.getUuid());
+    }
+
+    public static void putString(ByteBuffer b, String value) {
+        if (value == null) {
+            b.putInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        b.putInt(bytes.length);
+        b.put(bytes);
+    }
+
+    public static void putTrade(ByteBuffer b, Trade t) {
+        b.put((byte) (t == null ? 0 : 1));
+        if (t == null) {
+            return;
+        }
+        putEnum(b, t.getAction());
+        putEnum(b, t.getDirection());
+        putString(b, t.getInstrumentId());
+        putEnum(b, t.getOffset());
+        putLong(b, t.getOrderId());
+        putDouble(b, t.getPrice());
+        putLong(b, t.getQuantity());
+        putTime(b, t.getTimestamp());
+        putLong(b, t.getTradeId());
+        putInt(b, t.getTraderId());
+        putDate(b, t.getTradingDay());
+        putString(b, t.getUuid());
+    }
+
+    private static Double getDouble(ByteBuffer b) {
+        return b.get() == 0 ? null : b.getDouble();
+    }
+
+    private static Integer getInt(ByteBuffer b) {
+        return b.get() == 0 ? null : b.getInt();
+    }
+
+    static Long getLong(ByteBuffer b) {
+        return b.get() == 0 ? null : b.getLong();
+    }
+
+    private static ZonedDateTime getTime(ByteBuffer b) {
+        if (b.get() == 0) {
+            return null;
+        }
+        var seconds = b.getLong();
+        var nanos = b.getInt();
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(seconds, nanos),
+                                       ZoneId.of(getString(b)));
+    }
+
+    private static void putDouble(ByteBuffer b, Double value) {
+        b.put((byte) (value == null ? 0 : 1));
+        if (value != null) {
+            b.putDouble(value);
+        }
+    }
+
+    private static void putInt(ByteBuffer b, Integer value) {
+        b.put((byte) (value == null ? 0 : 1));
+        if (value != null) {
+            b.putInt(value);
+        }
+    }
+
+    static void putLong(ByteBuffer b, Long value) {
+        b.put((byte) (value == null ? 0 : 1));
+        if (value != null) {
+            b.putLong(value);
+        }
+    }
+
+    private static void putTime(ByteBuffer b, ZonedDateTime value) {
+        b.put((byte) (value == null ? 0 : 1));
+        if (value != null) {
+            b.putLong(value.toEpochSecond());
+            b.putInt(value.getNano());
+            putString(b, value.getZone().getId());
+        }
+    }
+
+    private EventCodec() {
+    }
+}
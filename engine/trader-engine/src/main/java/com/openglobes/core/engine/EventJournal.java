@@ -0,0 +1,566 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Instrument;
+import com.openglobes.core.Request;
+import com.openglobes.core.Response;
+import com.openglobes.core.Trade;
+import com.openglobes.core.exceptions.EngineException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of engine inputs in memory-mapped segment files.
+ * <p>
+ * Each input is encoded straight into mapped memory with the next sequence,
+ * so recording an input is one append under a lock and no system call. Length
+ * of a record is written last, and a scanner stops at the first record with
+ * zero length or bad checksum. Mapped pages survive a crash of the process,
+ * and {@link #sync()} forces them to disk.
+ * <p>
+ * Segment layout, file name is {@code journal-<first sequence>.dat}:
+ * <pre>
+ * header : magic(8) firstSequence(8)
+ * record : length(4) crc(4) sequence(8) millis(8) type(1) traderId(4) body
+ * </pre>
+ * Length counts bytes after the checksum. Body is encoded by
+ * {@link EventCodec} and depends on {@link JournalEventType}.
+ * <p>
+ * At settlement, {@link #archive(int)} moves the segments of the settled day
+ * into {@code archive/<last sequence>} under the journal directory, so the
+ * directory holds only the current trading day and old days can be purged.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class EventJournal implements AutoCloseable {
+
+    public static final int NO_TRADER_ID = -1;
+
+    static final String ARCHIVE = "archive";
+    static final int HEADER_SIZE = 16;
+    static final long MAGIC = 0x4F474A524E4C3031L;
+    static final String PREFIX = "journal-";
+    static final String SUFFIX = ".dat";
+
+    private MappedByteBuffer buffer;
+    private FileChannel channel;
+    private final Path directory;
+    private final int segmentSize;
+    private long sequence;
+
+    /**
+     * Open journal in directory, or create it if directory has no segment.
+     * Appends continue after the last valid record.
+     *
+     * @param directory   directory of segment files
+     * @param segmentSize bytes of each segment file
+     *
+     * @throws EngineException if segment can't be mapped or isn't a journal
+     */
+    public EventJournal(Path directory, int segmentSize) throws EngineException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new EngineException(ExceptionCodes.INVALID_JOURNAL_SEGMENT_SIZE.code(),
+                                      ExceptionCodes.INVALID_JOURNAL_SEGMENT_SIZE.message()
+                                      + "(" + segmentSize + ")");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            var segments = listSegments(directory);
+            if (segments.length == 0) {
+                roll(1L);
+            }
+            else {
+                open(segments[segments.length - 1]);
+            }
+        }
+        catch (IOException e) {
+            throw ioFailure(directory, e);
+        }
+    }
+
+    public long appendEngineStatus(EngineStatus status) throws EngineException {
+        return append(JournalEventType.ENGINE_STATUS, NO_TRADER_ID, b -> {
+            b.putInt(status.code());
+        });
+    }
+
+    public long appendException(int traderId, int code, String message) throws EngineException {
+        return append(JournalEventType.EXCEPTION, traderId, b -> {
+            b.putInt(code);
+            EventCodec.putString(b, message);
+        });
+    }
+
+    public long appendRequest(Request request,
+                              Instrument instrument,
+                              Properties properties,
+                              int requestId) throws EngineException {
+        return append(JournalEventType.REQUEST, NO_TRADER_ID, b -> {
+            b.putInt(requestId);
+            EventCodec.putRequest(b, request);
+            EventCodec.putInstrument(b, instrument);
+            EventCodec.putProperties(b, properties);
+        });
+    }
+
+    public long appendRequestException(int traderId,
+                                       Request request,
+                                       int code,
+                                       String message,
+                                       int requestId) throws EngineException {
+        return append(JournalEventType.REQUEST_EXCEPTION, traderId, b -> {
+            b.putInt(requestId);
+            EventCodec.putRequest(b, request);
+            b.putInt(code);
+            EventCodec.putString(b, message);
+        });
+    }
+
+    public long appendResponse(int traderId, Response response) throws EngineException {
+        return append(JournalEventType.RESPONSE, traderId, b -> {
+            EventCodec.putResponse(b, response);
+        });
+    }
+
+    public long appendRoute(int traderId, Long orderId) throws EngineException {
+        return append(JournalEventType.ROUTE, traderId, b -> {
+            EventCodec.putLong(b, orderId);
+        });
+    }
+
+    public long appendTrade(int traderId, Trade trade) throws EngineException {
+        return append(JournalEventType.TRADE, traderId, b -> {
+            EventCodec.putTrade(b, trade);
+        });
+    }
+
+    public long appendTraderStart(int traderId, long lastId) throws EngineException {
+        return append(JournalEventType.TRADER_START, traderId, b -> {
+            b.putLong(lastId);
+        });
+    }
+
+    public long appendTraderStatus(int traderId, int status) throws EngineException {
+        return append(JournalEventType.TRADER_STATUS, traderId, b -> {
+            b.putInt(status);
+        });
+    }
+
+    /**
+     * Move all records so far into a new archive and start a new segment,
+     * then delete the oldest archives beyond the given count. Sequence
+     * continues in the new segment.
+     *
+     * @param keep number of archives to keep, negative to keep all
+     *
+     * @throws EngineException if journal is closed, or segments can't be
+     *                         moved or deleted
+     */
+    public synchronized void archive(int keep) throws EngineException {
+        if (channel == null) {
+            throw new EngineException(ExceptionCodes.JOURNAL_CLOSED.code(),
+                                      ExceptionCodes.JOURNAL_CLOSED.message());
+        }
+        try {
+            if (buffer.position() > HEADER_SIZE) {
+                roll(sequence + 1);
+            }
+            var segments = listSegments(directory);
+            if (segments.length > 1) {
+                var target = directory.resolve(ARCHIVE).resolve(String.format("%020d", sequence));
+                Files.createDirectories(target);
+                /*
+                 * The last segment is the one being appended.
+                 */
+                for (int i = 0; i < segments.length - 1; ++i) {
+                    Files.move(segments[i], target.resolve(segments[i].getFileName()));
+                }
+            }
+            if (keep >= 0) {
+                purge(directory.resolve(ARCHIVE), keep);
+            }
+        }
+        catch (IOException e) {
+            throw ioFailure(directory, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws EngineException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            buffer.force();
+            channel.close();
+        }
+        catch (IOException e) {
+            throw ioFailure(directory, e);
+        }
+        finally {
+            channel = null;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get sequence of the last record.
+     *
+     * @return sequence of the last record, zero if journal is empty
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Force appended records to disk.
+     */
+    public synchronized void sync() {
+        if (channel != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Read all valid records in journal directory in the order of sequence.
+     * Journal may be open for appending, and records appended after the
+     * call starts may not be read.
+     *
+     * @param directory directory of segment files
+     * @param visitor   visitor of records
+     *
+     * @throws EngineException if segment can't be read, or visitor throws
+     *                         exception
+     */
+    public static void read(Path directory, IJournalVisitor visitor) throws EngineException {
+        try {
+            for (var s : listSegments(directory)) {
+                try (var ch = FileChannel.open(s, StandardOpenOption.READ)) {
+                    if (ch.size() < HEADER_SIZE) {
+                        continue;
+                    }
+                    var b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                    if (b.getLong(0) != MAGIC) {
+                        throw new EngineException(ExceptionCodes.JOURNAL_CORRUPTED.code(),
+                                                  ExceptionCodes.JOURNAL_CORRUPTED.message()
+                                                  + "(" + s + ")");
+                    }
+                    var end = scan(b, b.getLong(8));
+                    var position = HEADER_SIZE;
+                    while (position < end) {
+                        var n = b.getInt(position);
+                        b.limit(position + 8 + n);
+                        b.position(position + 8);
+                        visitor.visit(decode(b));
+                        b.limit(b.capacity());
+                        position += 8 + n;
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw ioFailure(directory, e);
+        }
+    }
+
+    /**
+     * Get sequence of the last valid record in journal directory without
+     * opening the journal for appending.
+     *
+     * @param directory directory of segment files
+     *
+     * @return sequence of the last record, zero if journal is empty
+     *
+     * @throws EngineException if segment can't be read or isn't a journal
+     */
+    public static long readSequence(Path directory) throws EngineException {
+        try {
+            if (!Files.isDirectory(directory)) {
+                return 0L;
+            }
+            var segments = listSegments(directory);
+            if (segments.length == 0) {
+                return 0L;
+            }
+            var s = segments[segments.length - 1];
+            try (var ch = FileChannel.open(s, StandardOpenOption.READ)) {
+                var first = sequenceOf(s);
+                if (ch.size() < HEADER_SIZE) {
+                    return first - 1;
+                }
+                var b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (b.getLong(0) != MAGIC || b.getLong(8) != first) {
+                    throw new EngineException(ExceptionCodes.JOURNAL_CORRUPTED.code(),
+                                              ExceptionCodes.JOURNAL_CORRUPTED.message()
+                                              + "(" + s + ")");
+                }
+                var end = scan(b, first);
+                var last = first - 1;
+                var position = HEADER_SIZE;
+                while (position < end) {
+                    position += 8 + b.getInt(position);
+                    ++last;
+                }
+                return last;
+            }
+        }
+        catch (IOException e) {
+            throw ioFailure(directory, e);
+        }
+    }
+
+    static JournalEvent decode(ByteBuffer b) {
+        var e = new JournalEvent();
+        e.setSequence(b.getLong());
+        e.setMillis(b.getLong());
+        e.setType(JournalEventType.valueOf(b.get()));
+        e.setTraderId(b.getInt());
+        switch (e.getType()) {
+            case REQUEST:
+                e.setRequestId(b.getInt());
+                e.setRequest(EventCodec.getRequest(b));
+                e.setInstrument(EventCodec.getInstrument(b));
+                e.setProperties(EventCodec.getProperties(b));
+                break;
+            case TRADE:
+                e.setTrade(EventCodec.getTrade(b));
+                break;
+            case RESPONSE:
+                e.setResponse(EventCodec.getResponse(b));
+                break;
+            case EXCEPTION:
+                e.setCode(b.getInt());
+                e.setMessage(EventCodec.getString(b));
+                break;
+            case REQUEST_EXCEPTION:
+                e.setRequestId(b.getInt());
+                e.setRequest(EventCodec.getRequest(b));
+                e.setCode(b.getInt());
+                e.setMessage(EventCodec.getString(b));
+                break;
+            case TRADER_STATUS:
+            case ENGINE_STATUS:
+                e.setStatus(b.getInt());
+                break;
+            case TRADER_START:
+                e.setLastId(b.getLong());
+                break;
+            case ROUTE:
+                e.setOrderId(EventCodec.getLong(b));
+                break;
+            default:
+                break;
+        }
+        return e;
+    }
+
+    static Path[] listSegments(Path directory) throws IOException {
+        try (var s = Files.list(directory)) {
+            return s.filter(p -> {
+                var n = p.getFileName().toString();
+                return n.startsWith(PREFIX) && n.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList()).toArray(new Path[0]);
+        }
+    }
+
+    /**
+     * Find end of valid records in a segment.
+     *
+     * @param b     mapped segment
+     * @param first sequence of the first record in segment
+     *
+     * @return position after the last valid record
+     */
+    static int scan(ByteBuffer b, long first) {
+        var position = HEADER_SIZE;
+        var expected = first;
+        while (position + 8 <= b.capacity()) {
+            var n = b.getInt(position);
+            if (n <= 0 || n > b.capacity() - position - 8) {
+                break;
+            }
+            var crc = new CRC32();
+            crc.update(b.duplicate().position(position + 8).limit(position + 8 + n));
+            if (b.getInt(position + 4) != (int) crc.getValue()
+                || b.getLong(position + 8) != expected) {
+                break;
+            }
+            ++expected;
+            position += 8 + n;
+        }
+        return position;
+    }
+
+    static long sequenceOf(Path segment) {
+        var n = segment.getFileName().toString();
+        return Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length()));
+    }
+
+    private synchronized long append(JournalEventType type,
+                                     int traderId,
+                                     Consumer<ByteBuffer> body) throws EngineException {
+        if (channel == null) {
+            throw new EngineException(ExceptionCodes.JOURNAL_CLOSED.code(),
+                                      ExceptionCodes.JOURNAL_CLOSED.message());
+        }
+        while (true) {
+            var start = buffer.position();
+            try {
+                buffer.position(start + 8);
+                buffer.putLong(sequence + 1);
+                buffer.putLong(System.currentTimeMillis());
+                buffer.put(type.code());
+                buffer.putInt(traderId);
+                body.accept(buffer);
+                var n = buffer.position() - start - 8;
+                var crc = new CRC32();
+                crc.update(buffer.duplicate().position(start + 8).limit(start + 8 + n));
+                buffer.putInt(start + 4, (int) crc.getValue());
+                /*
+                 * Length goes last so a scanner never sees a partial record.
+                 */
+                buffer.putInt(start, n);
+                return ++sequence;
+            }
+            catch (BufferOverflowException | IllegalArgumentException e) {
+                clear(start);
+                if (start == HEADER_SIZE) {
+                    throw new EngineException(ExceptionCodes.JOURNAL_RECORD_TOO_LARGE.code(),
+                                              ExceptionCodes.JOURNAL_RECORD_TOO_LARGE.message()
+                                              + "(" + type + ")",
+                                              e);
+                }
+                try {
+                    roll(sequence + 1);
+                }
+                catch (IOException ex) {
+                    throw ioFailure(directory, ex);
+                }
+            }
+            catch (RuntimeException e) {
+                /*
+                 * Encoding failed, so drop the partial record and let next
+                 * append start at the same place.
+                 */
+                clear(start);
+                throw e;
+            }
+        }
+    }
+
+    private void clear(int start) {
+        for (var i = start; i < buffer.position(); ++i) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.position(start);
+    }
+
+    private static EngineException ioFailure(Path path, IOException e) {
+        return new EngineException(ExceptionCodes.JOURNAL_IO_FAILED.code(),
+                                   ExceptionCodes.JOURNAL_IO_FAILED.message()
+                                   + "(" + path + ")",
+                                   e);
+    }
+
+    private static void purge(Path archive, int keep) throws IOException {
+        if (!Files.isDirectory(archive)) {
+            return;
+        }
+        Path[] days;
+        try (var s = Files.list(archive)) {
+            days = s.filter(Files::isDirectory).sorted().collect(Collectors.toList()).toArray(new Path[0]);
+        }
+        for (int i = 0; i < days.length - keep; ++i) {
+            for (var p : listSegments(days[i])) {
+                Files.delete(p);
+            }
+            Files.delete(days[i]);
+        }
+    }
+
+    private void map(Path segment) throws IOException {
+        channel = FileChannel.open(segment,
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                             0,
+                             Math.max(channel.size(), segmentSize));
+    }
+
+    private void open(Path segment) throws IOException, EngineException {
+        map(segment);
+        var first = buffer.getLong(8);
+        if (buffer.getLong(0) != MAGIC || first != sequenceOf(segment)) {
+            channel.close();
+            channel = null;
+            throw new EngineException(ExceptionCodes.JOURNAL_CORRUPTED.code(),
+                                      ExceptionCodes.JOURNAL_CORRUPTED.message()
+                                      + "(" + segment + ")");
+        }
+        var position = scan(buffer, first);
+        sequence = first - 1;
+        for (var i = HEADER_SIZE; i < position; i += 8 + buffer.getInt(i)) {
+            ++sequence;
+        }
+        /*
+         * Clear the torn tail so its bytes are never taken as records after
+         * new records are appended.
+         */
+        for (var i = position; i < buffer.capacity(); ++i) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        buffer.position(position);
+    }
+
+    private void roll(long first) throws IOException {
+        if (channel != null) {
+            /*
+             * Zero length marks the end of the segment.
+             */
+            var p = buffer.position();
+            if (p + 4 <= buffer.capacity()) {
+                buffer.putInt(p, 0);
+            }
+            buffer.force();
+            channel.close();
+        }
+        map(directory.resolve(String.format("%s%020d%s", PREFIX, first, SUFFIX)));
+        buffer.putLong(0, MAGIC);
+        buffer.putLong(8, first);
+        buffer.position(HEADER_SIZE);
+    }
+}
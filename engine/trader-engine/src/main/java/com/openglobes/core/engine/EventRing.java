@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.exceptions.EngineException;
+import com.openglobes.core.exceptions.EngineRuntimeException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Pre-allocated ring of events with multiple producers and one consumer.
+ * <p>
+ * Producer claims a sequence with {@link #next()}, fills the event returned
+ * by {@link #get(long)} and makes it visible with {@link #publish(long)}.
+ * Events are allocated once and reused, so publishing allocates nothing. If
+ * the ring is full, producer waits for consumer.
+ * <p>
+ * Consumer thread takes all published events at once and hands them to
+ * {@link IEventConsumer} as a batch.
+ * <p>
+ * After the ring is halted, {@link #next()} throws and producer processes
+ * the event by itself. A sequence claimed before halt is still consumed, so
+ * consumer exits only after every claimed sequence is published or given up.
+ *
+ * @author Hongbao Chen
+ * @param <T> type of event
+ * @since 1.0
+ */
+public class EventRing<T> {
+
+    private static final int SPIN_TRIES = 100;
+
+    private final AtomicIntegerArray abandoned;
+    private final AtomicIntegerArray available;
+    private final AtomicLong claimed;
+    private final AtomicLong consumed;
+    private final IEventConsumer<T> consumer;
+    private final Object[] events;
+    private final ReentrantLock lock;
+    private final int mask;
+    private final Condition notEmpty;
+    private volatile boolean running;
+    private final int shift;
+    private final EventWaitStrategy strategy;
+    private final Thread thread;
+
+    /**
+     * Create ring and start its consumer thread.
+     *
+     * @param size     number of events, must be power of 2
+     * @param factory  factory to pre-allocate events
+     * @param consumer consumer of events
+     * @param strategy wait strategy of consumer
+     *
+     * @throws EngineException if size is not power of 2
+     */
+    public EventRing(int size,
+                     Supplier<T> factory,
+                     IEventConsumer<T> consumer,
+                     EventWaitStrategy strategy) throws EngineException {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new EngineException(ExceptionCodes.INVALID_EVENT_RING_SIZE.code(),
+                                      ExceptionCodes.INVALID_EVENT_RING_SIZE.message()
+                                      + "(Size:" + size + ")");
+        }
+        this.consumer = consumer;
+        this.strategy = strategy;
+        events = new Object[size];
+        for (int i = 0; i < size; ++i) {
+            events[i] = factory.get();
+        }
+        abandoned = new AtomicIntegerArray(size);
+        available = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; ++i) {
+            abandoned.set(i, -1);
+            available.set(i, -1);
+        }
+        mask = size - 1;
+        shift = Integer.numberOfTrailingZeros(size);
+        claimed = new AtomicLong(0L);
+        consumed = new AtomicLong(0L);
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        running = true;
+        thread = new Thread(this::consume, "EventRing");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get event at the sequence. Only the producer owning the sequence may
+     * write it before publishing.
+     *
+     * @param sequence claimed sequence
+     *
+     * @return event
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long sequence) {
+        return (T) events[(int) (sequence & mask)];
+    }
+
+    /**
+     * Get number of claimed events that are not consumed yet.
+     *
+     * @return number of events
+     */
+    public long getBacklog() {
+        return Math.max(0L, claimed.get() - consumed.get());
+    }
+
+    public int getSize() {
+        return events.length;
+    }
+
+    /**
+     * Stop consumer after all published events are consumed.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     *
+     * @return {@code true} if consumer terminates in time
+     *
+     * @throws EngineException if waiting is interrupted
+     */
+    public boolean halt(long timeoutMillis) throws EngineException {
+        running = false;
+        signal();
+        try {
+            thread.join(timeoutMillis);
+            return !thread.isAlive();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EngineException(ExceptionCodes.EVENT_RING_HALTED.code(),
+                                      ExceptionCodes.EVENT_RING_HALTED.message(),
+                                      e);
+        }
+    }
+
+    /**
+     * Claim next sequence, waiting if ring is full. Once it returns, the
+     * sequence is consumed even if ring is halted before it is published.
+     *
+     * @return claimed sequence
+     *
+     * @throws EngineException if ring is halted
+     */
+    public long next() throws EngineException {
+        if (!running) {
+            throw halted();
+        }
+        var sequence = claimed.getAndIncrement();
+        var wrap = sequence - events.length;
+        while (wrap >= consumed.get()) {
+            /*
+             * Consumer drains the ring after halt, so wait for the slot while
+             * it is alive, then give the sequence up.
+             */
+            if (!running && !thread.isAlive()) {
+                throw halted();
+            }
+            LockSupport.parkNanos(1L);
+        }
+        if (!running) {
+            abandon(sequence);
+            throw halted();
+        }
+        return sequence;
+    }
+
+    /**
+     * Make event at the sequence visible to consumer.
+     *
+     * @param sequence claimed sequence
+     */
+    public void publish(long sequence) {
+        available.lazySet((int) (sequence & mask), (int) (sequence >>> shift));
+        if (strategy == EventWaitStrategy.BLOCKING) {
+            signal();
+        }
+    }
+
+    private void abandon(long sequence) {
+        abandoned.set((int) (sequence & mask), (int) (sequence >>> shift));
+        publish(sequence);
+    }
+
+    private void consume() {
+        long next = 0L;
+        while (true) {
+            if (!isAvailable(next)) {
+                /*
+                 * Check running before claimed, so a producer that claims
+                 * after the check sees ring halted.
+                 */
+                if (!running && next >= claimed.get()) {
+                    break;
+                }
+                await(next);
+                continue;
+            }
+            /*
+             * Take all contiguous published events as a batch.
+             */
+            var last = next;
+            while (isAvailable(last + 1)) {
+                ++last;
+            }
+            for (var s = next; s <= last; ++s) {
+                if (abandoned.get((int) (s & mask)) == (int) (s >>> shift)) {
+                    continue;
+                }
+                try {
+                    consumer.onEvent(get(s), s, s == last);
+                }
+                catch (Throwable th) {
+                    report(s, th);
+                }
+            }
+            next = last + 1;
+            consumed.lazySet(next);
+        }
+    }
+
+    private void await(long sequence) {
+        if (!running) {
+            /*
+             * Draining the sequences claimed before halt.
+             */
+            LockSupport.parkNanos(1L);
+            return;
+        }
+        switch (strategy) {
+            case BLOCKING:
+                lock.lock();
+                try {
+                    while (running && !isAvailable(sequence)) {
+                        notEmpty.await();
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                }
+                finally {
+                    lock.unlock();
+                }
+                break;
+            case YIELDING:
+                for (int i = 0; i < SPIN_TRIES && !isAvailable(sequence); ++i) {
+                    Thread.onSpinWait();
+                }
+                if (!isAvailable(sequence)) {
+                    Thread.yield();
+                }
+                break;
+            default:
+                Thread.onSpinWait();
+                break;
+        }
+    }
+
+    private EngineException halted() {
+        return new EngineException(ExceptionCodes.EVENT_RING_HALTED.code(),
+                                   ExceptionCodes.EVENT_RING_HALTED.message());
+    }
+
+    private boolean isAvailable(long sequence) {
+        return available.get((int) (sequence & mask)) == (int) (sequence >>> shift);
+    }
+
+    private void report(long sequence, Throwable th) {
+        try {
+            consumer.onException(new EngineRuntimeException(ExceptionCodes.EVENT_CONSUME_FAILED.code(),
+                                                            ExceptionCodes.EVENT_CONSUME_FAILED.message()
+                                                            + "(Sequence:" + sequence + ")",
+                                                            th));
+        }
+        catch (Throwable ignored) {
+            /*
+             * Consumer thread must go on even if the report fails.
+             */
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
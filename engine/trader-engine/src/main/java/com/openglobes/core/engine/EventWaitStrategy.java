@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+/**
+ * Strategy of consumer waiting for events in {@link EventRing}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public enum EventWaitStrategy {
+    /**
+     * Consumer parks on a condition and producers signal it. Lowest CPU usage
+     * and highest latency.
+     */
+    BLOCKING,
+    /**
+     * Consumer spins for a while and then yields its thread.
+     */
+    YIELDING,
+    /**
+     * Consumer spins on a dedicated core. Lowest latency and one core always
+     * busy.
+     */
+    BUSY_SPIN
+}
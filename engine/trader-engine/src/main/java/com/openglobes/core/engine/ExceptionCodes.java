@@ -106,7 +106,34 @@ public enum ExceptionCodes {
     MORE_ROWS_THAN_EXPECTED(0x53, "More rows than expected."),
     LESS_ROWS_THAN_EXPECTED(0x54, "Less rows than expected."),
     OBTAIN_CONDITION_FAIL(0x55, "Obtaining condition failed."),
-    INVALID_PK_TYPE(0x56, "Invalid primary key type.");
+    INVALID_PK_TYPE(0x56, "Invalid primary key type."),
+    LEDGER_INCONSISTENT(0x57, "Ledger inconsistent with data source."),
+    SHARD_TASK_FAILED(0x58, "Shard task failed."),
+    INVALID_EVENT_RING_SIZE(0x59, "Invalid event ring size."),
+    EVENT_RING_HALTED(0x5A, "Event ring halted."),
+    ROUTER_NULL(0x5B, "Router null."),
+    ID_TABLE_IO_FAILED(0x5C, "ID table IO failed."),
+    ID_TABLE_CORRUPTED(0x5D, "ID table corrupted."),
+    INVALID_PERSIST_GROUP(0x5E, "Invalid persist group."),
+    ENGINE_SATURATED(0x5F, "Engine saturated."),
+    INVALID_FLOW_WATERMARK(0x60, "Invalid flow watermark."),
+    AUDIT_SPOOL_IO_FAILED(0x61, "Audit spool IO failed."),
+    AUDIT_SPOOL_CORRUPTED(0x62, "Audit spool corrupted."),
+    INVALID_AUDIT_QUEUE_SIZE(0x63, "Invalid audit queue size."),
+    JOURNAL_IO_FAILED(0x64, "Journal IO failed."),
+    JOURNAL_CORRUPTED(0x65, "Journal corrupted."),
+    JOURNAL_CLOSED(0x66, "Journal closed."),
+    JOURNAL_RECORD_TOO_LARGE(0x67, "Journal record too large."),
+    INVALID_JOURNAL_SEGMENT_SIZE(0x68, "Invalid journal segment size."),
+    SNAPSHOT_IO_FAILED(0x69, "Snapshot IO failed."),
+    SNAPSHOT_CORRUPTED(0x6A, "Snapshot corrupted."),
+    DBA_SCHEMA_FAIL(0x6B, "Database schema verification failed."),
+    EVENT_CONSUME_FAILED(0x6C, "Event consumption failed."),
+    PERSIST_BATCH_DROPPED(0x6D, "Write batch dropped after retries."),
+    DATA_CONNECTION_CLOSE_FAILED(0x6E, "Data connection close failed."),
+    ID_TABLE_FULL(0x6F, "ID table exceeds maximum size."),
+    AUDIT_ROW_DEAD(0x70, "Audit row moved to dead letter after retries."),
+    AUDIT_FLUSH_TIMEOUT(0x71, "Audit rows not written in time.");
 
     private final int code;
     private final String message;
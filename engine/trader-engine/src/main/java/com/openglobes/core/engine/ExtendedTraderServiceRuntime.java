@@ -23,11 +23,61 @@ package com.openglobes.core.engine;
  */
 public class ExtendedTraderServiceRuntime extends TraderServiceRuntime {
 
+    private AuditWriter auditWriter;
+    private CloseQueueIndex closeIndex;
+    private HandlerDispatcher dispatcher;
+    private volatile EventRing<GatewayEvent> eventRing;
+    private FlowController flowController;
     private IdTranslator idTranslator;
+    private volatile EventJournal journal;
+    private AccountLedger ledger;
+    private OrderPersister persister;
+    private volatile EngineShards shards;
+    private OrderWorkingSet workingSet;
 
     public ExtendedTraderServiceRuntime() {
     }
 
+    public AuditWriter getAuditWriter() {
+        return auditWriter;
+    }
+
+    public void setAuditWriter(AuditWriter auditWriter) {
+        this.auditWriter = auditWriter;
+    }
+
+    public CloseQueueIndex getCloseIndex() {
+        return closeIndex;
+    }
+
+    public void setCloseIndex(CloseQueueIndex closeIndex) {
+        this.closeIndex = closeIndex;
+    }
+
+    public HandlerDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public void setDispatcher(HandlerDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public EventRing<GatewayEvent> getEventRing() {
+        return eventRing;
+    }
+
+    public void setEventRing(EventRing<GatewayEvent> eventRing) {
+        this.eventRing = eventRing;
+    }
+
+    public FlowController getFlowController() {
+        return flowController;
+    }
+
+    public void setFlowController(FlowController flowController) {
+        this.flowController = flowController;
+    }
+
     public IdTranslator getIdTranslator() {
         return idTranslator;
     }
@@ -36,4 +86,43 @@ public class ExtendedTraderServiceRuntime extends TraderServiceRuntime {
         this.idTranslator = idTranslator;
     }
 
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    public AccountLedger getLedger() {
+        return ledger;
+    }
+
+    public void setLedger(AccountLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    public OrderPersister getPersister() {
+        return persister;
+    }
+
+    public void setPersister(OrderPersister persister) {
+        this.persister = persister;
+    }
+
+    public EngineShards getShards() {
+        return shards;
+    }
+
+    public void setShards(EngineShards shards) {
+        this.shards = shards;
+    }
+
+    public OrderWorkingSet getWorkingSet() {
+        return workingSet;
+    }
+
+    public void setWorkingSet(OrderWorkingSet workingSet) {
+        this.workingSet = workingSet;
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.exceptions.EngineException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Decide whether engine is saturated by its backlog, with high and low
+ * watermarks so the state doesn't flap around a single threshold.
+ * <p>
+ * Flow control is disabled until it is configured with a positive high
+ * watermark.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class FlowController {
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private final AtomicLong delayed;
+    private final HandlerDispatcher dispatcher;
+    private volatile long high;
+    private volatile long low;
+    private volatile long maxDelayMillis;
+    private final Consumer<Boolean> onChange;
+    private final OrderPersister persister;
+    private volatile FlowControlPolicy policy;
+    private final AtomicLong rejected;
+    private volatile EventRing<?> ring;
+    private volatile boolean saturated;
+
+    public FlowController(OrderPersister persister,
+                          HandlerDispatcher dispatcher,
+                          Consumer<Boolean> onChange) {
+        this.persister = persister;
+        this.dispatcher = dispatcher;
+        this.onChange = onChange;
+        delayed = new AtomicLong(0L);
+        rejected = new AtomicLong(0L);
+        policy = FlowControlPolicy.REJECT;
+    }
+
+    /**
+     * Admit a new order request. If engine is saturated, the request is
+     * rejected or delayed by policy.
+     *
+     * @throws EngineException if engine is saturated
+     */
+    public void admit() throws EngineException {
+        if (high <= 0 || !update()) {
+            return;
+        }
+        if (policy == FlowControlPolicy.DELAY) {
+            delayed.incrementAndGet();
+            var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+            while (System.nanoTime() < deadline) {
+                LockSupport.parkNanos(PARK_NANOS);
+                if (!update()) {
+                    return;
+                }
+            }
+        }
+        rejected.incrementAndGet();
+        throw new EngineException(ExceptionCodes.ENGINE_SATURATED.code(),
+                                  ExceptionCodes.ENGINE_SATURATED.message()
+                                  + "(Backlog:" + getBacklog() + ")");
+    }
+
+    /**
+     * Configure flow control.
+     *
+     * @param high           high watermark of backlog, zero to disable
+     * @param low            low watermark of backlog
+     * @param policy         policy for new requests while saturated
+     * @param maxDelayMillis maximum delay of {@link FlowControlPolicy#DELAY}
+     *
+     * @throws EngineException if watermarks are invalid
+     */
+    public void configure(long high,
+                          long low,
+                          FlowControlPolicy policy,
+                          long maxDelayMillis) throws EngineException {
+        if (high < 0 || low < 0 || (high > 0 && low >= high) || maxDelayMillis < 0) {
+            throw new EngineException(ExceptionCodes.INVALID_FLOW_WATERMARK.code(),
+                                      ExceptionCodes.INVALID_FLOW_WATERMARK.message()
+                                      + "(High:" + high + ", low:" + low + ")");
+        }
+        this.low = low;
+        this.high = high;
+        this.policy = policy;
+        this.maxDelayMillis = maxDelayMillis;
+        update();
+    }
+
+    public long getCredit() {
+        if (high <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return update() ? 0L : Math.max(0L, high - getBacklog());
+    }
+
+    public FlowMetrics getMetrics() {
+        var r = ring;
+        return new FlowMetrics(persister.getPending(),
+                               r == null ? 0L : r.getBacklog(),
+                               dispatcher.getQueued(),
+                               high,
+                               low,
+                               update(),
+                               delayed.get(),
+                               rejected.get());
+    }
+
+    public void setRing(EventRing<?> ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * Evaluate backlog and update saturation state. The listener is notified
+     * when the state changes.
+     *
+     * @return {@code true} if engine is saturated
+     */
+    public boolean update() {
+        if (high <= 0) {
+            return setSaturated(false);
+        }
+        var b = getBacklog();
+        if (!saturated && b >= high) {
+            return setSaturated(true);
+        }
+        else if (saturated && b <= low) {
+            return setSaturated(false);
+        }
+        return saturated;
+    }
+
+    private long getBacklog() {
+        var r = ring;
+        return persister.getPending()
+               + (r == null ? 0L : r.getBacklog())
+               + dispatcher.getQueued();
+    }
+
+    private boolean setSaturated(boolean value) {
+        synchronized (this) {
+            if (saturated == value) {
+                return value;
+            }
+            saturated = value;
+        }
+        onChange.accept(value);
+        return value;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Commission;
+import com.openglobes.core.Contract;
+import com.openglobes.core.Margin;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * Rows staged for freezing assets of one request.
+ * <p>
+ * All rows of a request are written in one transaction, so the freeze is
+ * atomic and costs a single commit no matter how many contracts it touches.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class FreezeBatch {
+
+    private final Collection<FrozenBundle> bundles;
+    private final LedgerChange change;
+    private final Collection<Commission> commissions;
+    private final Collection<Contract> contracts;
+    private final Collection<Margin> margins;
+    private final Collection<Contract> updatedContracts;
+    private final Collection<Margin> updatedMargins;
+
+    public FreezeBatch() {
+        bundles = new LinkedList<>();
+        change = new LedgerChange();
+        commissions = new LinkedList<>();
+        contracts = new LinkedList<>();
+        margins = new LinkedList<>();
+        updatedContracts = new LinkedList<>();
+        updatedMargins = new LinkedList<>();
+    }
+
+    public void addBundle(FrozenBundle bundle) {
+        bundles.add(bundle);
+    }
+
+    public void addCommission(Commission commission) {
+        commissions.add(commission);
+    }
+
+    public void addContract(Contract contract) {
+        contracts.add(contract);
+    }
+
+    public void addMargin(Margin margin) {
+        margins.add(margin);
+    }
+
+    public Collection<FrozenBundle> getBundles() {
+        return bundles;
+    }
+
+    public LedgerChange getChange() {
+        return change;
+    }
+
+    public void updateContract(Contract contract) {
+        updatedContracts.add(contract);
+    }
+
+    public void updateMargin(Margin margin) {
+        updatedMargins.add(margin);
+    }
+
+    /**
+     * Write staged rows to data connection. Caller manages the transaction.
+     *
+     * @param conn data connection
+     *
+     * @throws DataSourceException if data source fails writing rows
+     */
+    public void write(IDataConnection conn) throws DataSourceException {
+        conn.updateContracts(updatedContracts);
+        conn.updateMargins(updatedMargins);
+        conn.addContracts(contracts);
+        conn.addMargins(margins);
+        conn.addCommissions(commissions);
+    }
+}
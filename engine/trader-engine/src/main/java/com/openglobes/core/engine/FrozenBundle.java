@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Commission;
+import com.openglobes.core.Contract;
+import com.openglobes.core.Margin;
+
+/**
+ * Contract frozen by an order, with its commission and margin.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class FrozenBundle {
+
+    private Commission commission;
+    private final Contract contract;
+    private final Margin margin;
+
+    public FrozenBundle(Commission commission, Margin margin, Contract contract) {
+        this.commission = commission;
+        this.margin = margin;
+        this.contract = contract;
+    }
+
+    public Commission getCommission() {
+        return commission;
+    }
+
+    public void setCommission(Commission commission) {
+        this.commission = commission;
+    }
+
+    public Contract getContract() {
+        return contract;
+    }
+
+    public Margin getMargin() {
+        return margin;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Response;
+import com.openglobes.core.Trade;
+
+/**
+ * Trader gateway callback carried through {@link EventRing}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class GatewayEvent {
+
+    private TraderServiceHandler handler;
+    private Response response;
+    private Trade trade;
+
+    public GatewayEvent() {
+    }
+
+    public void clear() {
+        handler = null;
+        response = null;
+        trade = null;
+    }
+
+    public TraderServiceHandler getHandler() {
+        return handler;
+    }
+
+    public Response getResponse() {
+        return response;
+    }
+
+    public Trade getTrade() {
+        return trade;
+    }
+
+    public void setResponse(TraderServiceHandler handler, Response response) {
+        this.handler = handler;
+        this.response = response;
+        this.trade = null;
+    }
+
+    public void setTrade(TraderServiceHandler handler, Trade trade) {
+        this.handler = handler;
+        this.response = null;
+        this.trade = trade;
+    }
+}
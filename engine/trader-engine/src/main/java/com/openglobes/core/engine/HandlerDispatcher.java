@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.exceptions.EngineRuntimeException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Dispatcher of engine events to user handlers.
+ * <p>
+ * Each handler has its own bounded queue and consumer thread, so handlers
+ * receive events in the order they are dispatched, and a slow handler never
+ * delays other handlers or the engine. When a queue is full, the
+ * {@link OverflowPolicy} decides what happens to the new call.
+ * <p>
+ * Queues keep a shared count of the calls queued for all handlers, so flow
+ * control reads the backlog without visiting the queues.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class HandlerDispatcher {
+
+    private final Map<ITraderEngineHandler, HandlerQueue> queues;
+    private volatile int capacity;
+    private volatile OverflowPolicy policy;
+    private final AtomicLong queued;
+
+    public HandlerDispatcher(int capacity, OverflowPolicy policy) {
+        this.queues = new ConcurrentHashMap<>(32);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.queued = new AtomicLong(0L);
+    }
+
+    public void add(ITraderEngineHandler handler) {
+        queues.computeIfAbsent(handler, h -> new HandlerQueue(h, capacity, policy, queued));
+    }
+
+    /**
+     * Dispatch call to all handlers.
+     *
+     * @param call call on handler
+     */
+    public void dispatch(Consumer<ITraderEngineHandler> call) {
+        queues.values().forEach(q -> {
+            q.offer(call);
+        });
+    }
+
+    public Map<ITraderEngineHandler, DispatchMetrics> getMetrics() {
+        final var r = new HashMap<ITraderEngineHandler, DispatchMetrics>(32);
+        queues.forEach((h, q) -> {
+            r.put(h, q.getMetrics());
+        });
+        return r;
+    }
+
+    /**
+     * Get the number of calls queued for all handlers.
+     *
+     * @return number of queued calls
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    public Collection<ITraderEngineHandler> handlers() {
+        return queues.keySet();
+    }
+
+    public boolean isEmpty() {
+        return queues.isEmpty();
+    }
+
+    /**
+     * Remove handler after its queued calls are finished.
+     *
+     * @param handler handler to remove
+     */
+    public void remove(ITraderEngineHandler handler) {
+        var q = queues.remove(handler);
+        if (q != null) {
+            q.stop();
+        }
+    }
+
+    /**
+     * Set queue capacity and overflow policy. Queues of existing handlers are
+     * rebuilt after their queued calls are finished.
+     *
+     * @param capacity queue capacity
+     * @param policy   overflow policy
+     */
+    public void reset(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+        queues.replaceAll((h, q) -> {
+            q.stop();
+            return new HandlerQueue(h, capacity, policy, queued);
+        });
+    }
+
+    private static class HandlerQueue {
+
+        private static final Consumer<ITraderEngineHandler> STOP = h -> {
+        };
+        private static final long STOP_POLL_MILLIS = 100L;
+
+        private final AtomicLong dispatched;
+        private final AtomicLong dropped;
+        private final ITraderEngineHandler handler;
+        private final AtomicInteger peakDepth;
+        private final OverflowPolicy policy;
+        private final ArrayBlockingQueue<Consumer<ITraderEngineHandler>> queue;
+        private final AtomicLong queued;
+        private volatile boolean stopped;
+        private final Thread thread;
+
+        HandlerQueue(ITraderEngineHandler handler,
+                     int capacity,
+                     OverflowPolicy policy,
+                     AtomicLong queued) {
+            this.handler = handler;
+            this.policy = policy;
+            this.queued = queued;
+            queue = new ArrayBlockingQueue<>(capacity);
+            dispatched = new AtomicLong(0L);
+            dropped = new AtomicLong(0L);
+            peakDepth = new AtomicInteger(0);
+            stopped = false;
+            thread = new Thread(this::consume, "HandlerDispatcher-" + handler.getClass().getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        DispatchMetrics getMetrics() {
+            return new DispatchMetrics(queue.size() + queue.remainingCapacity(),
+                                       queue.size(),
+                                       peakDepth.get(),
+                                       dispatched.get(),
+                                       dropped.get());
+        }
+
+        void offer(Consumer<ITraderEngineHandler> call) {
+            if (stopped) {
+                dropped.incrementAndGet();
+                return;
+            }
+            /*
+             * Count the call before consumer can take it, so the count never
+             * goes below the calls really queued.
+             */
+            queued.incrementAndGet();
+            if (!enqueue(call)) {
+                queued.decrementAndGet();
+                dropped.incrementAndGet();
+                return;
+            }
+            peakDepth.accumulateAndGet(queue.size(), Math::max);
+            /*
+             * Call queued after the consumer has stopped is never taken, so
+             * take it back. If it is gone, consumer has taken or drained it.
+             */
+            if (stopped && queue.remove(call)) {
+                queued.decrementAndGet();
+                dropped.incrementAndGet();
+            }
+        }
+
+        void stop() {
+            /*
+             * Stop after the queued calls, whatever the policy is. The caller
+             * never waits for room, so if the queue is full the consumer sees
+             * the flag once it has drained the queue.
+             */
+            stopped = true;
+            queue.offer(STOP);
+        }
+
+        private void call(Consumer<ITraderEngineHandler> call) {
+            try {
+                call.accept(handler);
+                dispatched.incrementAndGet();
+            }
+            catch (Throwable th) {
+                /*
+                 * If handling is wrong, tell the handler its handling is
+                 * wrong.
+                 */
+                try {
+                    handler.onException(new EngineRuntimeException(
+                            ExceptionCodes.USER_CODE_ERROR.code(),
+                            ExceptionCodes.USER_CODE_ERROR.message(),
+                            th));
+                }
+                catch (Throwable ignored) {
+                }
+            }
+        }
+
+        private void consume() {
+            while (true) {
+                try {
+                    var c = queue.poll(STOP_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (c == STOP || (c == null && stopped)) {
+                        break;
+                    }
+                    if (c != null) {
+                        queued.decrementAndGet();
+                        call(c);
+                    }
+                }
+                catch (InterruptedException e) {
+                    break;
+                }
+            }
+            /*
+             * Calls queued behind STOP are never called.
+             */
+            Consumer<ITraderEngineHandler> c;
+            while ((c = queue.poll()) != null) {
+                if (c != STOP) {
+                    queued.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+
+        private boolean enqueue(Consumer<ITraderEngineHandler> call) {
+            switch (policy) {
+                case BLOCK:
+                    try {
+                        /*
+                         * Don't wait on a stopped queue, its consumer is gone.
+                         */
+                        while (!queue.offer(call, STOP_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                            if (stopped) {
+                                return false;
+                            }
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    return true;
+                case DROP_NEWEST:
+                    return queue.offer(call);
+                default:
+                    while (!queue.offer(call)) {
+                        var o = queue.poll();
+                        if (o != null && o != STOP) {
+                            queued.decrementAndGet();
+                            dropped.incrementAndGet();
+                        }
+                    }
+                    return true;
+            }
+        }
+    }
+}
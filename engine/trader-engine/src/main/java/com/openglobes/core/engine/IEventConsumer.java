@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.exceptions.EngineRuntimeException;
+
+/**
+ * Consumer of the events in {@link EventRing}.
+ *
+ * @author Hongbao Chen
+ * @param <T> type of event
+ * @since 1.0
+ */
+public interface IEventConsumer<T> {
+
+    /**
+     * Consume event. Consumer reads all published events at once and calls
+     * this method for each of them, with {@code endOfBatch} set on the last.
+     *
+     * @param event      event
+     * @param sequence   sequence of the event
+     * @param endOfBatch {@code true} if it is the last event of current batch
+     */
+    void onEvent(T event, long sequence, boolean endOfBatch);
+
+    /**
+     * Report the exception thrown by {@link #onEvent(Object, long, boolean)}.
+     * The event is skipped and consumer goes on with the next.
+     *
+     * @param exception exception wrapping the cause
+     */
+    void onException(EngineRuntimeException exception);
+}
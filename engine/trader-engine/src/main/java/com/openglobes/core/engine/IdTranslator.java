@@ -16,90 +16,403 @@
  */
 package com.openglobes.core.engine;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import com.openglobes.core.exceptions.EngineException;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Translate source ID to destinated ID, and trans back.
  * <p>
  * It also provides a simple count down mechanism to member the rest volumn to
  * trade. If it counts down to zero, the order is fulfilled.
+ * <p>
+ * Destinated IDs are sequential, so source IDs and count downs are kept in
+ * chunks of primitive arrays indexed by destinated ID. Reads never lock, and
+ * counting down is a CAS on the array element. It is safe to translate IDs on
+ * request threads while gateway threads count down and translate back.
+ * <p>
+ * Destinated IDs of a source ID are chained in the chunks, each slot linking
+ * to the previous destinated ID of the same source ID, and only the last
+ * destinated ID of a source ID is kept in primitive maps striped by source ID.
+ * Adding an ID allocates nothing and holds a stripe lock for one put, and
+ * reading the chain needs no lock.
+ * <p>
+ * Send time of a destinated ID is kept in its slot until it is acknowledged,
+ * and is dropped with the chunk if it never is.
+ * <p>
+ * If a {@link MappedIdTable} is opened, IDs and count downs are also written
+ * to the table, so the translator can be restored after restart.
  *
  * @author Hongbao Chen
  * @since 1.0
  */
 public class IdTranslator {
 
-    private final HashMap<Long, Long> destDownCounts;
-    private final HashMap<Long, Long> dests;
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int INIT_CHUNKS = 64;
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int STRIPES = 64;
+    private static final int STRIPE_CAPACITY = 256;
+
+    private volatile long base;
+    private volatile AtomicReferenceArray<Chunk> chunks;
     private final AtomicLong id = new AtomicLong(0);
-    private final HashMap<Long, Set<Long>> srcs;
+    private final LongLongHashMap[] heads;
+    private volatile MappedIdTable table;
 
     public IdTranslator() {
-        dests = new HashMap<>(1024);
-        destDownCounts = new HashMap<>(1024);
-        srcs = new HashMap<>(1024);
+        base = 0L;
+        chunks = new AtomicReferenceArray<>(INIT_CHUNKS);
+        heads = new LongLongHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; ++i) {
+            heads[i] = new LongLongHashMap(STRIPE_CAPACITY, NONE);
+        }
     }
 
-    public void clear() {
-        dests.clear();
-        destDownCounts.clear();
-        srcs.clear();
+    /**
+     * Remove all IDs. Destinated IDs continue from the last one. It must not
+     * run concurrently with other methods.
+     */
+    public synchronized void clear() {
+        base = id.get();
+        chunks = new AtomicReferenceArray<>(INIT_CHUNKS);
+        for (var m : heads) {
+            synchronized (m) {
+                m.clear();
+            }
+        }
+        var t = table;
+        if (t != null) {
+            try {
+                t.reset(base);
+            }
+            catch (EngineException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
     }
 
-    public void countDown(Long destId, Long count) {
-        Long c;
-        synchronized (destDownCounts) {
-            c = destDownCounts.get(destId);
-            if (c == null) {
+    /**
+     * Get the time since the order of the destinated ID is sent. Only the
+     * first call after the order is sent gets the time.
+     *
+     * @param destId destinated ID
+     *
+     * @return nanoseconds since the order is sent, or {@code -1} if it is not
+     *         sent or is acknowledged before
+     */
+    public long acknowledged(long destId) {
+        var c = getChunk(destId);
+        if (c == null) {
+            return -1L;
+        }
+        var t = c.times.getAndSet(slotOf(destId), NONE);
+        return t == NONE ? -1L : Math.max(System.nanoTime() - t, 0L);
+    }
+
+    public Long countDown(Long destId, Long count) {
+        var c = getChunk(destId);
+        if (c == null) {
+            throw new NullPointerException("Count down not found(" + destId + ").");
+        }
+        var i = slotOf(destId);
+        while (true) {
+            var v = c.counts.get(i);
+            if (v == NONE) {
                 throw new NullPointerException("Count down not found(" + destId + ").");
             }
-            c -= count;
-            destDownCounts.put(destId, c);
+            var n = v - count;
+            if (c.counts.compareAndSet(i, v, n)) {
+                if (n < 0) {
+                    throw new IllegalStateException("Count down too many(" + count + ").");
+                }
+                var t = table;
+                if (t != null) {
+                    t.update(destId, n);
+                }
+                return n;
+            }
         }
-        if (c < 0) {
-            throw new IllegalStateException("Count down too many(" + count + ").");
+    }
+
+    /**
+     * Stop writing IDs to the table and close it. IDs in memory are kept. It
+     * must not run concurrently with other methods.
+     */
+    public synchronized void close() {
+        var t = table;
+        table = null;
+        if (t != null) {
+            try {
+                t.close();
+            }
+            catch (EngineException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
         }
     }
 
-    public void setBase(Long b) {
+    /**
+     * Force IDs written to the table to disk.
+     */
+    public void force() {
+        var t = table;
+        if (t != null) {
+            t.force();
+        }
+    }
+
+    /**
+     * Restore IDs from the table, and write IDs to the table afterward. The
+     * table decides the base of destinated IDs, and destinated IDs continue
+     * from the largest one in table. Table opened before is closed. It must
+     * not run concurrently with other methods.
+     *
+     * @param t ID table
+     */
+    public synchronized void open(MappedIdTable t) {
+        if (table != t) {
+            close();
+        }
+        table = null;
+        setBase(t.getBase());
+        t.load(this);
+        table = t;
+    }
+
+    /**
+     * Set the base of destinated IDs, and remove all IDs. It must not run
+     * concurrently with other methods.
+     *
+     * @param b base of destinated IDs
+     */
+    public synchronized void setBase(Long b) {
         id.set(b);
+        clear();
+    }
+
+    /**
+     * Record the time the order of the destinated ID is sent.
+     *
+     * @param destId destinated ID
+     */
+    public void sent(long destId) {
+        var c = getChunk(destId);
+        if (c != null) {
+            c.times.set(slotOf(destId), System.nanoTime());
+        }
     }
 
     public Long getDestinatedId(Long srcId, Long downCount) {
-        var i = getDestinatedId(srcId);
-        initCountDown(i, downCount);
+        var i = nextId(srcId);
+        ensureChunk(i).counts.set(slotOf(i), downCount);
+        persist(i, srcId, downCount);
         return i;
     }
 
     public Long getDestinatedId(Long srcId) {
-        var i = id.incrementAndGet();
-        dests.put(i, srcId);
-        var s = srcs.computeIfAbsent(srcId, (Long k) -> new HashSet<>(64));
-        s.add(i);
+        var i = nextId(srcId);
+        persist(i, srcId, NONE);
         return i;
     }
 
-    public Collection<Long> getDestinatedIds(Long srcId) {
-        return srcs.get(srcId);
+    public long[] getDestinatedIds(Long srcId) {
+        var m = stripeOf(srcId);
+        long head;
+        synchronized (m) {
+            head = m.get(srcId);
+        }
+        if (head == NONE) {
+            return null;
+        }
+        /*
+         * Links never change once set, so IDs added later don't disturb the
+         * walk.
+         */
+        var n = 0;
+        for (var i = head; i != NONE; i = getPrevious(i)) {
+            ++n;
+        }
+        var r = new long[n];
+        for (var i = head; i != NONE; i = getPrevious(i)) {
+            r[--n] = i;
+        }
+        return r;
+    }
+
+    /**
+     * Get the last destinated ID. Next destinated ID is one more.
+     *
+     * @return last destinated ID
+     */
+    public long getLastId() {
+        return id.get();
     }
 
     public Long getDownCountByDestId(Long destId) {
-        synchronized (destDownCounts) {
-            return destDownCounts.get(destId);
+        var c = getChunk(destId);
+        if (c == null) {
+            return null;
         }
+        var v = c.counts.get(slotOf(destId));
+        return v == NONE ? null : v;
     }
 
     public Long getSourceId(Long destId) {
-        return dests.get(destId);
+        var c = getChunk(destId);
+        if (c == null) {
+            return null;
+        }
+        var v = c.srcs.get(slotOf(destId));
+        return v == NONE ? null : v;
     }
 
-    private void initCountDown(Long destId, Long count) {
-        synchronized (destDownCounts) {
-            destDownCounts.put(destId, count);
+    private Chunk ensureChunk(long destId) {
+        var k = (int) ((destId - base - 1) >>> CHUNK_BITS);
+        var cs = chunks;
+        if (k < cs.length()) {
+            var c = cs.get(k);
+            if (c != null) {
+                return c;
+            }
+        }
+        /*
+         * A chunk holds thousands of IDs, so creating it under lock is rare.
+         */
+        synchronized (this) {
+            cs = chunks;
+            if (k >= cs.length()) {
+                var n = new AtomicReferenceArray<Chunk>(Math.max(k + 1, cs.length() << 1));
+                for (int i = 0; i < cs.length(); ++i) {
+                    n.set(i, cs.get(i));
+                }
+                chunks = cs = n;
+            }
+            var c = cs.get(k);
+            if (c == null) {
+                c = new Chunk();
+                cs.set(k, c);
+            }
+            return c;
+        }
+    }
+
+    private Chunk getChunk(Long destId) {
+        return destId == null ? null : getChunk(destId.longValue());
+    }
+
+    private Chunk getChunk(long destId) {
+        var offset = destId - base - 1;
+        if (offset < 0) {
+            return null;
+        }
+        var k = offset >>> CHUNK_BITS;
+        var cs = chunks;
+        if (k >= cs.length()) {
+            return null;
+        }
+        return cs.get((int) k);
+    }
+
+    private long nextId(Long srcId) {
+        var i = id.incrementAndGet();
+        ensureChunk(i).srcs.set(slotOf(i), srcId);
+        addSource(srcId, i);
+        return i;
+    }
+
+    private void persist(long destId, long srcId, long count) {
+        var t = table;
+        if (t == null) {
+            return;
+        }
+        try {
+            t.put(destId, srcId, count);
+        }
+        catch (EngineException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Called by snapshot. The first element is base, followed by destinated
+     * ID, source ID and count down of each ID, in the form restore() takes.
+     */
+    synchronized long[] dump() {
+        var last = id.get();
+        var r = new long[1 + (int) (last - base) * 3];
+        var n = 0;
+        r[n++] = base;
+        for (var destId = base + 1; destId <= last; ++destId) {
+            var c = getChunk(destId);
+            if (c == null) {
+                continue;
+            }
+            var srcId = c.srcs.get(slotOf(destId));
+            if (srcId == NONE) {
+                continue;
+            }
+            r[n++] = destId;
+            r[n++] = srcId;
+            r[n++] = c.counts.get(slotOf(destId));
+        }
+        return Arrays.copyOf(r, n);
+    }
+
+    /*
+     * Called by table when it loads records.
+     */
+    void restore(long destId, long srcId, long count) {
+        id.accumulateAndGet(destId, Math::max);
+        var c = ensureChunk(destId);
+        c.srcs.set(slotOf(destId), srcId);
+        c.counts.set(slotOf(destId), count);
+        addSource(srcId, destId);
+    }
+
+    private void addSource(long srcId, long destId) {
+        var c = ensureChunk(destId);
+        var m = stripeOf(srcId);
+        synchronized (m) {
+            c.prevs.set(slotOf(destId), m.get(srcId));
+            m.put(srcId, destId);
+        }
+    }
+
+    private long getPrevious(long destId) {
+        var c = getChunk(destId);
+        return c == null ? NONE : c.prevs.get(slotOf(destId));
+    }
+
+    private int slotOf(long destId) {
+        return (int) ((destId - base - 1) & CHUNK_MASK);
+    }
+
+    private LongLongHashMap stripeOf(long srcId) {
+        return heads[Maps.hash(srcId) & (STRIPES - 1)];
+    }
+
+    private static class Chunk {
+
+        private final AtomicLongArray counts;
+        private final AtomicLongArray prevs;
+        private final AtomicLongArray srcs;
+        private final AtomicLongArray times;
+
+        Chunk() {
+            counts = new AtomicLongArray(CHUNK_MASK + 1);
+            prevs = new AtomicLongArray(CHUNK_MASK + 1);
+            srcs = new AtomicLongArray(CHUNK_MASK + 1);
+            times = new AtomicLongArray(CHUNK_MASK + 1);
+            for (int i = 0; i <= CHUNK_MASK; ++i) {
+                counts.set(i, NONE);
+                prevs.set(i, NONE);
+                srcs.set(i, NONE);
+                times.set(i, NONE);
+            }
         }
     }
 
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Instrument;
+import com.openglobes.core.Offset;
+import com.openglobes.core.RatioType;
+
+/**
+ * Immutable calculator of fees compiled from an instrument.
+ * <p>
+ * Ratios are unboxed once on compiling, so quoting fees is plain arithmetic.
+ * A missing multiple or ratio is compiled into {@code NaN}, and is rejected
+ * only when a quote needs it, so a close request is valid without margin
+ * ratio and an open request is valid without close-today ratio.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class InstrumentCalculator {
+
+    private final double closeRatio;
+    private final double closeTodayRatio;
+    private final RatioType commissionType;
+    private final String instrumentId;
+    private final double marginRatio;
+    private final RatioType marginType;
+    private final double multiple;
+    private final double openRatio;
+
+    private InstrumentCalculator(String instrumentId,
+                                 double multiple,
+                                 RatioType marginType,
+                                 double marginRatio,
+                                 RatioType commissionType,
+                                 double openRatio,
+                                 double closeRatio,
+                                 double closeTodayRatio) {
+        this.instrumentId = instrumentId;
+        this.multiple = multiple;
+        this.marginType = marginType;
+        this.marginRatio = marginRatio;
+        this.commissionType = commissionType;
+        this.openRatio = openRatio;
+        this.closeRatio = closeRatio;
+        this.closeTodayRatio = closeTodayRatio;
+    }
+
+    /**
+     * Compile instrument into calculator.
+     *
+     * @param instrument instrument
+     *
+     * @return calculator
+     *
+     * @throws AlgorithmException if instrument is {@code null}
+     */
+    public static InstrumentCalculator compile(Instrument instrument) throws AlgorithmException {
+        if (instrument == null) {
+            throw new AlgorithmException(ExceptionCodes.INSTRUMENT_NULL.code(),
+                                         ExceptionCodes.INSTRUMENT_NULL.message());
+        }
+        return new InstrumentCalculator(instrument.getInstrumentId(),
+                                        unbox(instrument.getMultiple()),
+                                        instrument.getMarginType(),
+                                        unbox(instrument.getMarginRatio()),
+                                        instrument.getCommissionType(),
+                                        unbox(instrument.getCommissionOpenRatio()),
+                                        unbox(instrument.getCommissionCloseRatio()),
+                                        unbox(instrument.getCommissionCloseTodayRatio()));
+    }
+
+    private static boolean equals(Number value, double compiled) {
+        if (value == null) {
+            return Double.isNaN(compiled);
+        }
+        return Double.compare(value.doubleValue(), compiled) == 0;
+    }
+
+    private static double unbox(Number value) {
+        return value == null ? Double.NaN : value.doubleValue();
+    }
+
+    /**
+     * Check if the instrument has the multiple, ratio types and ratios the
+     * calculator is compiled from. Instrument may be changed in place, so
+     * its fields are compared by value.
+     *
+     * @param instrument instrument
+     *
+     * @return {@code true} if calculator computes the same fees for the
+     *         instrument
+     */
+    public boolean matches(Instrument instrument) {
+        return equals(instrument.getMultiple(), multiple)
+               && instrument.getMarginType() == marginType
+               && equals(instrument.getMarginRatio(), marginRatio)
+               && instrument.getCommissionType() == commissionType
+               && equals(instrument.getCommissionOpenRatio(), openRatio)
+               && equals(instrument.getCommissionCloseRatio(), closeRatio)
+               && equals(instrument.getCommissionCloseTodayRatio(), closeTodayRatio);
+    }
+
+    /**
+     * Quote fees of one lot at the price for a request of the offset. Margin
+     * is quoted only for opening, and commission only of the offset, other
+     * fees in the quote are {@code NaN}.
+     *
+     * @param price  price
+     * @param offset offset of the request
+     *
+     * @return fee quote
+     *
+     * @throws AlgorithmException if instrument misses fields for the quote
+     */
+    public FeeQuote quote(double price, Offset offset) throws AlgorithmException {
+        var ratio = getCommissionRatio(offset);
+        check(commissionType);
+        check(ratio);
+        var byMoney = commissionType == RatioType.BY_MONEY;
+        if ((byMoney || offset == Offset.OPEN) && Double.isNaN(multiple)) {
+            throw new AlgorithmException(ExceptionCodes.MULTIPLE_NULL.code(),
+                                         ExceptionCodes.MULTIPLE_NULL.message()
+                                         + "(" + instrumentId + ")");
+        }
+        var amount = price * multiple;
+        var commission = byMoney ? amount * ratio : ratio;
+        var margin = Double.NaN;
+        if (offset == Offset.OPEN) {
+            check(marginType);
+            check(marginRatio);
+            margin = marginType == RatioType.BY_MONEY ? amount * marginRatio : marginRatio;
+        }
+        return new FeeQuote(amount,
+                            margin,
+                            offset == Offset.OPEN ? commission : Double.NaN,
+                            offset == Offset.CLOSE ? commission : Double.NaN,
+                            offset != Offset.OPEN && offset != Offset.CLOSE ? commission : Double.NaN);
+    }
+
+    private void check(double ratio) throws AlgorithmException {
+        if (Double.isNaN(ratio)) {
+            throw new AlgorithmException(ExceptionCodes.RATIO_NULL.code(),
+                                         ExceptionCodes.RATIO_NULL.message()
+                                         + "(" + instrumentId + ")");
+        }
+    }
+
+    private void check(RatioType type) throws AlgorithmException {
+        if (type == null) {
+            throw new AlgorithmException(ExceptionCodes.RATIO_TYPE_NULL.code(),
+                                         ExceptionCodes.RATIO_TYPE_NULL.message());
+        }
+    }
+
+    private double getCommissionRatio(Offset offset) {
+        if (offset == Offset.OPEN) {
+            return openRatio;
+        }
+        else if (offset == Offset.CLOSE) {
+            return closeRatio;
+        }
+        else {
+            return closeTodayRatio;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+/**
+ * Type of input recorded in {@link EventJournal}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public enum JournalEventType {
+    /**
+     * {@code request()} call, new order or deletion.
+     */
+    REQUEST(1),
+    /**
+     * Trade from trader gateway.
+     */
+    TRADE(2),
+    /**
+     * Response from trader gateway.
+     */
+    RESPONSE(3),
+    /**
+     * Exception from trader gateway.
+     */
+    EXCEPTION(4),
+    /**
+     * Exception of a request from trader gateway.
+     */
+    REQUEST_EXCEPTION(5),
+    /**
+     * Status change of trader gateway.
+     */
+    TRADER_STATUS(6),
+    /**
+     * Status change of engine.
+     */
+    ENGINE_STATUS(7),
+    /**
+     * Start of trader gateway, with the last destinated ID of its translator.
+     */
+    TRADER_START(8),
+    /**
+     * Trader chosen by router for a request without trader ID.
+     */
+    ROUTE(9);
+
+    public static JournalEventType valueOf(byte code) {
+        for (var t : values()) {
+            if (t.c == code) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private final byte c;
+
+    private JournalEventType(int code) {
+        c = (byte) code;
+    }
+
+    public byte code() {
+        return c;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Request;
+import com.openglobes.core.Response;
+import com.openglobes.core.Trade;
+import com.openglobes.core.exceptions.EngineException;
+import com.openglobes.core.exceptions.EngineRuntimeException;
+import com.openglobes.core.exceptions.GatewayRuntimeException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Replay a recorded {@link EventJournal} through a trader engine at full
+ * speed.
+ * <p>
+ * Each trader in journal is registered as a {@link ReplayGateway}, so
+ * requests reach no real counterparty, and the recorded gateway events are
+ * fed to the handlers of the replay gateways. Destinated IDs are continued
+ * from the recorded {@link JournalEventType#TRADER_START}, so recorded trades
+ * and responses find their orders as long as requests are replayed in the
+ * order they were forwarded, which holds if requests came from one thread.
+ * Requests without trader ID go to the trader recorded by
+ * {@link JournalEventType#ROUTE}, whatever the router of the replay engine
+ * decides.
+ * <p>
+ * Events are fed in the order of sequence. Gateway events bypass event ring,
+ * so they are processed before later requests of the same instrument. With
+ * shards, events of different instruments may still interleave differently
+ * from the recorded session, so replay without shards to reproduce account
+ * exactly.
+ * <p>
+ * Engine must have data source and algorithm, be initialized and not be
+ * started. It is stopped after replay, with all writes done.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class JournalReplayer {
+
+    private final Path directory;
+
+    public JournalReplayer(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replay journal through engine.
+     *
+     * @param engine     engine to replay through
+     * @param properties start properties, journal directory, event ring and
+     *                   flow control are ignored
+     *
+     * @return replay report
+     *
+     * @throws EngineException if journal can't be read, or engine fails
+     *                         starting or stopping
+     */
+    public ReplayReport replay(TraderEngine engine, Properties properties) throws EngineException {
+        var ids = new TreeSet<Integer>();
+        var total = new AtomicLong(0);
+        var day = new AtomicReference<LocalDate>();
+        var routes = new HashMap<Long, Integer>(1024);
+        EventJournal.read(directory, e -> {
+            total.incrementAndGet();
+            if (e.getTraderId() != EventJournal.NO_TRADER_ID) {
+                ids.add(e.getTraderId());
+            }
+            if (e.getType() == JournalEventType.ROUTE && e.getOrderId() != null) {
+                routes.put(e.getOrderId(), e.getTraderId());
+            }
+            day.compareAndSet(null, getTradingDay(e));
+        });
+        var gateways = new HashMap<Integer, ReplayGateway>(8);
+        for (var id : ids) {
+            var g = new ReplayGateway(day.get());
+            gateways.put(id, g);
+            engine.registerTrader(id, g);
+            engine.enableTrader(id, true);
+        }
+        var failures = new AtomicLong(0);
+        var handler = new FailureCounter(failures);
+        engine.addHandler(handler);
+        var props = new Properties();
+        if (properties != null) {
+            props.putAll(properties);
+        }
+        /*
+         * Gateway events must not overtake later requests, and replay must not
+         * record itself or be throttled.
+         */
+        props.remove(EngineProperties.JOURNAL_DIRECTORY);
+        props.remove(EngineProperties.EVENT_RING_SIZE);
+        props.remove(EngineProperties.FLOW_HIGH_WATERMARK);
+        engine.start(props);
+        var counts = new EnumMap<JournalEventType, Long>(JournalEventType.class);
+        var latencies = new long[(int) total.get()];
+        var index = new AtomicInteger(0);
+        var rejected = new AtomicLong(0);
+        var start = System.nanoTime();
+        long feed;
+        try {
+            EventJournal.read(directory, e -> {
+                var i = index.get();
+                if (i >= latencies.length) {
+                    return;
+                }
+                var t0 = System.nanoTime();
+                if (!feed(engine, gateways, routes, e)) {
+                    rejected.incrementAndGet();
+                }
+                latencies[i] = System.nanoTime() - t0;
+                index.set(i + 1);
+                counts.merge(e.getType(), 1L, Long::sum);
+            });
+        }
+        finally {
+            feed = System.nanoTime() - start;
+            /*
+             * Stopping drains event ring, shards and pending writes.
+             */
+            engine.stop();
+            engine.removeHanlder(handler);
+        }
+        var end = System.nanoTime();
+        return new ReplayReport(engine.getAccount(),
+                                engine.getDataSource().getConnection().getContracts(),
+                                counts,
+                                Arrays.copyOf(latencies, index.get()),
+                                rejected.get(),
+                                failures.get(),
+                                feed,
+                                end - start);
+    }
+
+    private boolean feed(TraderEngine engine,
+                         Map<Integer, ReplayGateway> gateways,
+                         Map<Long, Integer> routes,
+                         JournalEvent e) throws EngineException {
+        var g = gateways.get(e.getTraderId());
+        switch (e.getType()) {
+            case REQUEST:
+                return request(engine, routes, e);
+            case TRADE:
+                updateTradingDay(g, e.getTrade().getTradingDay());
+                g.getHandler().onTrade(e.getTrade());
+                break;
+            case RESPONSE:
+                updateTradingDay(g, e.getResponse().getTradingDay());
+                g.getHandler().onResponse(e.getResponse());
+                break;
+            case EXCEPTION:
+                g.getHandler().onException(new GatewayRuntimeException(e.getCode(), e.getMessage()));
+                break;
+            case REQUEST_EXCEPTION:
+                g.getHandler().onException(e.getRequest(),
+                                           new GatewayRuntimeException(e.getCode(), e.getMessage()),
+                                           e.getRequestId());
+                break;
+            case TRADER_STATUS:
+                g.setStatus(e.getStatus());
+                g.getHandler().onStatusChange(e.getStatus());
+                break;
+            case ENGINE_STATUS:
+                if (e.getStatus() == EngineStatus.SETTLING.code()) {
+                    engine.settle(new Properties());
+                }
+                break;
+            case TRADER_START:
+                var translator = ((ExtendedTraderServiceRuntime) engine.getTraderServiceInfo(e.getTraderId()))
+                        .getIdTranslator();
+                if (translator.getLastId() != e.getLastId()) {
+                    translator.setBase(e.getLastId());
+                }
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    private LocalDate getTradingDay(JournalEvent e) {
+        if (e.getTrade() != null) {
+            return e.getTrade().getTradingDay();
+        }
+        if (e.getResponse() != null) {
+            return e.getResponse().getTradingDay();
+        }
+        return null;
+    }
+
+    private boolean request(TraderEngine engine,
+                            Map<Long, Integer> routes,
+                            JournalEvent e) {
+        try {
+            if (e.getInstrument() == null) {
+                engine.request(e.getRequest(), e.getRequestId());
+            }
+            else {
+                var r = e.getRequest();
+                if (r.getTraderId() == null && r.getOrderId() != null) {
+                    r.setTraderId(routes.get(r.getOrderId()));
+                }
+                engine.request(r,
+                               e.getInstrument(),
+                               e.getProperties(),
+                               e.getRequestId());
+            }
+            return true;
+        }
+        catch (EngineException ex) {
+            /*
+             * Request was rejected in the recorded session too.
+             */
+            return false;
+        }
+    }
+
+    private void updateTradingDay(ReplayGateway g, LocalDate day) {
+        if (day != null && !day.equals(g.getServiceInfo().getTradingDay())) {
+            g.setTradingDay(day);
+        }
+    }
+
+    private static class FailureCounter implements ITraderEngineHandler {
+
+        private final AtomicLong failures;
+
+        FailureCounter(AtomicLong failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public void onException(EngineRuntimeException exception) {
+            failures.incrementAndGet();
+        }
+
+        @Override
+        public void onException(Request request, EngineRuntimeException exception, int requestId) {
+            failures.incrementAndGet();
+        }
+
+        @Override
+        public void onResponse(Response response) {
+        }
+
+        @Override
+        public void onStatusChange(EngineStatus status) {
+        }
+
+        @Override
+        public void onTrade(Trade trade) {
+        }
+
+        @Override
+        public void onTraderServiceStatusChange(int status) {
+        }
+    }
+}
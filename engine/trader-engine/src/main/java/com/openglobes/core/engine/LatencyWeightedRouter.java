@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Request;
+
+/**
+ * Route orders to the trader service expected to acknowledge earliest.
+ * <p>
+ * The expected time is the moving average of acknowledging latency weighted
+ * by in-flight orders plus the new one. Trader service not measured yet is
+ * preferred so its latency gets measured.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class LatencyWeightedRouter implements ITraderRouter {
+
+    public LatencyWeightedRouter() {
+    }
+
+    @Override
+    public TraderServiceRuntime route(Request request, TraderServiceRuntime[] candidates) {
+        TraderServiceRuntime r = null;
+        var min = Double.MAX_VALUE;
+        for (var c : candidates) {
+            var s = c.getStatistics();
+            var cost = s.getAckLatency() * (s.getInFlight() + 1);
+            if (r == null || cost < min) {
+                min = cost;
+                r = c;
+            }
+        }
+        return r;
+    }
+}
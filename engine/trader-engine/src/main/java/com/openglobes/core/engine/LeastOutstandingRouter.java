@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Request;
+
+/**
+ * Route orders to the trader service with the fewest in-flight orders.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class LeastOutstandingRouter implements ITraderRouter {
+
+    public LeastOutstandingRouter() {
+    }
+
+    @Override
+    public TraderServiceRuntime route(Request request, TraderServiceRuntime[] candidates) {
+        var r = candidates[0];
+        var min = r.getStatistics().getInFlight();
+        for (int i = 1; i < candidates.length; ++i) {
+            var n = candidates[i].getStatistics().getInFlight();
+            if (n < min) {
+                min = n;
+                r = candidates[i];
+            }
+        }
+        return r;
+    }
+}
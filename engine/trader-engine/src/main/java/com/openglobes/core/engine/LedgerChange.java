@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+/**
+ * Changes to be applied on {@link AccountLedger}.
+ * <p>
+ * Changes are collected during a data source transaction and applied to ledger
+ * after the transaction commits, so a rollback leaves ledger untouched.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class LedgerChange {
+
+    private double closeProfit;
+    private double commission;
+    private double deposit;
+    private double frozenCommission;
+    private double frozenMargin;
+    private double margin;
+    private double withdraw;
+
+    public LedgerChange() {
+    }
+
+    public void dealClose(double margin, double commission, double closeProfit) {
+        this.margin -= margin;
+        this.frozenCommission -= commission;
+        this.commission += commission;
+        this.closeProfit += closeProfit;
+    }
+
+    public void dealOpen(double margin, double commission) {
+        this.frozenMargin -= margin;
+        this.margin += margin;
+        this.frozenCommission -= commission;
+        this.commission += commission;
+    }
+
+    public void deleteClose(double commission) {
+        this.frozenCommission -= commission;
+    }
+
+    public void deleteOpen(double margin, double commission) {
+        this.frozenMargin -= margin;
+        this.frozenCommission -= commission;
+    }
+
+    public void deposit(double amount) {
+        this.deposit += amount;
+    }
+
+    public void freezeClose(double commission) {
+        this.frozenCommission += commission;
+    }
+
+    public void freezeOpen(double margin, double commission) {
+        this.frozenMargin += margin;
+        this.frozenCommission += commission;
+    }
+
+    public void withdraw(double amount) {
+        this.withdraw += amount;
+    }
+
+    public double getCloseProfit() {
+        return closeProfit;
+    }
+
+    public double getCommission() {
+        return commission;
+    }
+
+    public double getDeposit() {
+        return deposit;
+    }
+
+    public double getFrozenCommission() {
+        return frozenCommission;
+    }
+
+    public double getFrozenMargin() {
+        return frozenMargin;
+    }
+
+    public double getMargin() {
+        return margin;
+    }
+
+    public double getWithdraw() {
+        return withdraw;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive {@code long} to primitive
+ * {@code int}.
+ * <p>
+ * Keys and values are kept in flat arrays with linear probing, so entries
+ * allocate no objects. Absent keys are reported by the missing value given
+ * on construction. It is not thread-safe.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class LongIntHashMap {
+
+    private static final long FREE = 0L;
+
+    private boolean hasZero;
+    private long[] keys;
+    private int mask;
+    private final int missing;
+    private int size;
+    private int threshold;
+    private int[] values;
+    private int zeroValue;
+
+    public LongIntHashMap(int capacity, int missingValue) {
+        missing = missingValue;
+        allocate(Maps.tableSize(capacity));
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        hasZero = false;
+        size = 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE) {
+            return hasZero;
+        }
+        return keys[find(key)] != FREE;
+    }
+
+    public int get(long key) {
+        if (key == FREE) {
+            return hasZero ? zeroValue : missing;
+        }
+        var i = find(key);
+        return keys[i] != FREE ? values[i] : missing;
+    }
+
+    public int getMissingValue() {
+        return missing;
+    }
+
+    /**
+     * Copy keys into a new array in no particular order.
+     *
+     * @return keys in map
+     */
+    public long[] keys() {
+        var r = new long[size];
+        var n = 0;
+        if (hasZero) {
+            r[n++] = FREE;
+        }
+        for (var k : keys) {
+            if (k != FREE) {
+                r[n++] = k;
+            }
+        }
+        return r;
+    }
+
+    public int put(long key, int value) {
+        if (key == FREE) {
+            var r = hasZero ? zeroValue : missing;
+            if (!hasZero) {
+                hasZero = true;
+                ++size;
+            }
+            zeroValue = value;
+            return r;
+        }
+        var i = find(key);
+        if (keys[i] != FREE) {
+            var r = values[i];
+            values[i] = value;
+            return r;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return missing;
+    }
+
+    public int remove(long key) {
+        if (key == FREE) {
+            if (!hasZero) {
+                return missing;
+            }
+            hasZero = false;
+            --size;
+            return zeroValue;
+        }
+        var i = find(key);
+        if (keys[i] == FREE) {
+            return missing;
+        }
+        var r = values[i];
+        shiftBack(i);
+        --size;
+        return r;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * Maps.LOAD_FACTOR);
+    }
+
+    /*
+     * Return slot of the key, or the free slot it would be put.
+     */
+    private int find(long key) {
+        var i = Maps.hash(key) & mask;
+        while (keys[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash(int capacity) {
+        var oldKeys = keys;
+        var oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != FREE) {
+                var j = find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /*
+     * Remove entry at the slot and move the following entries back so probing
+     * never stops at the removed slot.
+     */
+    private void shiftBack(int i) {
+        var j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            var k = keys[j];
+            if (k == FREE) {
+                break;
+            }
+            if (Maps.canMove(Maps.hash(k) & mask, i, j)) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = FREE;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.exceptions.EngineException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped table of destinated ID, source ID and count down.
+ * <p>
+ * Records have fixed length and are placed by destinated ID, so adding an ID
+ * and counting down are single writes to mapped memory. The table survives
+ * restart of the process and is loaded back by scanning the mapped file.
+ * <p>
+ * File layout:
+ * <pre>
+ * header : magic(8) base(8) reserved(16)
+ * record : destId(8) srcId(8) count(8), at HEADER + (destId - base - 1) * 24
+ * </pre>
+ * A record with zero destinated ID is never written. Table is mapped in one
+ * buffer, so it holds at most about 89 million records, and the file shrinks
+ * back to its initial size on reset.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class MappedIdTable implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 32;
+    private static final int INIT_RECORDS = 1 << 16;
+    private static final long MAGIC = 0x4F47494454424C31L;
+    private static final int RECORD_SIZE = 24;
+    private static final long INIT_SIZE = HEADER_SIZE + (long) INIT_RECORDS * RECORD_SIZE;
+    private static final long MAX_SIZE = HEADER_SIZE + (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+
+    private long base;
+    private MappedByteBuffer buffer;
+    private final FileChannel channel;
+    private long high;
+    private final Path path;
+
+    /**
+     * Open table file, or create it if it doesn't exist.
+     *
+     * @param path path of table file
+     *
+     * @throws EngineException if file can't be mapped or isn't a table
+     */
+    public MappedIdTable(Path path) throws EngineException {
+        this.path = path;
+        try {
+            channel = FileChannel.open(path,
+                                       StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            var size = channel.size();
+            if (size > MAX_SIZE) {
+                throw new EngineException(ExceptionCodes.ID_TABLE_CORRUPTED.code(),
+                                          ExceptionCodes.ID_TABLE_CORRUPTED.message()
+                                          + "(" + path + ")");
+            }
+            map(Math.max(size, INIT_SIZE));
+            if (size == 0) {
+                buffer.putLong(0, MAGIC);
+                buffer.putLong(8, 0L);
+            }
+            else if (buffer.getLong(0) != MAGIC) {
+                throw new EngineException(ExceptionCodes.ID_TABLE_CORRUPTED.code(),
+                                          ExceptionCodes.ID_TABLE_CORRUPTED.message()
+                                          + "(" + path + ")");
+            }
+            base = buffer.getLong(8);
+            high = 0L;
+        }
+        catch (IOException e) {
+            throw new EngineException(ExceptionCodes.ID_TABLE_IO_FAILED.code(),
+                                      ExceptionCodes.ID_TABLE_IO_FAILED.message()
+                                      + "(" + path + ")",
+                                      e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws EngineException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            buffer.force();
+            channel.close();
+        }
+        catch (IOException e) {
+            throw new EngineException(ExceptionCodes.ID_TABLE_IO_FAILED.code(),
+                                      ExceptionCodes.ID_TABLE_IO_FAILED.message()
+                                      + "(" + path + ")",
+                                      e);
+        }
+    }
+
+    /**
+     * Force written records to disk.
+     */
+    public synchronized void force() {
+        if (channel.isOpen()) {
+            buffer.force();
+        }
+    }
+
+    public synchronized long getBase() {
+        return base;
+    }
+
+    /**
+     * Load all records into the translator.
+     *
+     * @param translator ID translator to restore
+     */
+    public synchronized void load(IdTranslator translator) {
+        var n = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        for (int i = 0; i < n; ++i) {
+            var p = HEADER_SIZE + i * RECORD_SIZE;
+            var destId = buffer.getLong(p);
+            if (destId == 0L) {
+                continue;
+            }
+            translator.restore(destId, buffer.getLong(p + 8), buffer.getLong(p + 16));
+            high = Math.max(high, i + 1);
+        }
+    }
+
+    /**
+     * Write new record.
+     *
+     * @param destId destinated ID
+     * @param srcId  source ID
+     * @param count  count down
+     *
+     * @throws EngineException if table fails growing
+     */
+    public synchronized void put(long destId, long srcId, long count) throws EngineException {
+        var p = ensure(destId);
+        buffer.putLong(p + 8, srcId);
+        buffer.putLong(p + 16, count);
+        /*
+         * Write destinated ID last, so a record is complete once it is seen.
+         */
+        buffer.putLong(p, destId);
+    }
+
+    /**
+     * Remove all records and start from the new base, and shrink the file to
+     * its initial size. It is called at settlement when all IDs of the
+     * trading day are cleared.
+     *
+     * @param base base of destinated IDs
+     *
+     * @throws EngineException if file can't be shrunk
+     */
+    public synchronized void reset(long base) throws EngineException {
+        for (long i = 0; i < high; ++i) {
+            buffer.putLong((int) (HEADER_SIZE + i * RECORD_SIZE), 0L);
+        }
+        high = 0L;
+        this.base = base;
+        buffer.putLong(8, base);
+        buffer.force();
+        if (buffer.capacity() <= INIT_SIZE) {
+            return;
+        }
+        /*
+         * Records are cleared before truncating, so the table is still valid
+         * if the file can't be truncated.
+         */
+        try {
+            map(INIT_SIZE);
+            channel.truncate(INIT_SIZE);
+        }
+        catch (IOException e) {
+            throw new EngineException(ExceptionCodes.ID_TABLE_IO_FAILED.code(),
+                                      ExceptionCodes.ID_TABLE_IO_FAILED.message()
+                                      + "(" + path + ")",
+                                      e);
+        }
+    }
+
+    /**
+     * Update count down of a record. Count down only decreases, so a stale
+     * value written late never overwrites a smaller one.
+     *
+     * @param destId destinated ID
+     * @param count  count down
+     */
+    public synchronized void update(long destId, long count) {
+        var p = position(destId);
+        if (p < HEADER_SIZE || p + RECORD_SIZE > buffer.capacity()) {
+            return;
+        }
+        var i = (int) p;
+        if (buffer.getLong(i) == destId && count < buffer.getLong(i + 16)) {
+            buffer.putLong(i + 16, count);
+        }
+    }
+
+    private int ensure(long destId) throws EngineException {
+        var p = position(destId);
+        if (p < HEADER_SIZE) {
+            throw new EngineException(ExceptionCodes.ID_TABLE_CORRUPTED.code(),
+                                      ExceptionCodes.ID_TABLE_CORRUPTED.message()
+                                      + "(Destinated ID:" + destId + ")");
+        }
+        if (p + RECORD_SIZE > MAX_SIZE) {
+            throw new EngineException(ExceptionCodes.ID_TABLE_FULL.code(),
+                                      ExceptionCodes.ID_TABLE_FULL.message()
+                                      + "(Destinated ID:" + destId + ")");
+        }
+        if (p + RECORD_SIZE > buffer.capacity()) {
+            try {
+                map(Math.min(Math.max(p + RECORD_SIZE, (long) buffer.capacity() << 1), MAX_SIZE));
+            }
+            catch (IOException e) {
+                throw new EngineException(ExceptionCodes.ID_TABLE_IO_FAILED.code(),
+                                          ExceptionCodes.ID_TABLE_IO_FAILED.message()
+                                          + "(" + path + ")",
+                                          e);
+            }
+        }
+        high = Math.max(high, destId - base);
+        return (int) p;
+    }
+
+    private void map(long size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private long position(long destId) {
+        return HEADER_SIZE + (destId - base - 1) * RECORD_SIZE;
+    }
+}
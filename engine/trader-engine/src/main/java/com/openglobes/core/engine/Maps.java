@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+/**
+ * Helpers shared by primitive hash maps.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+final class Maps {
+
+    static final float LOAD_FACTOR = 0.6F;
+
+    private Maps() {
+    }
+
+    /*
+     * Entry at slot j with home slot h can move back to the free slot i only if
+     * i lies cyclically between h and j.
+     */
+    static boolean canMove(int h, int i, int j) {
+        if (i <= j) {
+            return h <= i || h > j;
+        }
+        else {
+            return h <= i && h > j;
+        }
+    }
+
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    static int tableSize(int capacity) {
+        var n = (int) Math.ceil(Math.max(capacity, 2) / LOAD_FACTOR);
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.exceptions.EngineException;
+import com.openglobes.core.exceptions.EngineRuntimeException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Persist write batches on a single thread in the order they are submitted.
+ * <p>
+ * State in memory is updated before the batch is submitted, so callers never
+ * wait for data source on the critical path. Before reading rows that may be
+ * written by a pending batch, call {@link #flush()}.
+ * <p>
+ * Batches are group committed. The writer takes all batches that arrive
+ * within the commit window, up to the group size, and writes them in one
+ * transaction. Callbacks of the batches run only after the group is
+ * committed. If the group fails, each batch is retried in its own transaction
+ * so one bad batch doesn't fail the others.
+ * <p>
+ * A batch that still fails after retries is dropped. Its drop callbacks undo
+ * the state in memory that was changed for it, and the failure is reported
+ * with the name of the batch.
+ * <p>
+ * If persister is not started, batches are written on the calling thread.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class OrderPersister {
+
+    private static final long POLL_MILLIS = 100L;
+    private static final long RETRY_MILLIS = 100L;
+    private static final int RETRY_TIMES = 3;
+
+    private volatile long done;
+    private final ITraderEngine engine;
+    private int groupSize;
+    private final Consumer<EngineRuntimeException> onFailure;
+    private final BlockingQueue<WriteBatch> queue;
+    private volatile boolean running;
+    private volatile long submitted;
+    private long windowNanos;
+    private Thread worker;
+
+    public OrderPersister(ITraderEngine engine, Consumer<EngineRuntimeException> onFailure) {
+        this.engine = engine;
+        this.onFailure = onFailure;
+        queue = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * Wait until all batches submitted before the call are written.
+     */
+    public void flush() {
+        synchronized (this) {
+            var target = submitted;
+            while (done < target && worker != null) {
+                try {
+                    wait(POLL_MILLIS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get number of batches submitted and not yet written. It doesn't lock, so
+     * flow control can call it on every request.
+     *
+     * @return number of pending batches
+     */
+    public long getPending() {
+        /*
+         * Both counters only grow and done never passes submitted, so reading
+         * done first never gives a negative count.
+         */
+        var d = done;
+        return submitted - d;
+    }
+
+    /**
+     * Start writer thread.
+     *
+     * @param groupSize    maximum batches committed in one transaction
+     * @param windowMillis time to wait for more batches after the first one
+     *                     of a group arrives, zero to commit the batches that
+     *                     are already queued
+     *
+     * @throws EngineException if group size is not positive or window is
+     *                         negative
+     */
+    public synchronized void start(int groupSize, long windowMillis) throws EngineException {
+        if (groupSize <= 0 || windowMillis < 0) {
+            throw new EngineException(ExceptionCodes.INVALID_PERSIST_GROUP.code(),
+                                      ExceptionCodes.INVALID_PERSIST_GROUP.message()
+                                      + "(Group size:" + groupSize + ", window:" + windowMillis + ")");
+        }
+        if (worker != null) {
+            return;
+        }
+        this.groupSize = groupSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        running = true;
+        worker = new Thread(this::run, "OrderPersister");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop accepting batches and wait for the submitted ones to be written.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     *
+     * @return {@code true} if all batches are written in time
+     */
+    public boolean stop(long timeoutMillis) {
+        Thread w;
+        synchronized (this) {
+            w = worker;
+            if (w == null) {
+                return true;
+            }
+            running = false;
+        }
+        try {
+            w.join(timeoutMillis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            worker = null;
+            notifyAll();
+            return queue.isEmpty();
+        }
+    }
+
+    public void submit(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (worker != null) {
+                ++submitted;
+                queue.add(batch);
+                return;
+            }
+        }
+        persist(batch);
+    }
+
+    private void callback(WriteBatch batch) {
+        try {
+            batch.committed();
+        }
+        catch (Throwable th) {
+            onFailure.accept(new EngineRuntimeException(ExceptionCodes.USER_CODE_ERROR.code(),
+                                                        ExceptionCodes.USER_CODE_ERROR.message(),
+                                                        th));
+        }
+    }
+
+    private void collect(WriteBatch first, List<WriteBatch> group) throws InterruptedException {
+        group.add(first);
+        queue.drainTo(group, groupSize - group.size());
+        if (windowNanos == 0) {
+            return;
+        }
+        var deadline = System.nanoTime() + windowNanos;
+        while (group.size() < groupSize) {
+            var left = deadline - System.nanoTime();
+            if (left <= 0) {
+                break;
+            }
+            var b = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (b == null) {
+                break;
+            }
+            group.add(b);
+            queue.drainTo(group, groupSize - group.size());
+        }
+    }
+
+    private void drop(WriteBatch batch, Throwable cause) {
+        onFailure.accept(new EngineRuntimeException(ExceptionCodes.PERSIST_BATCH_DROPPED.code(),
+                                                    ExceptionCodes.PERSIST_BATCH_DROPPED.message()
+                                                    + "(" + batch.getName() + ")",
+                                                    cause));
+        try {
+            batch.dropped();
+        }
+        catch (Throwable th) {
+            onFailure.accept(new EngineRuntimeException(ExceptionCodes.USER_CODE_ERROR.code(),
+                                                        ExceptionCodes.USER_CODE_ERROR.message(),
+                                                        th));
+        }
+    }
+
+    private boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /*
+     * Write the batch in its own transaction, retrying a few times, and drop
+     * it if all tries fail.
+     */
+    private void persist(WriteBatch batch) {
+        Throwable cause = null;
+        for (int i = 0; i < RETRY_TIMES; ++i) {
+            if (i > 0 && !pause(RETRY_MILLIS << (i - 1))) {
+                break;
+            }
+            cause = write(List.of(batch));
+            if (cause == null) {
+                callback(batch);
+                return;
+            }
+        }
+        drop(batch, cause);
+    }
+
+    private void rollback(IDataConnection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.rollback();
+        }
+        catch (DataSourceException e) {
+            onFailure.accept(new EngineRuntimeException(e.getCode(),
+                                                        e.getMessage(),
+                                                        e));
+        }
+    }
+
+    private void run() {
+        var group = new ArrayList<WriteBatch>(groupSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                var b = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (b == null) {
+                    continue;
+                }
+                collect(b, group);
+                if (write(group) == null) {
+                    group.forEach(this::callback);
+                }
+                else {
+                    /*
+                     * Find the bad batch and keep the good ones.
+                     */
+                    group.forEach(this::persist);
+                }
+                synchronized (this) {
+                    done += group.size();
+                    notifyAll();
+                }
+                group.clear();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /*
+     * Return null if the group is committed, or the cause of failure.
+     */
+    private Throwable write(List<WriteBatch> group) {
+        IDataConnection conn = null;
+        try {
+            conn = engine.getDataSource().getConnection();
+            conn.transaction();
+            for (var b : group) {
+                b.write(conn);
+            }
+            conn.commit();
+            return null;
+        }
+        catch (Throwable th) {
+            rollback(conn);
+            return th;
+        }
+    }
+}
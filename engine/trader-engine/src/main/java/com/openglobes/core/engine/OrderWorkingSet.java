@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Working orders keyed by source order ID.
+ * <p>
+ * Orders are added when their assets are frozen and removed when they reach
+ * terminal status, so trades and deletes are dealt in memory without reading
+ * the frozen rows back from data source.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class OrderWorkingSet {
+
+    private final Map<Long, WorkingOrder> orders;
+
+    public OrderWorkingSet() {
+        orders = new ConcurrentHashMap<>(1024);
+    }
+
+    public void clear() {
+        orders.clear();
+    }
+
+    public WorkingOrder get(Long orderId) {
+        return orders.get(orderId);
+    }
+
+    /**
+     * Copy working orders keyed by order ID.
+     *
+     * @return working orders
+     */
+    public Map<Long, WorkingOrder> getOrders() {
+        return new HashMap<>(orders);
+    }
+
+    public void put(Long orderId, WorkingOrder order) {
+        orders.put(orderId, order);
+    }
+
+    public WorkingOrder remove(Long orderId) {
+        return orders.remove(orderId);
+    }
+
+    public int size() {
+        return orders.size();
+    }
+}
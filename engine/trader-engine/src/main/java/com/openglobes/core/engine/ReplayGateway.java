@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Request;
+import com.openglobes.core.gateway.ITraderGateway;
+import com.openglobes.core.gateway.ITraderGatewayHandler;
+import com.openglobes.core.gateway.TraderGatewayInfo;
+import java.time.LocalDate;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trader gateway standing in for a recorded one during journal replay.
+ * Requests are counted and dropped, because the gateway events they caused
+ * are replayed from journal.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class ReplayGateway implements ITraderGateway {
+
+    private volatile ITraderGatewayHandler handler;
+    private final TraderGatewayInfo info;
+    private final AtomicLong inserted;
+    private volatile int status;
+
+    public ReplayGateway(LocalDate tradingDay) {
+        info = new TraderGatewayInfo();
+        info.setTradingDay(tradingDay);
+        info.setActionDay(tradingDay);
+        inserted = new AtomicLong(0);
+    }
+
+    public ITraderGatewayHandler getHandler() {
+        return handler;
+    }
+
+    public long getInserted() {
+        return inserted.get();
+    }
+
+    @Override
+    public Properties getProperties() {
+        return new Properties();
+    }
+
+    @Override
+    public TraderGatewayInfo getServiceInfo() {
+        return info;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void insert(Request request, long requestId) {
+        inserted.incrementAndGet();
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public void setTradingDay(LocalDate tradingDay) {
+        info.setTradingDay(tradingDay);
+        info.setActionDay(tradingDay);
+    }
+
+    @Override
+    public void start(Properties properties, ITraderGatewayHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void stop() {
+        handler = null;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Account;
+import com.openglobes.core.Contract;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Result of a journal replay: final account and contracts, and the speed
+ * of replay.
+ * <p>
+ * Latency of an event is the time engine takes to accept it from replayer.
+ * With event ring or shards, processing continues on other threads, and the
+ * total time includes draining them and pending writes.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class ReplayReport {
+
+    private final Account account;
+    private final Collection<Contract> contracts;
+    private final Map<JournalEventType, Long> counts;
+    private final long events;
+    private final long failures;
+    private final long feedNanos;
+    private final long[] latencies;
+    private final long rejected;
+    private final long totalNanos;
+
+    public ReplayReport(Account account,
+                        Collection<Contract> contracts,
+                        Map<JournalEventType, Long> counts,
+                        long[] latencies,
+                        long rejected,
+                        long failures,
+                        long feedNanos,
+                        long totalNanos) {
+        this.account = account;
+        this.contracts = contracts;
+        this.counts = counts;
+        this.events = latencies.length;
+        this.latencies = latencies.clone();
+        this.rejected = rejected;
+        this.failures = failures;
+        this.feedNanos = feedNanos;
+        this.totalNanos = totalNanos;
+        Arrays.sort(this.latencies);
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public Collection<Contract> getContracts() {
+        return contracts;
+    }
+
+    public Map<JournalEventType, Long> getCounts() {
+        return counts;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * Get number of exceptions engine reported to handlers during replay.
+     *
+     * @return number of exceptions
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getFeedNanos() {
+        return feedNanos;
+    }
+
+    /**
+     * Get latency at percentile.
+     *
+     * @param percentile percentile in {@code [0, 100]}
+     *
+     * @return latency in nanoseconds
+     */
+    public long getLatencyNanos(double percentile) {
+        if (latencies.length == 0) {
+            return 0L;
+        }
+        var i = (int) Math.ceil(percentile / 100.0D * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(i, latencies.length - 1))];
+    }
+
+    /**
+     * Get number of requests engine rejected during replay.
+     *
+     * @return number of rejected requests
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Get events replayed per second, including the time to drain engine.
+     *
+     * @return events per second
+     */
+    public double getThroughput() {
+        return totalNanos == 0 ? 0.0D : events * 1.0E9D / totalNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Replayed %d events in %.1f ms (%.0f/s), "
+                             + "latency p50 %d ns, p99 %d ns, p99.9 %d ns, max %d ns, "
+                             + "rejected %d, failures %d, counts %s",
+                             events,
+                             totalNanos / 1.0E6D,
+                             getThroughput(),
+                             getLatencyNanos(50),
+                             getLatencyNanos(99),
+                             getLatencyNanos(99.9),
+                             getLatencyNanos(100),
+                             rejected,
+                             failures,
+                             counts);
+    }
+}
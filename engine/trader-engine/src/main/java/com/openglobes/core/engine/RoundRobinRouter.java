@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Request;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Route orders to trader services in turn.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class RoundRobinRouter implements ITraderRouter {
+
+    private final AtomicInteger next;
+
+    public RoundRobinRouter() {
+        next = new AtomicInteger(0);
+    }
+
+    @Override
+    public TraderServiceRuntime route(Request request, TraderServiceRuntime[] candidates) {
+        return candidates[Math.floorMod(next.getAndIncrement(), candidates.length)];
+    }
+}
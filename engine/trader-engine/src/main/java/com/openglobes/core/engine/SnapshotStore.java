@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Contract;
+import com.openglobes.core.Instrument;
+import com.openglobes.core.Offset;
+import com.openglobes.core.exceptions.EngineException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * File of the latest {@link EngineSnapshot} in a directory.
+ * <p>
+ * A snapshot is written to a temporary file, forced to disk and then moved
+ * over the last one, so a crash during writing leaves the last snapshot
+ * intact.
+ * <p>
+ * File layout:
+ * <pre>
+ * header : magic(8) length(4) crc(4)
+ * body   : sequence(8) journal trading-day account
+ *          contracts instruments orders order-traders ids
+ * </pre>
+ * Collections are prefixed by the number of elements.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SnapshotStore {
+
+    private static final String FILE_NAME = "snapshot.dat";
+    private static final int HEADER_SIZE = 16;
+    private static final int INIT_BUFFER_SIZE = 64 * 1024;
+    private static final long MAGIC = 0x4F47534E41505331L;
+    private static final String TEMP_NAME = "snapshot.tmp";
+
+    private ByteBuffer buffer;
+    private final Path directory;
+
+    public SnapshotStore(Path directory) {
+        this.directory = directory;
+        buffer = ByteBuffer.allocate(INIT_BUFFER_SIZE);
+    }
+
+    /**
+     * Remove snapshot if it exists.
+     *
+     * @throws EngineException if file can't be removed
+     */
+    public synchronized void delete() throws EngineException {
+        try {
+            Files.deleteIfExists(directory.resolve(FILE_NAME));
+        }
+        catch (IOException e) {
+            throw ioFailure(e);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Read the latest snapshot.
+     *
+     * @return snapshot, {@code null} if there is no snapshot
+     *
+     * @throws EngineException if file can't be read or is corrupted
+     */
+    public synchronized EngineSnapshot load() throws EngineException {
+        var path = directory.resolve(FILE_NAME);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            var b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (b.capacity() < HEADER_SIZE
+                || b.getLong(0) != MAGIC
+                || b.getInt(8) != b.capacity() - HEADER_SIZE) {
+                throw corrupted(path);
+            }
+            var crc = new CRC32();
+            crc.update(b.duplicate().position(HEADER_SIZE));
+            if (b.getInt(12) != (int) crc.getValue()) {
+                throw corrupted(path);
+            }
+            b.position(HEADER_SIZE);
+            return decode(b);
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw corrupted(path);
+        }
+        catch (IOException e) {
+            throw ioFailure(e);
+        }
+    }
+
+    /**
+     * Write snapshot over the last one.
+     *
+     * @param snapshot engine snapshot
+     *
+     * @throws EngineException if file can't be written
+     */
+    public synchronized void save(EngineSnapshot snapshot) throws EngineException {
+        while (true) {
+            try {
+                buffer.clear();
+                buffer.position(HEADER_SIZE);
+                encode(buffer, snapshot);
+                break;
+            }
+            catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+        var n = buffer.position() - HEADER_SIZE;
+        var crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, n);
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, n);
+        buffer.putInt(12, (int) crc.getValue());
+        buffer.flip();
+        var temp = directory.resolve(TEMP_NAME);
+        try {
+            Files.createDirectories(directory);
+            try (var ch = FileChannel.open(temp,
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.TRUNCATE_EXISTING,
+                                           StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    ch.write(buffer);
+                }
+                ch.force(true);
+            }
+            Files.move(temp,
+                       directory.resolve(FILE_NAME),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw ioFailure(e);
+        }
+    }
+
+    private EngineException corrupted(Path path) {
+        return new EngineException(ExceptionCodes.SNAPSHOT_CORRUPTED.code(),
+                                   ExceptionCodes.SNAPSHOT_CORRUPTED.message()
+                                   + "(" + path + ")");
+    }
+
+    private EngineSnapshot decode(ByteBuffer b) {
+        var s = new EngineSnapshot();
+        s.setSequence(b.getLong());
+        s.setJournalDirectory(EventCodec.getString(b));
+        s.setTradingDay(EventCodec.getDate(b));
+        s.setAccount(EventCodec.getAccount(b));
+        var n = b.getInt();
+        var contracts = new ArrayList<Contract>(n);
+        for (int i = 0; i < n; ++i) {
+            contracts.add(EventCodec.getContract(b));
+        }
+        s.setContracts(contracts);
+        n = b.getInt();
+        var instruments = new ArrayList<Instrument>(n);
+        for (int i = 0; i < n; ++i) {
+            instruments.add(EventCodec.getInstrument(b));
+        }
+        s.setInstruments(instruments);
+        n = b.getInt();
+        var orders = new HashMap<Long, WorkingOrder>(Math.max(16, n * 2));
+        for (int i = 0; i < n; ++i) {
+            var orderId = b.getLong();
+            var offset = EventCodec.getEnum(b, Offset.class);
+            var m = b.getInt();
+            var bundles = new ArrayList<FrozenBundle>(m);
+            for (int j = 0; j < m; ++j) {
+                var commission = EventCodec.getCommission(b);
+                var margin = EventCodec.getMargin(b);
+                bundles.add(new FrozenBundle(commission, margin, EventCodec.getContract(b)));
+            }
+            orders.put(orderId, new WorkingOrder(offset, bundles));
+        }
+        s.setOrders(orders);
+        n = b.getInt();
+        var orderTraders = new HashMap<Long, Integer>(Math.max(16, n * 2));
+        for (int i = 0; i < n; ++i) {
+            orderTraders.put(b.getLong(), b.getInt());
+        }
+        s.setOrderTraders(orderTraders);
+        n = b.getInt();
+        var ids = new HashMap<Integer, long[]>(Math.max(16, n * 2));
+        for (int i = 0; i < n; ++i) {
+            var traderId = b.getInt();
+            var v = new long[b.getInt()];
+            for (int j = 0; j < v.length; ++j) {
+                v[j] = b.getLong();
+            }
+            ids.put(traderId, v);
+        }
+        s.setIds(ids);
+        return s;
+    }
+
+    private void encode(ByteBuffer b, EngineSnapshot s) {
+        b.putLong(s.getSequence());
+        EventCodec.putString(b, s.getJournalDirectory());
+        EventCodec.putDate(b, s.getTradingDay());
+        EventCodec.putAccount(b, s.getAccount());
+        b.putInt(s.getContracts().size());
+        for (var c : s.getContracts()) {
+            EventCodec.putContract(b, c);
+        }
+        b.putInt(s.getInstruments().size());
+        for (var i : s.getInstruments()) {
+            EventCodec.putInstrument(b, i);
+        }
+        b.putInt(s.getOrders().size());
+        for (var e : s.getOrders().entrySet()) {
+            b.putLong(e.getKey());
+            EventCodec.putEnum(b, e.getValue().getOffset());
+            var bundles = e.getValue().getBundles();
+            b.putInt(bundles.size());
+            for (var f : bundles) {
+                EventCodec.putCommission(b, f.getCommission());
+                EventCodec.putMargin(b, f.getMargin());
+                EventCodec.putContract(b, f.getContract());
+            }
+        }
+        b.putInt(s.getOrderTraders().size());
+        for (var e : s.getOrderTraders().entrySet()) {
+            b.putLong(e.getKey());
+            b.putInt(e.getValue());
+        }
+        b.putInt(s.getIds().size());
+        for (var e : s.getIds().entrySet()) {
+            b.putInt(e.getKey());
+            b.putInt(e.getValue().length);
+            for (var v : e.getValue()) {
+                b.putLong(v);
+            }
+        }
+    }
+
+    private EngineException ioFailure(IOException e) {
+        return new EngineException(ExceptionCodes.SNAPSHOT_IO_FAILED.code(),
+                                   ExceptionCodes.SNAPSHOT_IO_FAILED.message()
+                                   + "(" + directory + ")",
+                                   e);
+    }
+}
@@ -21,6 +21,7 @@ import com.openglobes.core.ActionType;
 import com.openglobes.core.Commission;
 import com.openglobes.core.Contract;
 import com.openglobes.core.ContractStatus;
+import com.openglobes.core.Deposit;
 import com.openglobes.core.Direction;
 import com.openglobes.core.FeeStatus;
 import com.openglobes.core.Instrument;
@@ -31,39 +32,80 @@ import com.openglobes.core.Request;
 import com.openglobes.core.Response;
 import com.openglobes.core.Tick;
 import com.openglobes.core.Trade;
+import com.openglobes.core.Withdraw;
 import com.openglobes.core.exceptions.EngineException;
 import com.openglobes.core.exceptions.EngineRuntimeException;
 import com.openglobes.core.exceptions.GatewayException;
 import com.openglobes.core.gateway.ITraderGateway;
 import com.openglobes.core.utils.Utils;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
-import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class TraderEngine implements ITraderEngine {
 
+    private static final double EPSILON = 1.0E-6D;
+    private static final long FLOW_MAX_DELAY_MILLIS = 100L;
+    private static final int HANDLER_QUEUE_SIZE = 8192;
+    private static final int JOURNAL_ARCHIVE_COUNT = 5;
+    private static final int JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int NO_TRADER_ID = Integer.MIN_VALUE;
+    private static final int PERSIST_GROUP_SIZE = 256;
+    private static final long STOP_TIMEOUT_MILLIS = 5000L;
+
     private ITraderEngineAlgorithm algo;
+    private final AuditWriter audit;
+    private final CloseQueueIndex closeIndex;
+    private final HandlerDispatcher dispatcher;
     private IDataSource ds;
+    private long idleSequence;
+    private volatile EventRing<GatewayEvent> eventRing;
+    private final FlowController flow;
     private final Properties globalStartProps;
-    private final HashMap<ITraderEngineHandler, Object> handlers;
-    private final HashMap<String, Instrument> instruments;
-    private final HashMap<Long, Integer> orderTraders;
+    private final Map<String, Instrument> instruments;
+    private volatile EventJournal journal;
+    private int journalArchives;
+    private final AccountLedger ledger;
+    private final LongIntHashMap orderTraders;
+    private final OrderPersister persister;
+    private volatile ITraderRouter router;
+    private volatile TraderServiceRuntime[] routes;
+    private long savedSequence;
+    private volatile EngineShards shards;
+    private Map<Integer, long[]> snapshotIds;
+    private long snapshotInterval;
+    private ScheduledExecutorService snapshotTimer;
+    private volatile SnapshotStore snapshots;
     private EngineStatus status;
-    private final HashMap<Integer, ExtendedTraderServiceRuntime> traders;
+    private final Map<Integer, ExtendedTraderServiceRuntime> traders;
+    private final OrderWorkingSet workingSet;
 
     public TraderEngine() {
-        handlers = new HashMap<>(32);
-        traders = new HashMap<>(32);
-        orderTraders = new HashMap<>(1024);
-        instruments = new HashMap<>(512);
+        dispatcher = new HandlerDispatcher(HANDLER_QUEUE_SIZE, OverflowPolicy.DROP_OLDEST);
+        traders = new ConcurrentHashMap<>(32);
+        orderTraders = new LongIntHashMap(1024, NO_TRADER_ID);
+        router = new RoundRobinRouter();
+        routes = new TraderServiceRuntime[0];
+        instruments = new ConcurrentHashMap<>(512);
+        ledger = new AccountLedger();
+        closeIndex = new CloseQueueIndex();
         globalStartProps = new Properties();
+        workingSet = new OrderWorkingSet();
+        persister = new OrderPersister(this, this::callOnException);
+        flow = new FlowController(persister, dispatcher, this::callOnFlowControl);
+        audit = new AuditWriter(this, this::callOnException);
     }
 
     @Override
@@ -72,13 +114,14 @@ public class TraderEngine implements ITraderEngine {
             throw new EngineException(ExceptionCodes.TRADER_ENGINE_HANDLER_NULL.code(),
                                       ExceptionCodes.TRADER_ENGINE_HANDLER_NULL.message());
         }
-        handlers.put(handler, new Object());
+        dispatcher.add(handler);
     }
 
     @Override
     public void enableTrader(int traderId, boolean enabled) throws EngineException {
         var i = getTraderServiceInfo(traderId);
         i.setEnabled(enabled);
+        refreshRoutes();
     }
 
     @Override
@@ -95,6 +138,15 @@ public class TraderEngine implements ITraderEngine {
         this.algo = algo;
     }
 
+    /**
+     * Get account kept in memory, updated by every freeze and trade.
+     *
+     * @return account
+     */
+    public Account getAccount() {
+        return ledger.getAccount();
+    }
+
     @Override
     public IDataSource getDataSource() {
         return ds;
@@ -109,11 +161,30 @@ public class TraderEngine implements ITraderEngine {
         ds = dataSource;
     }
 
+    @Override
+    public FlowMetrics getFlowMetrics() {
+        return flow.getMetrics();
+    }
+
     @Override
     public Instrument getRelatedInstrument(String instrumentId) throws EngineException {
         return instruments.get(instrumentId);
     }
 
+    @Override
+    public ITraderRouter getRouter() {
+        return router;
+    }
+
+    @Override
+    public void setRouter(ITraderRouter router) throws EngineException {
+        if (router == null) {
+            throw new EngineException(ExceptionCodes.ROUTER_NULL.code(),
+                                      ExceptionCodes.ROUTER_NULL.message());
+        }
+        this.router = router;
+    }
+
     @Override
     public EngineStatus getStatus() {
         return status;
@@ -134,9 +205,28 @@ public class TraderEngine implements ITraderEngine {
         changeStatus(EngineStatus.SETTLING);
         try {
             check0();
+            /*
+             * Settle reads all rows, so wait for pending writes.
+             */
+            persister.flush();
+            if (!audit.flush(STOP_TIMEOUT_MILLIS)) {
+                callOnException(new EngineRuntimeException(ExceptionCodes.AUDIT_FLUSH_TIMEOUT.code(),
+                                                           ExceptionCodes.AUDIT_FLUSH_TIMEOUT.message()
+                                                           + "(Pending:" + audit.getPending() + ")"));
+            }
+            /*
+             * Settlement is a checkpoint, so force journal to disk.
+             */
+            var j = journal;
+            if (j != null) {
+                j.sync();
+            }
             settle(ds, algo);
             var conn = ds.getConnection();
-            conn.updateAccount(getSettledAccount());
+            var a = getSettledAccount();
+            checkLedger(a);
+            conn.updateAccount(a);
+            archiveJournal();
             changeStatus(EngineStatus.WORKING);
         }
         catch (EngineException e) {
@@ -153,7 +243,12 @@ public class TraderEngine implements ITraderEngine {
 
     @Override
     public Collection<ITraderEngineHandler> handlers() {
-        return handlers.keySet();
+        return dispatcher.handlers();
+    }
+
+    @Override
+    public Map<ITraderEngineHandler, DispatchMetrics> getDispatchMetrics() {
+        return dispatcher.getMetrics();
     }
 
     @Override
@@ -165,9 +260,22 @@ public class TraderEngine implements ITraderEngine {
                                       ExceptionCodes.DATASOURCE_NULL.message());
         }
         try {
+            initDispatcher(properties);
             var conn = ds.getConnection();
-            initAccount(conn.getAccount());
-            initContracts(conn.getContractsByStatus(ContractStatus.CLOSED), conn);
+            var s = openSnapshot(properties, conn);
+            if (s == null) {
+                initAccount(conn.getAccount());
+                initContracts(conn.getContractsByStatus(ContractStatus.CLOSED), conn);
+                initLedger(getSettledAccount());
+                initCloseIndex(conn);
+            }
+            else {
+                /*
+                 * Account and closed contracts are already initialized by the
+                 * first initialization on this trading day.
+                 */
+                restoreSnapshot(s);
+            }
             changeStatus(EngineStatus.WORKING);
         }
         catch (EngineException e) {
@@ -201,7 +309,7 @@ public class TraderEngine implements ITraderEngine {
             throw new EngineException(ExceptionCodes.TRADER_ENGINE_HANDLER_NULL.code(),
                                       ExceptionCodes.TRADER_ENGINE_HANDLER_NULL.message());
         }
-        handlers.remove(handler);
+        dispatcher.remove(handler);
     }
 
     @Override
@@ -211,20 +319,20 @@ public class TraderEngine implements ITraderEngine {
                         int requestId) throws EngineException {
         check0();
         check2(request, instrument);
-        /*
-         * Remmeber the instrument it once operated.
-         */
-        instruments.put(instrument.getInstrumentId(), instrument);
-        if (request.getOffset() == Offset.OPEN) {
-            decideTrader(request);
-            checkAssetsOpen(request, instrument);
-            forwardRequest(request, request.getTraderId(), requestId);
+        flow.admit();
+        var j = journal;
+        if (j != null) {
+            j.appendRequest(request, instrument, properties, requestId);
+        }
+        var s = shards;
+        if (s == null) {
+            dealRequest(request, instrument, requestId);
         }
         else {
-            var cs = checkAssetsClose(request, instrument);
-            for (var r : group(cs, request)) {
-                forwardRequest(r, r.getTraderId(), requestId);
-            }
+            s.call(request.getInstrumentId(), () -> {
+                dealRequest(request, instrument, requestId);
+                return null;
+            });
         }
     }
 
@@ -234,7 +342,20 @@ public class TraderEngine implements ITraderEngine {
             throw new EngineException(ExceptionCodes.DELETE_REQS_NULL.code(),
                                       ExceptionCodes.DELETE_REQS_NULL.message());
         }
-        forwardRequest(request, request.getTraderId(), requestId);
+        var j = journal;
+        if (j != null) {
+            j.appendRequest(request, null, null, requestId);
+        }
+        var s = shards;
+        if (s == null) {
+            forwardRequest(request, request.getTraderId(), requestId);
+        }
+        else {
+            s.call(request.getInstrumentId(), () -> {
+                forwardRequest(request, request.getTraderId(), requestId);
+                return null;
+            });
+        }
     }
 
     @Override
@@ -260,9 +381,16 @@ public class TraderEngine implements ITraderEngine {
             if (properties != null) {
                 globalStartProps.putAll(properties);
             }
+            startJournal(globalStartProps);
+            startShards(globalStartProps);
+            startEventRing(globalStartProps);
+            startPersister(globalStartProps);
+            startAudit(globalStartProps);
+            startFlowControl(globalStartProps);
             for (var p : traders.entrySet()) {
                 startEach(p.getKey(), p.getValue());
             }
+            startSnapshots();
             changeStatus(EngineStatus.WORKING);
         }
         catch (EngineException e) {
@@ -281,10 +409,27 @@ public class TraderEngine implements ITraderEngine {
     public void stop() throws EngineException {
         changeStatus(EngineStatus.STOPPING);
         try {
+            stopSnapshots();
             for (var p : traders.entrySet()) {
                 stopEach(p.getKey(), p.getValue());
             }
+            stopEventRing();
+            stopShards();
+            stopPersister();
+            stopAudit();
+            /*
+             * Handlers are kept for next start and still own their ID tables,
+             * so the tables are forced and stay open.
+             */
+            traders.values().forEach(i -> {
+                var t = i.getIdTranslator();
+                if (t != null) {
+                    t.force();
+                }
+            });
             changeStatus(EngineStatus.STOPPED);
+            saveSnapshot();
+            stopJournal();
         }
         catch (EngineException e) {
             changeStatus(EngineStatus.STOP_FAILED);
@@ -304,7 +449,24 @@ public class TraderEngine implements ITraderEngine {
          * Verify trader with specified ID exists, or throw exception.
          */
         getTraderServiceInfo(traderId);
-        traders.remove(traderId);
+        var i = traders.remove(traderId);
+        refreshRoutes();
+        /*
+         * Handler is dropped with the trader, so nothing writes its ID table
+         * any more.
+         */
+        var t = i.getIdTranslator();
+        if (t != null) {
+            try {
+                t.close();
+            }
+            catch (IllegalStateException e) {
+                throw new EngineException(ExceptionCodes.ID_TABLE_IO_FAILED.code(),
+                                          ExceptionCodes.ID_TABLE_IO_FAILED.message()
+                                          + "(Trader ID:" + traderId + ")",
+                                          e);
+            }
+        }
     }
 
     private void addTrader(int traderId, ITraderGateway trader) {
@@ -313,7 +475,37 @@ public class TraderEngine implements ITraderEngine {
         i.setEngine(this);
         i.setTrader(trader);
         i.setTraderId(traderId);
+        i.setLedger(ledger);
+        i.setCloseIndex(closeIndex);
+        i.setPersister(persister);
+        i.setAuditWriter(audit);
+        i.setJournal(journal);
+        i.setWorkingSet(workingSet);
+        i.setFlowController(flow);
+        i.setDispatcher(dispatcher);
+        i.setShards(shards);
+        i.setEventRing(eventRing);
         traders.put(traderId, i);
+        refreshRoutes();
+    }
+
+    /*
+     * Settled day is done, so move its journal aside. Failing to archive
+     * leaves the segments in place and doesn't fail settlement.
+     */
+    private void archiveJournal() {
+        var j = journal;
+        if (j == null) {
+            return;
+        }
+        try {
+            j.archive(journalArchives);
+        }
+        catch (EngineException e) {
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
+        }
     }
 
     /*
@@ -321,66 +513,44 @@ public class TraderEngine implements ITraderEngine {
      * tell user the handling is wrong.
      */
     private void callOnException(EngineRuntimeException e) {
-        if (handlers.isEmpty()) {
-            return;
-        }
-        handlers.keySet().parallelStream().forEach(h -> {
-            try {
-                h.onException(e);
-            }
-            catch (Throwable th) {
-                try {
-                    h.onException(new EngineRuntimeException(
-                            ExceptionCodes.USER_CODE_ERROR.code(),
-                            ExceptionCodes.USER_CODE_ERROR.message(),
-                            th));
-                }
-                catch (Throwable ignored) {
-                }
-            }
+        dispatcher.dispatch(h -> {
+            h.onException(e);
+        });
+    }
+
+    private void callOnFlowControl(boolean saturated) {
+        dispatcher.dispatch(h -> {
+            h.onFlowControl(saturated);
         });
     }
 
     private void callOnStatusChange() {
-        if (handlers.isEmpty()) {
-            return;
-        }
-        handlers.keySet().parallelStream().forEach(h -> {
-            try {
-                h.onStatusChange(status);
-            }
-            catch (Throwable th) {
-                try {
-                    callOnException(new EngineRuntimeException(
-                            ExceptionCodes.USER_CODE_ERROR.code(),
-                            ExceptionCodes.USER_CODE_ERROR.message(),
-                            th));
-                }
-                catch (Throwable ignored) {
-                }
-            }
+        final var s = status;
+        dispatcher.dispatch(h -> {
+            h.onStatusChange(s);
         });
     }
 
-    private boolean canClose(Contract c, Request request) throws EngineException {
-        if (c.getStatus() != ContractStatus.OPEN) {
-            return false;
-        }
-        var offset = request.getOffset();
-        var direction = request.getDirection();
-        if (null == offset) {
-            throw new EngineException(ExceptionCodes.OFFSET_NULL.code(),
-                                      ExceptionCodes.OFFSET_NULL.message());
-        }
-        if (null == direction) {
-            throw new EngineException(ExceptionCodes.DIRECTION_NULL.code(),
-                                      ExceptionCodes.DIRECTION_NULL.message());
-        }
-        if (direction == Direction.BUY) {
-            return c.getDirection() == Direction.SELL;
+    private void dealRequest(Request request,
+                             Instrument instrument,
+                             int requestId) throws EngineException {
+        /*
+         * Remmeber the instrument it once operated. Quoting looks up the fee
+         * calculator once, and algorithm recompiles it only if the fees
+         * change by value.
+         */
+        instruments.put(instrument.getInstrumentId(), instrument);
+        var f = algo.getFeeQuote(request.getPrice(), instrument, request.getOffset());
+        if (request.getOffset() == Offset.OPEN) {
+            decideTrader(request);
+            checkAssetsOpen(request, f);
+            forwardRequest(request, request.getTraderId(), requestId);
         }
         else {
-            return c.getDirection() == Direction.BUY;
+            var cs = checkAssetsClose(request, f);
+            for (var r : group(cs, request)) {
+                forwardRequest(r, r.getTraderId(), requestId);
+            }
         }
     }
 
@@ -416,6 +586,17 @@ public class TraderEngine implements ITraderEngine {
 
     private void changeStatus(EngineStatus status) {
         this.status = status;
+        var j = journal;
+        if (j != null) {
+            try {
+                j.appendEngineStatus(status);
+            }
+            catch (EngineException e) {
+                callOnException(new EngineRuntimeException(e.getCode(),
+                                                           e.getMessage(),
+                                                           e));
+            }
+        }
         callOnStatusChange();
     }
 
@@ -454,43 +635,110 @@ public class TraderEngine implements ITraderEngine {
         }
     }
 
-    private Collection<Contract> checkAssetsClose(Request request, Instrument instrument) throws EngineException {
+    private CloseSelection checkAssetsClose(Request request, FeeQuote f) throws EngineException {
         checkVolumn(request.getQuantity());
-        var cs = getAvailableContracts(request);
-        if (cs.size() < request.getQuantity()) {
+        var cs = closeIndex.select(request.getInstrumentId(),
+                                   getCloseDirection(request),
+                                   request.getQuantity());
+        if (cs.getQuantity() < request.getQuantity()) {
             throw new EngineException(ExceptionCodes.INSUFFICIENT_POSITION.code(),
                                       ExceptionCodes.INSUFFICIENT_POSITION.message());
         }
-        var r = new HashSet<Contract>(32);
-        var c = algo.getCommission(request.getPrice(),
-                               instrument,
-                               request.getDirection(),
-                               request.getOffset());
-        for (int i = 0; i < request.getQuantity(); ++i) {
-            var ctr = cs.get(i);
-            r.add(ctr);
-            setFrozenClose(c, ctr);
+        var r = new CloseSelection();
+        var c = f.getCommission(request.getOffset());
+        /*
+         * Margins of selected contracts may be updated by pending writes, so
+         * wait for them before reading margins not kept in index.
+         */
+        if (!closeIndex.hasMargins(cs)) {
+            persister.flush();
         }
+        final var conn = ds.getConnection();
+        final var batch = new FreezeBatch();
+        try {
+            final var tradingDay = conn.getTradingDay().getTradingDay();
+            /*
+             * Close earlier contracts first, and only split the last contract
+             * if it has more lots than needed.
+             */
+            long rest = request.getQuantity();
+            for (var ctr : cs.getYesterday()) {
+                var q = Math.min(rest, ctr.getQuantity());
+                r.addYesterday(setFrozenClose(c * q, ctr, q, request, tradingDay, batch, conn));
+                rest -= q;
+            }
+            for (var ctr : cs.getToday()) {
+                var q = Math.min(rest, ctr.getQuantity());
+                r.addToday(setFrozenClose(c * q, ctr, q, request, tradingDay, batch, conn));
+                rest -= q;
+            }
+            writeFrozen(batch, conn);
+        }
+        catch (EngineException e) {
+            /*
+             * Indexed contracts may be changed before the failure, so reload
+             * them from data source.
+             */
+            reloadCloseIndex(request.getInstrumentId(), conn);
+            throw e;
+        }
+        ledger.apply(batch.getChange());
+        workingSet.put(request.getOrderId(), new WorkingOrder(request.getOffset(), batch.getBundles()));
+        /*
+         * Keep margins of closing contracts in case they are reopened by
+         * deletion. Closing contracts are not available for other close
+         * requests.
+         */
+        for (var b : batch.getBundles()) {
+            closeIndex.putMargin(b.getMargin());
+        }
+        closeIndex.remove(r.getYesterday());
+        closeIndex.remove(r.getToday());
         return r;
     }
 
-    private void checkAssetsOpen(Request request, Instrument instrument) throws EngineException {
+    private void checkAssetsOpen(Request request, FeeQuote f) throws EngineException {
         checkVolumn(request.getQuantity());
-        var a = algo.getAmount(request.getPrice(), instrument);
-        var m = algo.getMargin(request.getPrice(), instrument);
-        var c = algo.getCommission(request.getPrice(),
-                               instrument,
-                               request.getDirection(),
-                               request.getOffset());
-        var total = request.getQuantity() * (m + c);
-        var available = getAvailableMoney();
-        if (available < total) {
+        var a = f.getAmount();
+        var m = f.getMargin();
+        var c = f.getCommission(request.getOffset());
+        var q = request.getQuantity();
+        final var conn = ds.getConnection();
+        var batch = new FreezeBatch();
+        setFrozenOpen(q * a,
+                      q * m,
+                      q * c,
+                      request,
+                      conn.getTradingDay().getTradingDay(),
+                      batch);
+        /*
+         * Check and freeze money atomically before writing data source, so
+         * requests on different shards never freeze more than available.
+         */
+        if (!ledger.reserve(batch.getChange())) {
             throw new EngineException(ExceptionCodes.INSUFFICIENT_MONEY.code(),
                                       ExceptionCodes.INSUFFICIENT_MONEY.message());
         }
-        for (int i = 0; i < request.getQuantity(); ++i) {
-            setFrozenOpen(a, m, c, request);
+        try {
+            writeFrozen(batch, conn);
         }
+        catch (EngineException e) {
+            ledger.revert(batch.getChange());
+            throw e;
+        }
+        workingSet.put(request.getOrderId(), new WorkingOrder(request.getOffset(), batch.getBundles()));
+    }
+
+    /*
+     * Ledger is maintained incrementally, so verify it with the full computation
+     * and correct it if they diverge.
+     */
+    private void checkLedger(Account a) {
+        if (!ledger.verify(a)) {
+            callOnException(new EngineRuntimeException(ExceptionCodes.LEDGER_INCONSISTENT.code(),
+                                                       ExceptionCodes.LEDGER_INCONSISTENT.message()));
+        }
+        ledger.reset(a);
     }
 
     private void checkVolumn(Long v) throws EngineException {
@@ -505,10 +753,14 @@ public class TraderEngine implements ITraderEngine {
     }
 
     private void clearInternals() {
-        orderTraders.clear();
+        synchronized (orderTraders) {
+            orderTraders.clear();
+        }
         instruments.clear();
+        workingSet.clear();
         traders.values().forEach(s -> {
             s.getIdTranslator().clear();
+            s.getStatistics().clear();
         });
     }
 
@@ -548,30 +800,17 @@ public class TraderEngine implements ITraderEngine {
     }
 
     private Integer findTraderIdByOrderId(long orderId) throws EngineException {
-        var traderId = orderTraders.get(orderId);
-        if (traderId == null) {
+        int traderId;
+        synchronized (orderTraders) {
+            traderId = orderTraders.get(orderId);
+        }
+        if (traderId == NO_TRADER_ID) {
             throw new EngineException(ExceptionCodes.ORDER_ID_NOT_FOUND.code(),
                                       ExceptionCodes.ORDER_ID_NOT_FOUND.message() + "(Order ID:" + orderId + ")");
         }
         return traderId;
     }
 
-    private ExtendedTraderServiceRuntime findTraderRandomly(Request request) throws EngineException {
-        var a = new ArrayList<>(traders.keySet());
-        traders.forEach((k, v) -> {
-            if (v.isEnabled()) {
-                a.add(k);
-            }
-        });
-        if (a.isEmpty()) {
-            throw new EngineException(ExceptionCodes.NO_TRADER.code(),
-                                      ExceptionCodes.NO_TRADER.message());
-        }
-        var traderId = a.get(new Random().nextInt(a.size()));
-        orderTraders.put(request.getOrderId(), traderId);
-        return traders.get(traderId);
-    }
-
     private ExtendedTraderServiceRuntime findTraderServiceRuntimeByTraderId(int traderId) throws EngineException {
         var rt = traders.get(traderId);
         check1(traderId, rt);
@@ -583,6 +822,8 @@ public class TraderEngine implements ITraderEngine {
                             int requestId) throws EngineException {
         var destId = tr.getIdTranslator().getDestinatedId(request.getOrderId(), request.getQuantity());
         request.setOrderId(destId);
+        tr.getIdTranslator().sent(destId);
+        tr.getStatistics().sent();
         try {
             tr.getTrader().insert(request, requestId);
         }
@@ -643,30 +884,19 @@ public class TraderEngine implements ITraderEngine {
         }
     }
 
-    private List<Contract> getAvailableContracts(Request request) throws EngineException {
-        var conn = ds.getConnection();
-        var cs = conn.getContractsByInstrumentId(request.getInstrumentId());
-        if (cs == null) {
-            throw new EngineException(ExceptionCodes.CONTRACT_NULL.code(),
-                                      ExceptionCodes.CONTRACT_NULL.message());
+
+    private Direction getCloseDirection(Request request) throws EngineException {
+        var direction = request.getDirection();
+        if (null == direction) {
+            throw new EngineException(ExceptionCodes.DIRECTION_NULL.code(),
+                                      ExceptionCodes.DIRECTION_NULL.message());
         }
-        var sorted = new LinkedList<Contract>(cs);
-        sorted.sort((Contract o1, Contract o2)
-                -> o1.getOpenTimestamp().compareTo(o2.getOpenTimestamp()));
-        // Scan from earlier to later.
-        var it = sorted.iterator();
-        while (it.hasNext()) {
-            var c = it.next();
-            if (!canClose(c, request)) {
-                it.remove();
-            }
+        if (direction == Direction.BUY) {
+            return Direction.SELL;
+        }
+        else {
+            return Direction.BUY;
         }
-        return sorted;
-    }
-
-    private double getAvailableMoney() throws EngineException {
-        var a = getSettledAccount();
-        return (a.getBalance() - a.getMargin() - a.getFrozenMargin() - a.getFrozenCommission());
     }
 
     private Collection<Contract> getContractsByOrderResponses(Collection<Trade> rsps) throws EngineException {
@@ -684,10 +914,24 @@ public class TraderEngine implements ITraderEngine {
         return cs;
     }
 
+    private Margin getOpenMargin(Contract contract, IDataConnection conn) throws EngineException {
+        var margin = closeIndex.getMargin(contract.getContractId());
+        if (margin != null) {
+            return margin;
+        }
+        margin = conn.getMarginByContractId(contract.getContractId());
+        if (margin == null) {
+            throw new EngineException(ExceptionCodes.MARGIN_NULL.code(),
+                                      ExceptionCodes.MARGIN_NULL.message()
+                                      + "(Contract ID:" + contract.getContractId() + ")");
+        }
+        return margin;
+    }
+
     private TraderServiceRuntime getProperTrader(Request request) throws EngineException {
         var traderId = request.getTraderId();
         if (traderId == null) {
-            return findTraderRandomly(request);
+            return routeTrader(request);
         }
         else {
             var rt = findTraderServiceRuntimeByTraderId(traderId);
@@ -696,23 +940,32 @@ public class TraderEngine implements ITraderEngine {
                 throw new EngineException(ExceptionCodes.TRADER_NOT_ENABLED.code(),
                                           ExceptionCodes.TRADER_NOT_ENABLED.message() + "(Trader ID:" + traderId + ")");
             }
-            orderTraders.put(request.getOrderId(), traderId);
+            putOrderTrader(request.getOrderId(), traderId);
             return rt;
         }
     }
 
-    private Collection<String> getRalatedInstrumentIds() {
-        return null;
+    private Collection<String> getRalatedInstrumentIds(Collection<Contract> contracts) throws EngineException {
+        if (contracts == null) {
+            throw new EngineException(ExceptionCodes.CONTRACT_NULL.code(),
+                                      ExceptionCodes.CONTRACT_NULL.message());
+        }
+        final var r = new HashSet<String>(64);
+        contracts.forEach(c -> {
+            r.add(c.getInstrumentId());
+        });
+        return r;
     }
 
     private Account getSettledAccount() throws EngineException {
         final var conn = ds.getConnection();
         final var tradingDay = conn.getTradingDay().getTradingDay();
-        final var ids = getRalatedInstrumentIds();
+        final var contracts = conn.getContracts();
+        final var ids = getRalatedInstrumentIds(contracts);
         return algo.getAccount(conn.getAccount(),
                                conn.getDeposits(),
                                conn.getWithdraws(),
-                               algo.getPositions(conn.getContracts(),
+                               algo.getPositions(contracts,
                                                  conn.getCommissions(),
                                                  conn.getMargins(),
                                                  findRelatedTicks(ids, conn),
@@ -720,51 +973,36 @@ public class TraderEngine implements ITraderEngine {
                                                  tradingDay));
     }
 
-    private Collection<Request> group(Collection<Contract> cs, Request request) throws EngineException {
-        final var today = new HashMap<Integer, Request>(64);
-        final var yd = new HashMap<Integer, Request>(64);
-        final var conn = ds.getConnection();
-        var tradingDay = conn.getTradingDay().getTradingDay();
-        for (var c : cs) {
-            if (c.getOpenTradingDay().isBefore(tradingDay)) {
-                var o = yd.computeIfAbsent(c.getTraderId(), k -> {
-                                   var co = Utils.copy(request);
-                                   if (co == null) {
-                                       throw new EngineRuntimeException(
-                                               ExceptionCodes.OBJECT_COPY_FAILED.code(),
-                                               ExceptionCodes.OBJECT_COPY_FAILED.message());
-                                   }
-                                   co.setOffset(Offset.CLOSE);
-                                   co.setQuantity(0L);
-                                   co.setTraderId(k);
-                                   return co;
-
-                               });
-                o.setQuantity(o.getQuantity() + 1);
-            }
-            else {
-                var o = today.computeIfAbsent(c.getTraderId(), k -> {
-                                      var co = Utils.copy(request);
-                                      if (co == null) {
-                                          throw new EngineRuntimeException(
-                                                  ExceptionCodes.OBJECT_COPY_FAILED.code(),
-                                                  ExceptionCodes.OBJECT_COPY_FAILED.message());
-                                      }
-                                      co.setOffset(Offset.CLOSE_TODAY);
-                                      co.setQuantity(0L);
-                                      co.setTraderId(k);
-                                      return co;
-
-                                  });
-                o.setQuantity(o.getQuantity() + 1);
-            }
-        }
-
-        var r = new HashSet<Request>(today.values());
-        r.addAll(yd.values());
+    private Collection<Request> group(CloseSelection cs, Request request) throws EngineException {
+        final var r = new HashSet<Request>(64);
+        r.addAll(group(cs.getYesterday(), request, Offset.CLOSE));
+        r.addAll(group(cs.getToday(), request, Offset.CLOSE_TODAY));
         return r;
     }
 
+    private Collection<Request> group(Collection<Contract> cs,
+                                      Request request,
+                                      Offset offset) throws EngineException {
+        final var r = new HashMap<Integer, Request>(64);
+        for (var c : cs) {
+            var o = r.computeIfAbsent(c.getTraderId(), k -> {
+                                  var co = Utils.copy(request);
+                                  if (co == null) {
+                                      throw new EngineRuntimeException(
+                                              ExceptionCodes.OBJECT_COPY_FAILED.code(),
+                                              ExceptionCodes.OBJECT_COPY_FAILED.message());
+                                  }
+                                  co.setOffset(offset);
+                                  co.setQuantity(0L);
+                                  co.setTraderId(k);
+                                  return co;
+
+                              });
+            o.setQuantity(o.getQuantity() + c.getQuantity());
+        }
+        return r.values();
+    }
+
     private void initAccount(Account a) throws EngineException {
         if (a == null) {
             throw new EngineException(ExceptionCodes.ACCOUNT_NULL.code(),
@@ -786,111 +1024,354 @@ public class TraderEngine implements ITraderEngine {
         conn.updateAccount(a);
     }
 
+    private void initDispatcher(Properties properties) {
+        if (properties == null) {
+            return;
+        }
+        var size = properties.getProperty(EngineProperties.HANDLER_QUEUE_SIZE);
+        var policy = properties.getProperty(EngineProperties.HANDLER_OVERFLOW_POLICY);
+        if (size == null && policy == null) {
+            return;
+        }
+        dispatcher.reset(size == null ? HANDLER_QUEUE_SIZE : Integer.parseInt(size.trim()),
+                         policy == null ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.valueOf(policy.trim()));
+    }
+
+    private void initLedger(Account a) throws EngineException {
+        ledger.reset(a);
+        ds.addListener(Deposit.class, ledger.depositListener(ds.getListener(Deposit.class)));
+        ds.addListener(Withdraw.class, ledger.withdrawListener(ds.getListener(Withdraw.class)));
+    }
+
+    private void initCloseIndex(IDataConnection conn) throws EngineException {
+        var cs = conn.getContractsByStatus(ContractStatus.OPEN);
+        if (cs == null) {
+            throw new EngineException(ExceptionCodes.CONTRACT_NULL.code(),
+                                      ExceptionCodes.CONTRACT_NULL.message());
+        }
+        closeIndex.reset(cs, conn.getTradingDay().getTradingDay());
+    }
+
     private void initContracts(Collection<Contract> cs, IDataConnection conn) throws EngineException {
         if (cs == null) {
             throw new EngineException(ExceptionCodes.CONTRACT_NULL.code(),
                                       ExceptionCodes.CONTRACT_NULL.message());
         }
+        var ids = new ArrayList<Long>(cs.size());
         for (var c : cs) {
-            conn.removeContract(c.getContractId());
+            ids.add(c.getContractId());
         }
+        conn.removeContracts(ids);
     }
 
-    private void setFrozenClose(double commission,
-                                Contract contract) throws EngineException {
-        IDataConnection conn = null;
-        try {
-            conn = ds.getConnection();
-            final var tradingDay = conn.getTradingDay().getTradingDay();
-            conn.transaction();
-            /*
-             * Update contracts status to make it frozen.
-             */
-            contract.setStatus(ContractStatus.CLOSING);
-            conn.updateContract(contract);
-            /*
-             * Add new commission for the current order, and make it frozen
-             * before order is filled.
-             */
-            var cms = new Commission();
-            cms.setCommission(commission);
-            cms.setCommissionId(Utils.nextId());
-            cms.setContractId(contract.getContractId());
-            cms.setStatus(FeeStatus.FORZEN);
-            cms.setTradingDay(tradingDay);
-            conn.addCommission(cms);
-            /*
-             * Commit change.
-             */
-            conn.commit();
+    /*
+     * Snapshot is fresh if it is of the current trading day and nothing is
+     * journaled after it. Deposits and withdraws don't go through engine, so
+     * check them against data source too.
+     */
+    private boolean isFresh(EngineSnapshot s, IDataConnection conn) throws EngineException {
+        if (!Objects.equals(s.getTradingDay(), conn.getTradingDay().getTradingDay())) {
+            return false;
         }
-        catch (EngineException e) {
-            /*
-             * Rollback data source.
-             */
-            if (conn != null) {
-                conn.rollback();
-            }
-            throw e;
+        var dir = s.getJournalDirectory();
+        if (dir != null && EventJournal.readSequence(Paths.get(dir)) != s.getSequence()) {
+            return false;
         }
+        var a = s.getAccount();
+        if (a == null) {
+            return false;
+        }
+        var deposit = 0.0D;
+        for (var d : conn.getDeposits()) {
+            deposit += d.getAmount() == null ? 0.0D : d.getAmount();
+        }
+        var withdraw = 0.0D;
+        for (var w : conn.getWithdraws()) {
+            withdraw += w.getAmount() == null ? 0.0D : w.getAmount();
+        }
+        return Math.abs(deposit - (a.getDeposit() == null ? 0.0D : a.getDeposit())) < EPSILON
+               && Math.abs(withdraw - (a.getWithdraw() == null ? 0.0D : a.getWithdraw())) < EPSILON;
+    }
+
+    private Contract setFrozenClose(double commission,
+                                    Contract contract,
+                                    long quantity,
+                                    Request request,
+                                    LocalDate tradingDay,
+                                    FreezeBatch batch,
+                                    IDataConnection conn) throws EngineException {
+        /*
+         * Update contracts status to make it frozen. If the contract has more
+         * lots than to close, split the lots to close from it.
+         */
+        FrozenBundle b;
+        if (quantity < contract.getQuantity()) {
+            b = splitOpenContract(contract, quantity, batch, conn);
+        }
+        else {
+            contract.setStatus(ContractStatus.CLOSING);
+            batch.updateContract(contract);
+            b = new FrozenBundle(null, getOpenMargin(contract, conn), contract);
+        }
+        var closing = b.getContract();
+        /*
+         * Add new commission for the current order, and make it frozen before
+         * order is filled.
+         */
+        var cms = new Commission();
+        cms.setCommission(commission);
+        cms.setCommissionId(Utils.nextId());
+        cms.setContractId(closing.getContractId());
+        cms.setOrderId(request.getOrderId());
+        cms.setStatus(FeeStatus.FORZEN);
+        cms.setTradingDay(tradingDay);
+        batch.addCommission(cms);
+        batch.getChange().freezeClose(commission);
+        b.setCommission(cms);
+        batch.addBundle(b);
+        return closing;
     }
 
     private void setFrozenOpen(double amount,
                                double margin,
                                double commission,
-                               Request request) throws EngineException {
-        IDataConnection conn = null;
+                               Request request,
+                               LocalDate tradingDay,
+                               FreezeBatch batch) {
+        /*
+         * Add preparing contract.
+         */
+        var ctr = new Contract();
+        ctr.setContractId(Utils.nextId());
+        ctr.setTraderId(request.getTraderId());
+        ctr.setInstrumentId(request.getInstrumentId());
+        ctr.setOpenAmount(amount);
+        ctr.setOpenTradingDay(tradingDay);
+        ctr.setQuantity(request.getQuantity());
+        ctr.setDirection(request.getDirection());
+        ctr.setStatus(ContractStatus.OPENING);
+        batch.addContract(ctr);
+        /*
+         * Add frozen commission.
+         */
+        var cmn = new Commission();
+        cmn.setCommission(commission);
+        cmn.setCommissionId(Utils.nextId());
+        cmn.setContractId(ctr.getContractId());
+        cmn.setOrderId(request.getOrderId());
+        cmn.setStatus(FeeStatus.FORZEN);
+        cmn.setTradingDay(tradingDay);
+        batch.addCommission(cmn);
+        /*
+         * Add frozen margin.
+         */
+        var mn = new Margin();
+        mn.setContractId(ctr.getContractId());
+        mn.setMargin(margin);
+        mn.setMarginId(Utils.nextId());
+        mn.setOrderId(request.getOrderId());
+        mn.setStatus(FeeStatus.FORZEN);
+        mn.setTradingDay(tradingDay);
+        batch.addMargin(mn);
+        batch.addBundle(new FrozenBundle(cmn, mn, ctr));
+        batch.getChange().freezeOpen(margin, commission);
+    }
+
+    private void openIdTable(Integer key,
+                             IdTranslator translator,
+                             Properties properties) throws EngineException {
+        var dir = properties.getProperty(EngineProperties.ID_TABLE_DIRECTORY);
+        if (dir == null) {
+            return;
+        }
         try {
-            conn = ds.getConnection();
-            final var tradingDay = conn.getTradingDay().getTradingDay();
-            conn.transaction();
-            /*
-             * Add preparing contract.
-             */
-            var ctr = new Contract();
-            ctr.setContractId(Utils.nextId());
-            ctr.setTraderId(request.getTraderId());
-            ctr.setInstrumentId(request.getInstrumentId());
-            ctr.setOpenAmount(amount);
-            ctr.setOpenTradingDay(tradingDay);
-            ctr.setDirection(request.getDirection());
-            ctr.setStatus(ContractStatus.OPENING);
-            conn.addContract(ctr);
-            /*
-             * Add frozen margin.
-             */
-            var cmn = new Commission();
-            cmn.setCommission(commission);
-            cmn.setCommissionId(Utils.nextId());
-            cmn.setContractId(ctr.getContractId());
-            cmn.setOrderId(request.getOrderId());
-            cmn.setStatus(FeeStatus.FORZEN);
-            cmn.setTradingDay(tradingDay);
-            conn.addCommission(cmn);
-            /*
-             * Add frozen commission.
-             */
-            var mn = new Margin();
-            mn.setContractId(ctr.getContractId());
-            mn.setMargin(margin);
-            mn.setMarginId(Utils.nextId());
-            mn.setOrderId(request.getOrderId());
-            mn.setStatus(FeeStatus.FORZEN);
-            mn.setTradingDay(tradingDay);
-            conn.addMargin(mn);
-            /*
-             * Commit change.
-             */
-            conn.commit();
+            var d = Paths.get(dir.trim());
+            Files.createDirectories(d);
+            translator.open(new MappedIdTable(d.resolve("ids-" + key + ".dat")));
+        }
+        catch (IOException e) {
+            throw new EngineException(ExceptionCodes.ID_TABLE_IO_FAILED.code(),
+                                      ExceptionCodes.ID_TABLE_IO_FAILED.message()
+                                      + "(" + dir + ")",
+                                      e);
+        }
+    }
+
+    private EngineSnapshot openSnapshot(Properties properties,
+                                        IDataConnection conn) throws EngineException {
+        snapshots = null;
+        snapshotIds = null;
+        snapshotInterval = 0L;
+        if (properties == null) {
+            return null;
+        }
+        var dir = properties.getProperty(EngineProperties.SNAPSHOT_DIRECTORY);
+        if (dir == null) {
+            return null;
+        }
+        var interval = properties.getProperty(EngineProperties.SNAPSHOT_INTERVAL_MILLIS, "0");
+        snapshotInterval = Long.parseLong(interval.trim());
+        snapshots = new SnapshotStore(Paths.get(dir.trim()));
+        try {
+            var s = snapshots.load();
+            return s != null && isFresh(s, conn) ? s : null;
         }
         catch (EngineException e) {
             /*
-             * Rollback on exception.
+             * A bad snapshot only costs the scans.
              */
-            if (conn != null) {
-                conn.rollback();
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
+            return null;
+        }
+    }
+
+    private void putOrderTrader(long orderId, int traderId) {
+        synchronized (orderTraders) {
+            orderTraders.put(orderId, traderId);
+        }
+    }
+
+    /*
+     * Cache enabled trader services so routing allocates nothing.
+     */
+    private void refreshRoutes() {
+        routes = traders.values().stream()
+                .filter(v -> Boolean.TRUE.equals(v.isEnabled()))
+                .toArray(TraderServiceRuntime[]::new);
+    }
+
+    private void reloadCloseIndex(String instrumentId, IDataConnection conn) {
+        try {
+            var cs = conn.getContractsByInstrumentId(instrumentId);
+            if (cs == null) {
+                throw new EngineException(ExceptionCodes.CONTRACT_NULL.code(),
+                                          ExceptionCodes.CONTRACT_NULL.message());
             }
-            throw e;
+            closeIndex.reset(instrumentId, cs);
+        }
+        catch (EngineException e) {
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
+        }
+    }
+
+    /*
+     * ID table restores IDs by itself, otherwise take them from snapshot.
+     */
+    private void restoreIds(Integer key, IdTranslator translator, Properties properties) {
+        var m = snapshotIds;
+        if (m == null || properties.getProperty(EngineProperties.ID_TABLE_DIRECTORY) != null) {
+            return;
+        }
+        var ids = m.get(key);
+        if (ids == null || ids.length == 0) {
+            return;
+        }
+        translator.setBase(ids[0]);
+        for (int i = 1; i + 2 < ids.length; i += 3) {
+            translator.restore(ids[i], ids[i + 1], ids[i + 2]);
+        }
+    }
+
+    private void restoreSnapshot(EngineSnapshot s) throws EngineException {
+        initLedger(s.getAccount());
+        closeIndex.reset(s.getContracts(), s.getTradingDay());
+        s.getOrders().forEach((k, v) -> {
+            workingSet.put(k, v);
+        });
+        synchronized (orderTraders) {
+            s.getOrderTraders().forEach((k, v) -> {
+                orderTraders.put(k, v);
+            });
+        }
+        for (var i : s.getInstruments()) {
+            instruments.put(i.getInstrumentId(), i);
+            if (algo != null) {
+                algo.updateInstrument(i);
+            }
+        }
+        snapshotIds = s.getIds();
+    }
+
+    private TraderServiceRuntime routeTrader(Request request) throws EngineException {
+        var rts = routes;
+        if (rts.length == 0) {
+            throw new EngineException(ExceptionCodes.NO_TRADER.code(),
+                                      ExceptionCodes.NO_TRADER.message());
+        }
+        var rt = router.route(request, rts);
+        putOrderTrader(request.getOrderId(), rt.getTraderId());
+        /*
+         * Router may depend on latency and load, so replay can't decide the
+         * same trader again. Record the decision.
+         */
+        var j = journal;
+        if (j != null) {
+            j.appendRoute(rt.getTraderId(), request.getOrderId());
+        }
+        return rt;
+    }
+
+    /*
+     * Take snapshot only if nothing is journaled for the whole interval and no
+     * write is pending, so memory and data source agree and no request or
+     * event is half processed.
+     */
+    private void saveIdleSnapshot() {
+        var j = journal;
+        var s = snapshots;
+        if (j == null || s == null || status != EngineStatus.WORKING) {
+            return;
+        }
+        var sequence = j.getSequence();
+        var last = idleSequence;
+        idleSequence = sequence;
+        if (sequence != last || sequence == savedSequence) {
+            return;
+        }
+        var m = flow.getMetrics();
+        if (m.getPersistPending() > 0 || m.getRingBacklog() > 0 || audit.getPending() > 0) {
+            return;
+        }
+        try {
+            var snapshot = takeSnapshot(j);
+            if (j.getSequence() != sequence) {
+                return;
+            }
+            s.save(snapshot);
+            savedSequence = sequence;
+        }
+        catch (EngineException e) {
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
+        }
+        catch (Throwable th) {
+            callOnException(new EngineRuntimeException(ExceptionCodes.UNEXPECTED_ERROR.code(),
+                                                       ExceptionCodes.UNEXPECTED_ERROR.message(),
+                                                       th));
+        }
+    }
+
+    /*
+     * Called after all writes are done on stop. Failure leaves next
+     * initialization to scan data source, so it doesn't fail the stop.
+     */
+    private void saveSnapshot() {
+        var s = snapshots;
+        if (s == null) {
+            return;
+        }
+        try {
+            s.save(takeSnapshot(journal));
+        }
+        catch (EngineException e) {
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
         }
     }
 
@@ -936,6 +1417,26 @@ public class TraderEngine implements ITraderEngine {
         clearInternals();
     }
 
+    /*
+     * Split closing lots from an open contract with its margin. Open commission
+     * is dealed and stays with the original contract.
+     */
+    private FrozenBundle splitOpenContract(Contract contract,
+                                           long quantity,
+                                           FreezeBatch batch,
+                                           IDataConnection conn) throws EngineException {
+        var total = contract.getQuantity();
+        var margin = getOpenMargin(contract, conn);
+        var r = ContractSplitter.split(contract, quantity);
+        var m = ContractSplitter.split(margin, r, total);
+        r.setStatus(ContractStatus.CLOSING);
+        batch.updateContract(contract);
+        batch.updateMargin(margin);
+        batch.addContract(r);
+        batch.addMargin(m);
+        return new FrozenBundle(null, m, r);
+    }
+
     private void startEach(Integer key, ExtendedTraderServiceRuntime info) throws EngineException {
         check1(key, info);
         if (!info.isEnabled()) {
@@ -954,6 +1455,15 @@ public class TraderEngine implements ITraderEngine {
             var h = new TraderServiceHandler(info);
             info.setHandler(h);
             info.setIdTranslator(h);
+            openIdTable(key, h, properties);
+            restoreIds(key, h, properties);
+        }
+        /*
+         * Replay continues destinated IDs from here.
+         */
+        var j = journal;
+        if (j != null) {
+            j.appendTraderStart(key, info.getIdTranslator().getLastId());
         }
         try {
             info.getTrader().start(properties, info.getHandler());
@@ -967,6 +1477,231 @@ public class TraderEngine implements ITraderEngine {
         }
     }
 
+    private void startAudit(Properties properties) throws EngineException {
+        var size = properties.getProperty(EngineProperties.AUDIT_QUEUE_SIZE);
+        if (size == null || audit.isStarted()) {
+            return;
+        }
+        AuditSpool spool = null;
+        AuditSpool deadLetter = null;
+        var dir = properties.getProperty(EngineProperties.AUDIT_SPOOL_DIRECTORY);
+        if (dir != null) {
+            try {
+                var d = Paths.get(dir.trim());
+                Files.createDirectories(d);
+                spool = new AuditSpool(d.resolve("audit.spool"));
+                deadLetter = new AuditSpool(d.resolve("audit.dead"));
+            }
+            catch (IOException e) {
+                throw new EngineException(ExceptionCodes.AUDIT_SPOOL_IO_FAILED.code(),
+                                          ExceptionCodes.AUDIT_SPOOL_IO_FAILED.message()
+                                          + "(" + dir + ")",
+                                          e);
+            }
+        }
+        audit.start(Integer.parseInt(size.trim()), spool, deadLetter);
+    }
+
+    private void startEventRing(Properties properties) throws EngineException {
+        stopEventRing();
+        var size = properties.getProperty(EngineProperties.EVENT_RING_SIZE);
+        if (size != null) {
+            var strategy = EventWaitStrategy.valueOf(
+                    properties.getProperty(EngineProperties.EVENT_WAIT_STRATEGY,
+                                           EventWaitStrategy.BLOCKING.name()).trim());
+            eventRing = new EventRing<>(Integer.parseInt(size.trim()),
+                                        GatewayEvent::new,
+                                        new IEventConsumer<GatewayEvent>() {
+                                            @Override
+                                            public void onEvent(GatewayEvent event,
+                                                                long sequence,
+                                                                boolean endOfBatch) {
+                                                try {
+                                                    event.getHandler().dispatch(event);
+                                                }
+                                                finally {
+                                                    event.clear();
+                                                }
+                                            }
+
+                                            @Override
+                                            public void onException(EngineRuntimeException exception) {
+                                                callOnException(exception);
+                                            }
+                                        },
+                                        strategy);
+        }
+        traders.values().forEach(i -> {
+            i.setEventRing(eventRing);
+        });
+        flow.setRing(eventRing);
+    }
+
+    private void startFlowControl(Properties properties) throws EngineException {
+        var high = Long.parseLong(properties.getProperty(EngineProperties.FLOW_HIGH_WATERMARK, "0").trim());
+        var low = properties.getProperty(EngineProperties.FLOW_LOW_WATERMARK);
+        var policy = FlowControlPolicy.valueOf(
+                properties.getProperty(EngineProperties.FLOW_CONTROL_POLICY,
+                                       FlowControlPolicy.REJECT.name()).trim());
+        var delay = properties.getProperty(EngineProperties.FLOW_MAX_DELAY_MILLIS,
+                                           Long.toString(FLOW_MAX_DELAY_MILLIS));
+        flow.configure(high,
+                       low == null ? high / 2 : Long.parseLong(low.trim()),
+                       policy,
+                       Long.parseLong(delay.trim()));
+    }
+
+    private void startJournal(Properties properties) throws EngineException {
+        var dir = properties.getProperty(EngineProperties.JOURNAL_DIRECTORY);
+        if (dir == null || journal != null) {
+            return;
+        }
+        var size = properties.getProperty(EngineProperties.JOURNAL_SEGMENT_SIZE,
+                                          Integer.toString(JOURNAL_SEGMENT_SIZE));
+        var archives = properties.getProperty(EngineProperties.JOURNAL_ARCHIVE_COUNT,
+                                              Integer.toString(JOURNAL_ARCHIVE_COUNT));
+        journalArchives = Integer.parseInt(archives.trim());
+        journal = new EventJournal(Paths.get(dir.trim()), Integer.parseInt(size.trim()));
+        traders.values().forEach(i -> {
+            i.setJournal(journal);
+        });
+    }
+
+    private void startPersister(Properties properties) throws EngineException {
+        var size = properties.getProperty(EngineProperties.PERSIST_GROUP_SIZE,
+                                          Integer.toString(PERSIST_GROUP_SIZE));
+        var window = properties.getProperty(EngineProperties.PERSIST_WINDOW_MILLIS, "0");
+        persister.start(Integer.parseInt(size.trim()), Long.parseLong(window.trim()));
+    }
+
+    private void startShards(Properties properties) throws EngineException {
+        stopShards();
+        var count = Integer.parseInt(properties.getProperty(EngineProperties.SHARD_COUNT, "0").trim());
+        if (count > 0) {
+            shards = new EngineShards(count);
+        }
+        traders.values().forEach(i -> {
+            i.setShards(shards);
+        });
+    }
+
+    private void startSnapshots() throws EngineException {
+        var s = snapshots;
+        if (s == null) {
+            return;
+        }
+        /*
+         * Restored state is in memory, and the snapshot goes stale once engine
+         * works. Without journal, nothing tells it is stale.
+         */
+        s.delete();
+        if (snapshotInterval <= 0 || journal == null) {
+            return;
+        }
+        idleSequence = -1L;
+        savedSequence = -1L;
+        snapshotTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "SnapshotTimer");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotTimer.scheduleWithFixedDelay(this::saveIdleSnapshot,
+                                             snapshotInterval,
+                                             snapshotInterval,
+                                             TimeUnit.MILLISECONDS);
+    }
+
+    private void stopAudit() {
+        /*
+         * Wait for the queued audit rows to be written.
+         */
+        if (!audit.stop(STOP_TIMEOUT_MILLIS)) {
+            callOnException(new EngineRuntimeException(ExceptionCodes.DS_FAILURE_UNFIXABLE.code(),
+                                                       ExceptionCodes.DS_FAILURE_UNFIXABLE.message()
+                                                       + "(Audit rows not written)"));
+        }
+    }
+
+    private void stopEventRing() throws EngineException {
+        var r = eventRing;
+        if (r == null) {
+            return;
+        }
+        eventRing = null;
+        traders.values().forEach(i -> {
+            i.setEventRing(null);
+        });
+        flow.setRing(null);
+        /*
+         * Consume the published events before shards stop.
+         */
+        if (!r.halt(STOP_TIMEOUT_MILLIS)) {
+            callOnException(new EngineRuntimeException(ExceptionCodes.EVENT_RING_HALTED.code(),
+                                                       ExceptionCodes.EVENT_RING_HALTED.message()
+                                                       + "(Consumer not terminated)"));
+        }
+    }
+
+    private void stopJournal() throws EngineException {
+        var j = journal;
+        if (j == null) {
+            return;
+        }
+        journal = null;
+        traders.values().forEach(i -> {
+            i.setJournal(null);
+        });
+        j.close();
+    }
+
+    private void stopPersister() {
+        /*
+         * Wait for the pending writes to finish.
+         */
+        if (!persister.stop(STOP_TIMEOUT_MILLIS)) {
+            callOnException(new EngineRuntimeException(ExceptionCodes.DS_FAILURE_UNFIXABLE.code(),
+                                                       ExceptionCodes.DS_FAILURE_UNFIXABLE.message()
+                                                       + "(Pending writes not finished)"));
+        }
+    }
+
+    private void stopShards() throws EngineException {
+        var s = shards;
+        if (s == null) {
+            return;
+        }
+        shards = null;
+        traders.values().forEach(i -> {
+            i.setShards(null);
+        });
+        /*
+         * Wait for the queued requests and events to finish.
+         */
+        if (!s.shutdown(STOP_TIMEOUT_MILLIS)) {
+            callOnException(new EngineRuntimeException(ExceptionCodes.SHARD_TASK_FAILED.code(),
+                                                       ExceptionCodes.SHARD_TASK_FAILED.message()
+                                                       + "(Shards not terminated)"));
+        }
+    }
+
+    private void stopSnapshots() throws EngineException {
+        var t = snapshotTimer;
+        if (t == null) {
+            return;
+        }
+        snapshotTimer = null;
+        t.shutdown();
+        try {
+            t.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EngineException(ExceptionCodes.UNEXPECTED_ERROR.code(),
+                                      ExceptionCodes.UNEXPECTED_ERROR.message(),
+                                      e);
+        }
+    }
+
     private void stopEach(Integer key, TraderServiceRuntime info) throws EngineException {
         check1(key, info);
         try {
@@ -980,4 +1715,55 @@ public class TraderEngine implements ITraderEngine {
         }
     }
 
+    /*
+     * Capture the in-memory state restored at next start: ledger, closable
+     * contracts, instruments, working orders, order traders, destinated IDs,
+     * and the journal sequence the state is taken at.
+     */
+    private EngineSnapshot takeSnapshot(EventJournal j) {
+        var s = new EngineSnapshot();
+        if (j != null) {
+            s.setJournalDirectory(j.getDirectory().toAbsolutePath().toString());
+            s.setSequence(j.getSequence());
+        }
+        s.setTradingDay(closeIndex.getTradingDay());
+        s.setAccount(ledger.getAccount());
+        s.setContracts(closeIndex.getContracts());
+        s.setInstruments(new ArrayList<>(instruments.values()));
+        s.setOrders(workingSet.getOrders());
+        var ots = new HashMap<Long, Integer>(1024);
+        synchronized (orderTraders) {
+            for (var k : orderTraders.keys()) {
+                ots.put(k, orderTraders.get(k));
+            }
+        }
+        s.setOrderTraders(ots);
+        var ids = new HashMap<Integer, long[]>(32);
+        traders.forEach((k, v) -> {
+            var t = v.getIdTranslator();
+            if (t != null) {
+                ids.put(k, t.dump());
+            }
+        });
+        s.setIds(ids);
+        return s;
+    }
+
+    /*
+     * Write all rows of a request in one transaction.
+     */
+    private void writeFrozen(FreezeBatch batch, IDataConnection conn) throws EngineException {
+        try {
+            conn.transaction();
+            batch.write(conn);
+            conn.commit();
+        }
+        catch (EngineException e) {
+            /*
+             * Rollback on exception.
+             */
+            conn.rollback();
+            throw e;
+        }
+    }
 }
@@ -43,6 +43,7 @@ import java.util.LinkedList;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Algorithm implemetation.
@@ -52,7 +53,10 @@ import java.util.Set;
  */
 public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
 
+    private final Map<String, InstrumentCalculator> calculators;
+
     public TraderEngineAlgorithm() {
+        calculators = new ConcurrentHashMap<>(512);
     }
 
     @Override
@@ -135,6 +139,19 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
         }
     }
 
+    @Override
+    public FeeQuote getFeeQuote(double price,
+                                Instrument instrument,
+                                Offset offset) throws AlgorithmException {
+        check0(instrument);
+        var c = calculators.get(instrument.getInstrumentId());
+        if (c == null || !c.matches(instrument)) {
+            c = InstrumentCalculator.compile(instrument);
+            calculators.put(instrument.getInstrumentId(), c);
+        }
+        return c.quote(price, offset);
+    }
+
     @Override
     public double getMargin(double price,
                             Instrument instrument) throws AlgorithmException {
@@ -219,12 +236,10 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
             check2(iid);
             var cid = c.getContractId();
             check3(cid);
-            var pk = iid + ".Price";
-            var ik = iid + ".Instrument";
             var margin = findMargin(cid, map);
             var commission = findCommission(cid, cmap);
-            var price = findPriceProperty(pk, ticks);
-            var instrument = findInstrumentProperty(ik, instruments);
+            var price = findPriceProperty(iid, ticks);
+            var instrument = findInstrumentProperty(iid, instruments);
             if (c.getOpenTradingDay().isBefore(tradingDay)) {
                 addPrePosition(p,
                                c,
@@ -247,6 +262,15 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
         return r;
     }
 
+    @Override
+    public void updateInstrument(Instrument instrument) throws AlgorithmException {
+        check0(instrument);
+        var c = calculators.get(instrument.getInstrumentId());
+        if (c == null || !c.matches(instrument)) {
+            calculators.put(instrument.getInstrumentId(), InstrumentCalculator.compile(instrument));
+        }
+    }
+
     private void addClosedContract(Position p,
                                    Contract c,
                                    Collection<Commission> commissions) throws AlgorithmException {
@@ -300,7 +324,7 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
         else {
             p.setFrozenCommission(p.getFrozenCommission() + frozenCommission);
         }
-        var frozenCloseVolumn = getProperVolumn(c.getStatus(), ContractStatus.CLOSING);
+        var frozenCloseVolumn = getProperVolumn(c, ContractStatus.CLOSING);
         var volumn = frozenCloseVolumn;
         if (p.getVolumn() == null) {
             p.setVolumn(volumn);
@@ -356,7 +380,7 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
         else {
             p.setCommission(p.getCommission() + commission);
         }
-        var volumn = getProperVolumn(c.getStatus(), ContractStatus.OPEN);
+        var volumn = getProperVolumn(c, ContractStatus.OPEN);
         if (p.getVolumn() == null) {
             p.setVolumn(volumn);
         }
@@ -396,7 +420,7 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
         else {
             p.setFrozenCommission(p.getFrozenCommission() + frozenCommission);
         }
-        var frozenOpenVolumn = getProperVolumn(c.getStatus(), ContractStatus.OPENING);
+        var frozenOpenVolumn = getProperVolumn(c, ContractStatus.OPENING);
         if (p.getFrozenOpenVolumn() == null) {
             p.setFrozenOpenVolumn(frozenOpenVolumn);
         }
@@ -422,10 +446,10 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
             p.setPreAmount(p.getPreAmount() + c.getOpenAmount());
         }
         if (p.getPreVolumn() == null) {
-            p.setPreVolumn(1L);
+            p.setPreVolumn(c.getQuantity());
         }
         else {
-            p.setPreVolumn(p.getPreVolumn() + 1L);
+            p.setPreVolumn(p.getPreVolumn() + c.getQuantity());
         }
         if (p.getPreMargin() == null) {
             p.setPreMargin(margin.getMargin());
@@ -488,7 +512,7 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
         else {
             p.setTodayAmount(p.getTodayAmount() + c.getOpenAmount());
         }
-        var volumn = getProperVolumn(c.getStatus(), ContractStatus.OPEN);
+        var volumn = getProperVolumn(c, ContractStatus.OPEN);
         if (p.getTodayVolumn() == null) {
             p.setTodayVolumn(volumn);
         }
@@ -514,10 +538,10 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
             p.setTodayOpenAmount(p.getTodayOpenAmount() + c.getOpenAmount());
         }
         if (p.getTodayOpenVolumn() == null) {
-            p.setTodayOpenVolumn(1L);
+            p.setTodayOpenVolumn(c.getQuantity());
         }
         else {
-            p.setTodayOpenVolumn(p.getTodayOpenVolumn() + 1L);
+            p.setTodayOpenVolumn(p.getTodayOpenVolumn() + c.getQuantity());
         }
         if (p.getTodayOpenMargin() == null) {
             p.setTodayOpenMargin(margin.getMargin());
@@ -786,10 +810,10 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
         }
     }
 
-    private long getProperVolumn(ContractStatus status,
+    private long getProperVolumn(Contract c,
                                  ContractStatus wantedStatus) throws AlgorithmException {
-        if (status == wantedStatus) {
-            return 1L;
+        if (c.getStatus() == wantedStatus) {
+            return getQuantity(c);
         }
         else {
             throw new AlgorithmException(ExceptionCodes.INVALID_CONTRACT_STATUS.code(),
@@ -797,6 +821,16 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
         }
     }
 
+    private long getQuantity(Contract c) throws AlgorithmException {
+        var q = c.getQuantity();
+        if (q == null) {
+            throw new AlgorithmException(ExceptionCodes.VOLUMN_NULL.code(),
+                                         ExceptionCodes.VOLUMN_NULL.message()
+                                         + "(Contract ID:" + c.getContractId() + ")");
+        }
+        return q;
+    }
+
     private double getProperWithdraw(Collection<Withdraw> withdraws) throws AlgorithmException {
         if (withdraws == null) {
             throw new AlgorithmException(ExceptionCodes.WITHDRAW_NULL.code(),
@@ -865,7 +899,7 @@ public class TraderEngineAlgorithm implements ITraderEngineAlgorithm {
                                                    ExceptionCodes.INCONSISTENT_CONTRACT_ORDER_INFO.message());
             }
             amount += c.getOpenAmount();
-            ++tradedVolumn;
+            tradedVolumn += getQuantity(c);
         }
         order.setAmount(amount);
         order.setTradedVolumn(tradedVolumn);
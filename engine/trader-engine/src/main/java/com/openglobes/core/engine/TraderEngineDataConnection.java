@@ -35,10 +35,13 @@ import com.openglobes.core.dba.ICondition;
 import com.openglobes.core.dba.IDefaultFactory;
 import com.openglobes.core.dba.IQuery;
 import com.openglobes.core.dba.Queries;
+import com.openglobes.core.exceptions.EngineException;
 import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedList;
 
 /**
  * Trader engine's data connection.
@@ -48,12 +51,33 @@ import java.util.Collection;
  */
 public class TraderEngineDataConnection implements IDataConnection {
 
+    private static final int BATCH_SIZE = 512;
+    private static final int IN_LIST_SIZE = 500;
+
+    private final LinkedList<Runnable> changes;
     private final Connection conn;
     private Boolean exAutoCommit;
     private final IQuery query;
     private final IDataSource src;
+    private boolean transaction;
 
     public TraderEngineDataConnection(Connection connection, IDataSource source) throws DataSourceException {
+        this(connection, source, BATCH_SIZE);
+    }
+
+    /**
+     * Create data connection whose bulk operations execute JDBC batches of
+     * the specified size.
+     *
+     * @param connection database connection
+     * @param source     data source
+     * @param batchSize  maximum statements in one JDBC batch
+     *
+     * @throws DataSourceException if connection or source is {@code null}
+     */
+    public TraderEngineDataConnection(Connection connection,
+                                      IDataSource source,
+                                      int batchSize) throws DataSourceException {
         if (connection == null) {
             throw new DataSourceException(ExceptionCodes.DATA_CONNECTION_NULL.code(),
                                           ExceptionCodes.DATA_CONNECTION_NULL.message());
@@ -64,7 +88,8 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
         src = source;
         conn = connection;
-        query = Queries.createQuery(conn);
+        query = Queries.createQuery(conn, batchSize);
+        changes = new LinkedList<>();
     }
 
     @Override
@@ -77,11 +102,21 @@ public class TraderEngineDataConnection implements IDataConnection {
         callInsert(Commission.class, commission);
     }
 
+    @Override
+    public void addCommissions(Collection<Commission> commissions) throws DataSourceException {
+        callInsertAll(Commission.class, commissions);
+    }
+
     @Override
     public void addContract(Contract contract) throws DataSourceException {
         callInsert(Contract.class, contract);
     }
 
+    @Override
+    public void addContracts(Collection<Contract> contracts) throws DataSourceException {
+        callInsertAll(Contract.class, contracts);
+    }
+
     @Override
     public void addDeposit(Deposit deposit) throws DataSourceException {
         callInsert(Deposit.class, deposit);
@@ -92,11 +127,21 @@ public class TraderEngineDataConnection implements IDataConnection {
         callInsert(Instrument.class, instrument);
     }
 
+    @Override
+    public void addInstruments(Collection<Instrument> instruments) throws DataSourceException {
+        callInsertAll(Instrument.class, instruments);
+    }
+
     @Override
     public void addMargin(Margin margin) throws DataSourceException {
         callInsert(Margin.class, margin);
     }
 
+    @Override
+    public void addMargins(Collection<Margin> margins) throws DataSourceException {
+        callInsertAll(Margin.class, margins);
+    }
+
     @Override
     public void addRequest(Request request) throws DataSourceException {
         callInsert(Request.class, request);
@@ -127,12 +172,26 @@ public class TraderEngineDataConnection implements IDataConnection {
         callInsert(Withdraw.class, withdraw);
     }
 
+    @Override
+    public void close() throws DataSourceException {
+        query.close();
+        try {
+            conn.close();
+        }
+        catch (SQLException ex) {
+            throw new DataSourceException(ExceptionCodes.DATA_CONNECTION_CLOSE_FAILED.code(),
+                                          ExceptionCodes.DATA_CONNECTION_CLOSE_FAILED.message(),
+                                          ex);
+        }
+    }
+
     @Override
     public void commit() throws DataSourceException {
         try {
             conn.commit();
         }
         catch (SQLException ex) {
+            changes.clear();
             throw new DataSourceException(ExceptionCodes.TRANSACTION_COMMIT_FAILED.code(),
                                           ExceptionCodes.TRANSACTION_COMMIT_FAILED.message(),
                                           ex);
@@ -140,6 +199,40 @@ public class TraderEngineDataConnection implements IDataConnection {
         finally {
             restoreTransaction();
         }
+        callChanges();
+    }
+
+    /**
+     * Create or verify tables of all engine data. Data source calls it once
+     * at startup, so later connections to the same database don't read
+     * database metadata on their first operations.
+     *
+     * @throws DataSourceException if a table has wrong columns or database
+     *                             fails
+     */
+    public void ensureTables() throws DataSourceException {
+        Class<?>[] classes = {Account.class,
+                              Commission.class,
+                              Contract.class,
+                              Deposit.class,
+                              Instrument.class,
+                              Margin.class,
+                              Request.class,
+                              Response.class,
+                              Tick.class,
+                              Trade.class,
+                              TradingDay.class,
+                              Withdraw.class};
+        for (var c : classes) {
+            try {
+                query.ensureTable(c);
+            }
+            catch (DbaException ex) {
+                throw new DataSourceException(ExceptionCodes.DBA_SCHEMA_FAIL.code(),
+                                              ExceptionCodes.DBA_SCHEMA_FAIL.message() + " " + c.getCanonicalName(),
+                                              ex);
+            }
+        }
     }
 
     @Override
@@ -199,6 +292,15 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    @Override
+    public void getCommissions(IDataVisitor<Commission> visitor, int fetchSize) throws EngineException {
+        callVisit(Commission.class,
+                  "commissionId",
+                  Commission::new,
+                  visitor,
+                  fetchSize);
+    }
+
     @Override
     public Collection<Commission> getCommissionsByOrderId(long orderId) throws DataSourceException {
         try {
@@ -275,6 +377,30 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    @Override
+    public void getContracts(IDataVisitor<Contract> visitor, int fetchSize) throws EngineException {
+        callVisit(Contract.class,
+                  "contractId",
+                  Contract::new,
+                  visitor,
+                  fetchSize);
+    }
+
+    @Override
+    public Collection<Contract> getContractsByIds(Collection<Long> contractIds) throws DataSourceException {
+        try {
+            return callGetIn(Contract.class,
+                             Contract.class.getDeclaredField("contractId"),
+                             contractIds,
+                             Contract::new);
+        }
+        catch (NoSuchFieldException | SecurityException ex) {
+            throw new DataSourceException(ExceptionCodes.REFLECTION_FAIL.code(),
+                                          ExceptionCodes.REFLECTION_FAIL.message(),
+                                          ex);
+        }
+    }
+
     @Override
     public Collection<Contract> getContractsByInstrumentId(String instrumentId) throws DataSourceException {
         try {
@@ -394,6 +520,25 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    @Override
+    public Margin getMarginByContractId(Long contractId) throws DataSourceException {
+        try {
+            return callGetSingle(Margin.class,
+                                 Queries.equals(Margin.class.getDeclaredField("contractId"), contractId),
+                                 Margin::new);
+        }
+        catch (NoSuchFieldException | SecurityException ex) {
+            throw new DataSourceException(ExceptionCodes.REFLECTION_FAIL.code(),
+                                          ExceptionCodes.REFLECTION_FAIL.message(),
+                                          ex);
+        }
+        catch (DbaException ex) {
+            throw new DataSourceException(ExceptionCodes.OBTAIN_CONDITION_FAIL.code(),
+                                          ExceptionCodes.OBTAIN_CONDITION_FAIL.message(),
+                                          ex);
+        }
+    }
+
     @Override
     public Margin getMarginById(Long marginId) throws DataSourceException {
         try {
@@ -432,6 +577,30 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    @Override
+    public void getMargins(IDataVisitor<Margin> visitor, int fetchSize) throws EngineException {
+        callVisit(Margin.class,
+                  "marginId",
+                  Margin::new,
+                  visitor,
+                  fetchSize);
+    }
+
+    @Override
+    public Collection<Margin> getMarginsByContractIds(Collection<Long> contractIds) throws DataSourceException {
+        try {
+            return callGetIn(Margin.class,
+                             Margin.class.getDeclaredField("contractId"),
+                             contractIds,
+                             Margin::new);
+        }
+        catch (NoSuchFieldException | SecurityException ex) {
+            throw new DataSourceException(ExceptionCodes.REFLECTION_FAIL.code(),
+                                          ExceptionCodes.REFLECTION_FAIL.message(),
+                                          ex);
+        }
+    }
+
     @Override
     public Collection<Margin> getMarginsByOrderId(long orderId) throws DataSourceException {
         try {
@@ -565,6 +734,15 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    @Override
+    public void getResponses(IDataVisitor<Response> visitor, int fetchSize) throws EngineException {
+        callVisit(Response.class,
+                  "responseId",
+                  Response::new,
+                  visitor,
+                  fetchSize);
+    }
+
     @Override
     public Tick getTickByInstrumentId(String instrumentId) throws DataSourceException {
         try {
@@ -701,6 +879,14 @@ public class TraderEngineDataConnection implements IDataConnection {
                    Commission::new);
     }
 
+    @Override
+    public void removeCommissions(Collection<Long> commissionIds) throws DataSourceException {
+        callRemoveAll(Commission.class,
+                      "commissionId",
+                      commissionIds,
+                      Commission::new);
+    }
+
     @Override
     public void removeContract(long contractId) throws DataSourceException {
         callRemove(Contract.class,
@@ -709,6 +895,14 @@ public class TraderEngineDataConnection implements IDataConnection {
                    Contract::new);
     }
 
+    @Override
+    public void removeContracts(Collection<Long> contractIds) throws DataSourceException {
+        callRemoveAll(Contract.class,
+                      "contractId",
+                      contractIds,
+                      Contract::new);
+    }
+
     @Override
     public void removeInstrument(String instrumentId) throws DataSourceException {
         callRemove(Instrument.class,
@@ -725,6 +919,14 @@ public class TraderEngineDataConnection implements IDataConnection {
                    Margin::new);
     }
 
+    @Override
+    public void removeMargins(Collection<Long> marginIds) throws DataSourceException {
+        callRemoveAll(Margin.class,
+                      "marginId",
+                      marginIds,
+                      Margin::new);
+    }
+
     @Override
     public void removeTick(String instrumentId) throws DataSourceException {
         callRemove(Tick.class,
@@ -744,6 +946,7 @@ public class TraderEngineDataConnection implements IDataConnection {
                                           ex);
         }
         finally {
+            changes.clear();
             restoreTransaction();
         }
     }
@@ -753,6 +956,7 @@ public class TraderEngineDataConnection implements IDataConnection {
         try {
             exAutoCommit = conn.getAutoCommit();
             conn.setAutoCommit(false);
+            transaction = true;
         }
         catch (SQLException ex) {
             restoreTransaction();
@@ -790,6 +994,11 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    @Override
+    public void updateCommissions(Collection<Commission> commissions) throws DataSourceException {
+        callUpdateAll(Commission.class, commissions, "commissionId");
+    }
+
     @Override
     public void updateContract(Contract contract) throws DataSourceException {
         try {
@@ -804,6 +1013,11 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    @Override
+    public void updateContracts(Collection<Contract> contracts) throws DataSourceException {
+        callUpdateAll(Contract.class, contracts, "contractId");
+    }
+
     @Override
     public void updateInstrument(Instrument instrument) throws DataSourceException {
         try {
@@ -832,6 +1046,11 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    @Override
+    public void updateMargins(Collection<Margin> margins) throws DataSourceException {
+        callUpdateAll(Margin.class, margins, "marginId");
+    }
+
     @Override
     public void updateTick(Tick tick) throws DataSourceException {
         try {
@@ -859,6 +1078,77 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    /*
+     * Visitor's exception is carried out of query in DbaException and thrown
+     * as it is.
+     */
+    private <T> void callVisit(Class<T> clazz,
+                               String fieldName,
+                               IDefaultFactory<T> factory,
+                               IDataVisitor<T> visitor,
+                               int fetchSize) throws EngineException {
+        try {
+            query.select(clazz,
+                         Queries.isNotNull(clazz.getDeclaredField(fieldName)),
+                         factory,
+                         o -> {
+                             try {
+                                 visitor.visit(o);
+                             }
+                             catch (EngineException ex) {
+                                 throw new DbaException("Visitor failed.", ex);
+                             }
+                         },
+                         fetchSize);
+        }
+        catch (DbaException ex) {
+            if (ex.getCause() instanceof EngineException) {
+                throw (EngineException) ex.getCause();
+            }
+            throw new DataSourceException(ExceptionCodes.DBA_SELECT_FAIL.code(),
+                                          ExceptionCodes.DBA_SELECT_FAIL.message() + " " + clazz.getCanonicalName(),
+                                          ex);
+        }
+        catch (NoSuchFieldException | SecurityException ex) {
+            throw new DataSourceException(ExceptionCodes.REFLECTION_FAIL.code(),
+                                          ExceptionCodes.REFLECTION_FAIL.message(),
+                                          ex);
+        }
+    }
+
+    /*
+     * Select rows whose field is in the values, in chunks of IN-list so a long
+     * list doesn't exceed the statement limits of database.
+     */
+    private <T, V> Collection<T> callGetIn(Class<T> clazz,
+                                           Field field,
+                                           Collection<V> values,
+                                           IDefaultFactory<T> factory) throws DataSourceException {
+        var r = new LinkedList<T>();
+        if (values == null || values.isEmpty()) {
+            return r;
+        }
+        var chunk = new ArrayList<V>(Math.min(values.size(), IN_LIST_SIZE));
+        try {
+            for (var v : values) {
+                chunk.add(v);
+                if (chunk.size() == IN_LIST_SIZE) {
+                    r.addAll(callGetMany(clazz, Queries.in(field, chunk), factory));
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                r.addAll(callGetMany(clazz, Queries.in(field, chunk), factory));
+            }
+            return r;
+        }
+        catch (DbaException ex) {
+            throw new DataSourceException(ExceptionCodes.OBTAIN_CONDITION_FAIL.code(),
+                                          ExceptionCodes.OBTAIN_CONDITION_FAIL.message(),
+                                          ex);
+        }
+    }
+
     private <T> T callGetSingle(Class<T> clazz,
                                 ICondition<?> condition,
                                 IDefaultFactory<T> factory) throws DataSourceException {
@@ -900,9 +1190,55 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    private <T> void callInsertAll(Class<T> clazz, Collection<T> objects) throws DataSourceException {
+        try {
+            query.insertAll(clazz, objects);
+            var listener = src.getListener(clazz);
+            if (listener != null) {
+                for (var o : objects) {
+                    callOnChange(o,
+                                 DataChange.CREATE,
+                                 listener);
+                }
+            }
+        }
+        catch (DbaException ex) {
+            throw new DataSourceException(ExceptionCodes.DBA_INSERT_FAIL.code(),
+                                          ExceptionCodes.DBA_INSERT_FAIL.message() + " " + clazz.getCanonicalName(),
+                                          ex);
+        }
+    }
+
+    private void callChanges() throws DataSourceException {
+        Throwable error = null;
+        while (!changes.isEmpty()) {
+            try {
+                changes.poll().run();
+            }
+            catch (Throwable th) {
+                if (error == null) {
+                    error = th;
+                }
+            }
+        }
+        if (error != null) {
+            throw new DataSourceException(ExceptionCodes.USER_CODE_ERROR.code(),
+                                          ExceptionCodes.USER_CODE_ERROR.message(),
+                                          error);
+        }
+    }
+
     private <T> void callOnChange(T object,
                                   DataChange change,
                                   IDataListener<T> listener) throws DataSourceException {
+        /*
+         * Listeners in a transaction are called after commit, so they never
+         * see the changes that are rolled back.
+         */
+        if (transaction) {
+            changes.add(() -> listener.onChange(object, change, this));
+            return;
+        }
         try {
             listener.onChange(object, change, this);
         }
@@ -919,15 +1255,17 @@ public class TraderEngineDataConnection implements IDataConnection {
                                    IDefaultFactory<T> factory) throws DataSourceException {
         try {
             var listener = src.getListener(clazz);
+            var condition = Queries.equals(clazz.getDeclaredField(fieldName), id);
+            T removed = null;
             if (listener != null) {
-                callOnChange(callGetSingle(clazz,
-                                           Queries.equals(clazz.getDeclaredField(fieldName), id),
-                                           factory),
+                removed = callGetSingle(clazz, condition, factory);
+            }
+            query.remove(clazz, condition);
+            if (listener != null) {
+                callOnChange(removed,
                              DataChange.DELETE,
                              listener);
             }
-            query.remove(Commission.class,
-                         Queries.equals(Commission.class.getField(fieldName), id));
         }
         catch (DbaException ex) {
             throw new DataSourceException(ExceptionCodes.OBTAIN_CONDITION_FAIL.code(),
@@ -941,6 +1279,38 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    private <T> void callRemoveAll(Class<T> clazz,
+                                   String fieldName,
+                                   Collection<Long> ids,
+                                   IDefaultFactory<T> factory) throws DataSourceException {
+        try {
+            var field = clazz.getDeclaredField(fieldName);
+            var listener = src.getListener(clazz);
+            Collection<T> removed = null;
+            if (listener != null) {
+                removed = callGetIn(clazz, field, ids, factory);
+            }
+            query.removeAll(clazz, field, ids);
+            if (listener != null) {
+                for (var o : removed) {
+                    callOnChange(o,
+                                 DataChange.DELETE,
+                                 listener);
+                }
+            }
+        }
+        catch (DbaException ex) {
+            throw new DataSourceException(ExceptionCodes.DBA_DELETE_FAIL.code(),
+                                          ExceptionCodes.DBA_DELETE_FAIL.message() + " " + clazz.getCanonicalName(),
+                                          ex);
+        }
+        catch (NoSuchFieldException | SecurityException ex) {
+            throw new DataSourceException(ExceptionCodes.REFLECTION_FAIL.code(),
+                                          ExceptionCodes.REFLECTION_FAIL.message(),
+                                          ex);
+        }
+    }
+
     private <T> void callUpdate(Class<T> clazz, T object, Field field) throws DataSourceException {
         try {
             query.update(clazz,
@@ -965,8 +1335,35 @@ public class TraderEngineDataConnection implements IDataConnection {
         }
     }
 
+    private <T> void callUpdateAll(Class<T> clazz,
+                                   Collection<T> objects,
+                                   String fieldName) throws DataSourceException {
+        try {
+            query.updateAll(clazz, objects, clazz.getDeclaredField(fieldName));
+            var listener = src.getListener(clazz);
+            if (listener != null) {
+                for (var o : objects) {
+                    callOnChange(o,
+                                 DataChange.UPDATE,
+                                 listener);
+                }
+            }
+        }
+        catch (DbaException ex) {
+            throw new DataSourceException(ExceptionCodes.DBA_UPDATE_FAIL.code(),
+                                          ExceptionCodes.DBA_UPDATE_FAIL.message() + " " + clazz.getCanonicalName(),
+                                          ex);
+        }
+        catch (NoSuchFieldException | SecurityException ex) {
+            throw new DataSourceException(ExceptionCodes.REFLECTION_FAIL.code(),
+                                          ExceptionCodes.REFLECTION_FAIL.message(),
+                                          ex);
+        }
+    }
+
     private void restoreTransaction() throws DataSourceException {
         try {
+            transaction = false;
             if (exAutoCommit != null) {
                 conn.setAutoCommit(exAutoCommit);
             }
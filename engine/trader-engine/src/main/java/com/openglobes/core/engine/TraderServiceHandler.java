@@ -20,6 +20,7 @@ import com.openglobes.core.ActionType;
 import com.openglobes.core.Commission;
 import com.openglobes.core.Contract;
 import com.openglobes.core.ContractStatus;
+import com.openglobes.core.Direction;
 import com.openglobes.core.FeeStatus;
 import com.openglobes.core.Instrument;
 import com.openglobes.core.Margin;
@@ -35,6 +36,8 @@ import com.openglobes.core.gateway.ITraderGatewayHandler;
 import com.openglobes.core.utils.Utils;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Objects;
 
 /**
@@ -45,29 +48,21 @@ import java.util.Objects;
  */
 public class TraderServiceHandler extends IdTranslator implements ITraderGatewayHandler {
 
-    private final TraderServiceRuntime info;
+    private final ExtendedTraderServiceRuntime info;
 
-    public TraderServiceHandler(TraderServiceRuntime info) {
+    public TraderServiceHandler(ExtendedTraderServiceRuntime info) {
         this.info = info;
     }
 
     @Override
     public void onException(GatewayRuntimeException exception) {
-        var handlers = info.getEngine().handlers();
-        if (handlers.isEmpty()) {
-            return;
-        }
-        handlers.parallelStream().forEach(h -> {
-            try {
-                h.onException(new EngineRuntimeException(exception.getCode(),
-                                                         exception.getMessage(),
-                                                         exception));
-            }
-            catch (Throwable th) {
-                callOnException(new EngineRuntimeException(ExceptionCodes.USER_CODE_ERROR.code(),
-                                                           ExceptionCodes.USER_CODE_ERROR.message(),
-                                                           th));
-            }
+        journal(j -> j.appendException(info.getTraderId(),
+                                       exception.getCode(),
+                                       exception.getMessage()));
+        info.getDispatcher().dispatch(h -> {
+            h.onException(new EngineRuntimeException(exception.getCode(),
+                                                     exception.getMessage(),
+                                                     exception));
         });
     }
 
@@ -75,6 +70,11 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
     public void onException(Request request,
                             GatewayRuntimeException exception,
                             int requestId) {
+        journal(j -> j.appendRequestException(info.getTraderId(),
+                                              request,
+                                              exception.getCode(),
+                                              exception.getMessage(),
+                                              requestId));
         if (request.getAction() == ActionType.DELETE) {
             callOnDeleteException(request,
                                   exception,
@@ -90,80 +90,104 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         }
     }
 
+    @Override
+    public long getCredit() {
+        return info.getFlowController().getCredit();
+    }
+
     @Override
     public void onResponse(Response response) {
-        try {
-            info.getEngine().getDataSource().getConnection().addResponse(response);
-            preprocess(response);
-            if (response.getAction() == ActionType.DELETE) {
-                dealDelete(response);
+        journal(j -> j.appendResponse(info.getTraderId(), response));
+        info.getFlowController().update();
+        var ring = info.getEventRing();
+        if (ring != null) {
+            try {
+                var sequence = ring.next();
+                ring.get(sequence).setResponse(this, response);
+                ring.publish(sequence);
+                return;
+            }
+            catch (EngineException ignored) {
+                /*
+                 * Ring is halted, process it on the calling thread.
+                 */
             }
-            callOnResponse(response);
-        }
-        catch (DataSourceException ex) {
-            callOnException(new EngineRuntimeException(ExceptionCodes.DS_FAILURE_UNFIXABLE.code(),
-                                                       "Fail saving response to data source.",
-                                                       ex));
-        }
-        catch (EngineException ex) {
-            callOnException(new EngineRuntimeException(ExceptionCodes.PREPROCESS_RESPONSE_FAIL.code(),
-                                                       ExceptionCodes.PREPROCESS_RESPONSE_FAIL.message(),
-                                                       ex));
         }
+        dispatch(response);
     }
 
     @Override
     public void onStatusChange(int status) {
-        var handlers = info.getEngine().handlers();
-        if (handlers.isEmpty()) {
-            return;
-        }
-        handlers.parallelStream().forEach(h -> {
-            try {
-                h.onTraderServiceStatusChange(status);
-            }
-            catch (Throwable th) {
-                callOnException(new EngineRuntimeException(ExceptionCodes.USER_CODE_ERROR.code(),
-                                                           ExceptionCodes.USER_CODE_ERROR.message(),
-                                                           th));
-            }
+        journal(j -> j.appendTraderStatus(info.getTraderId(), status));
+        info.getDispatcher().dispatch(h -> {
+            h.onTraderServiceStatusChange(status);
         });
     }
 
     @Override
     public void onTrade(Trade trade) {
-        try {
-            preprocess(trade);
-            dealTrade(trade);
-            callOnTrade(trade);
+        journal(j -> j.appendTrade(info.getTraderId(), trade));
+        info.getFlowController().update();
+        var ring = info.getEventRing();
+        if (ring != null) {
+            try {
+                var sequence = ring.next();
+                ring.get(sequence).setTrade(this, trade);
+                ring.publish(sequence);
+                return;
+            }
+            catch (EngineException ignored) {
+                /*
+                 * Ring is halted, process it on the calling thread.
+                 */
+            }
         }
-        catch (EngineException ex) {
-            callOnException(new EngineRuntimeException(ExceptionCodes.PREPROCESS_TRADE_FAIL.code(),
-                                                       ExceptionCodes.PREPROCESS_TRADE_FAIL.message(),
-                                                       ex));
+        dispatch(trade);
+    }
+
+    /**
+     * Process event taken from event ring.
+     *
+     * @param event gateway event
+     */
+    public void dispatch(GatewayEvent event) {
+        if (event.getTrade() != null) {
+            dispatch(event.getTrade());
+        }
+        else if (event.getResponse() != null) {
+            dispatch(event.getResponse());
+        }
+    }
+
+    private void addAudit(Response response, WriteBatch batch) {
+        var w = info.getAuditWriter();
+        if (w.isStarted()) {
+            w.addResponse(response);
+        }
+        else {
+            batch.add(c -> c.addResponse(response));
+        }
+    }
+
+    private void addAudit(Trade trade, WriteBatch batch) {
+        var w = info.getAuditWriter();
+        if (w.isStarted()) {
+            w.addTrade(trade);
+        }
+        else {
+            batch.add(c -> c.addTrade(trade));
         }
     }
 
     private void callOnDeleteException(Request request,
                                        GatewayRuntimeException exception,
                                        int requestId) {
-        var handlers = info.getEngine().handlers();
-        if (handlers.isEmpty()) {
-            return;
-        }
-        handlers.parallelStream().forEach(h -> {
-            try {
-                h.onException(request,
-                              new EngineRuntimeException(exception.getCode(),
-                                                         exception.getMessage(),
-                                                         exception),
-                              requestId);
-            }
-            catch (Throwable th) {
-                callOnException(new EngineRuntimeException(ExceptionCodes.USER_CODE_ERROR.code(),
-                                                           ExceptionCodes.USER_CODE_ERROR.message(),
-                                                           th));
-            }
+        info.getDispatcher().dispatch(h -> {
+            h.onException(request,
+                          new EngineRuntimeException(exception.getCode(),
+                                                     exception.getMessage(),
+                                                     exception),
+                          requestId);
         });
     }
 
@@ -180,57 +204,24 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
     private void callOnRequestException(Request request,
                                         GatewayRuntimeException exception,
                                         int requestId) {
-        var handlers = info.getEngine().handlers();
-        if (handlers.isEmpty()) {
-            return;
-        }
-        handlers.parallelStream().forEach(h -> {
-            try {
-                h.onException(request,
-                              new EngineRuntimeException(exception.getCode(),
-                                                         exception.getMessage(),
-                                                         exception),
-                              requestId);
-            }
-            catch (Throwable th) {
-                callOnException(new EngineRuntimeException(ExceptionCodes.USER_CODE_ERROR.code(),
-                                                           ExceptionCodes.USER_CODE_ERROR.message(),
-                                                           th));
-            }
+        info.getDispatcher().dispatch(h -> {
+            h.onException(request,
+                          new EngineRuntimeException(exception.getCode(),
+                                                     exception.getMessage(),
+                                                     exception),
+                          requestId);
         });
     }
 
     private void callOnResponse(Response response) {
-        var handlers = info.getEngine().handlers();
-        if (handlers.isEmpty()) {
-            return;
-        }
-        handlers.parallelStream().forEach(h -> {
-            try {
-                h.onResponse(response);
-            }
-            catch (Throwable th) {
-                callOnException(new EngineRuntimeException(ExceptionCodes.USER_CODE_ERROR.code(),
-                                                           ExceptionCodes.USER_CODE_ERROR.message(),
-                                                           th));
-            }
+        info.getDispatcher().dispatch(h -> {
+            h.onResponse(response);
         });
     }
 
     private void callOnTrade(Trade trade) {
-        var handlers = info.getEngine().handlers();
-        if (handlers.isEmpty()) {
-            return;
-        }
-        handlers.parallelStream().forEach(h -> {
-            try {
-                h.onTrade(trade);
-            }
-            catch (Throwable th) {
-                callOnException(new EngineRuntimeException(ExceptionCodes.USER_CODE_ERROR.code(),
-                                                           ExceptionCodes.USER_CODE_ERROR.message(),
-                                                           th));
-            }
+        info.getDispatcher().dispatch(h -> {
+            h.onTrade(trade);
         });
     }
 
@@ -278,35 +269,46 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         }
     }
 
-    private void closeDelete(Response response, IDataConnection conn) throws DataSourceException {
-        var bs = getFrozenBundles(response.getOrderId(), conn);
-        for (var b : bs) {
+    private void closeDelete(WorkingOrder order,
+                             WriteBatch batch,
+                             LedgerChange change,
+                             Collection<Contract> opened) {
+        for (var b : order.getBundles()) {
             var s = b.getContract().getStatus();
             if (s != ContractStatus.CLOSING) {
                 continue;
             }
             deleteClose(b.getCommission(),
                         b.getContract(),
-                        conn);
+                        batch,
+                        change);
+            opened.add(b.getContract());
         }
     }
 
-    private void closeTrade(Trade trade, IDataConnection conn) throws EngineException {
-        var bs = getFrozenBundles(trade.getOrderId(), conn);
-        int count = 0;
-        var it = bs.iterator();
+    private void closeTrade(Trade trade,
+                            WorkingOrder order,
+                            WriteBatch batch,
+                            LedgerChange change) throws EngineException {
+        long count = 0;
+        var it = order.getBundles().iterator();
         while (count < trade.getQuantity() && it.hasNext()) {
             var b = it.next();
             var s = b.getContract().getStatus();
             if (s != ContractStatus.CLOSING) {
                 continue;
             }
+            var q = Math.min(trade.getQuantity() - count, b.getContract().getQuantity());
+            if (q < b.getContract().getQuantity()) {
+                b = splitBundle(b, q, batch);
+            }
             dealClose(b.getCommission(),
                       b.getMargin(),
                       b.getContract(),
                       trade,
-                      conn);
-            ++count;
+                      batch,
+                      change);
+            count += q;
         }
         if (count < trade.getQuantity()) {
             throw new EngineRuntimeException(ExceptionCodes.INCONSISTENT_FROZEN_INFO.code(),
@@ -318,7 +320,8 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
                            Margin margin,
                            Contract contract,
                            Trade response,
-                           IDataConnection conn) throws EngineException {
+                           WriteBatch batch,
+                           LedgerChange change) throws EngineException {
         requireStatus(commission, FeeStatus.FORZEN);
         requireStatus(margin, FeeStatus.DEALED);
         requireStatus(contract, ContractStatus.CLOSING);
@@ -326,74 +329,83 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
          * Update commission.
          */
         commission.setStatus(FeeStatus.DEALED);
-        conn.updateCommission(commission);
+        updateCommission(commission, batch);
         /*
          * Update margin.
          */
         margin.setStatus(FeeStatus.REMOVED);
-        conn.updateMargin(margin);
+        updateMargin(margin, batch);
         /*
          * Update contract.
          */
         var price = response.getPrice();
         var instrument = getInstrument(response.getInstrumentId());
         var amount = info.getEngine().getAlgorithm().getAmount(price, instrument);
-        contract.setCloseAmount(amount);
+        contract.setCloseAmount(amount * contract.getQuantity());
         contract.setStatus(ContractStatus.CLOSED);
-        conn.updateContract(contract);
+        updateContract(contract, batch);
+        change.dealClose(margin.getMargin(),
+                         commission.getCommission(),
+                         getCloseProfit(contract));
+        info.getCloseIndex().removeMargin(contract.getContractId());
     }
 
-    private void dealDelete(Response response) throws DataSourceException {
-        IDataConnection conn = null;
+    private boolean dealDelete(Response response, WriteBatch batch) {
         try {
+            var order = getWorkingOrder(response.getOrderId());
+            var change = new LedgerChange();
+            var opened = new LinkedList<Contract>();
+            synchronized (order) {
+                if (order.getOffset() == Offset.OPEN) {
+                    openDelete(order, batch, change);
+                }
+                else {
+                    closeDelete(order, batch, change, opened);
+                }
+            }
+            info.getLedger().apply(change);
+            info.getCloseIndex().add(opened);
+            undoOnDrop(response.getOrderId(), change, opened, batch);
             /*
-             * Get data source and start transaction.
+             * Add cancel response.
              */
-            conn = getDataSource().getConnection();
-            conn.transaction();
+            addAudit(response, batch);
             /*
-             * Add cancel response.
+             * Order is deleted, so it is in terminal status if its legs on
+             * other traders are too.
              */
-            conn.addResponse(response);
-            var o = conn.getRequestByOrderId(response.getOrderId());
-            if (o == null) {
-                throw new EngineRuntimeException(ExceptionCodes.ORDER_ID_NOT_FOUND.code(),
-                                                 ExceptionCodes.ORDER_ID_NOT_FOUND.message());
-            }
-            var offset = o.getOffset();
-            if (offset == null) {
-                throw new EngineRuntimeException(ExceptionCodes.OFFSET_NULL.code(),
-                                                 ExceptionCodes.OFFSET_NULL.message());
+            if (isTerminal(response.getOrderId())) {
+                info.getWorkingSet().remove(response.getOrderId());
             }
-            if (offset == Offset.OPEN) {
-                openDelete(response, conn);
-            }
-            else {
-                closeDelete(response, conn);
-            }
-            conn.commit();
+            return true;
         }
         catch (GatewayException e) {
-            if (conn != null) {
-                rollback(conn);
-            }
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
+        }
+        catch (EngineException e) {
             callOnException(new EngineRuntimeException(e.getCode(),
                                                        e.getMessage(),
                                                        e));
         }
         catch (EngineRuntimeException e) {
-            if (conn != null) {
-                rollback(conn);
-            }
             callOnException(e);
         }
+        catch (GatewayRuntimeException e) {
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
+        }
+        return false;
     }
 
     private void dealOpen(Commission commission,
                           Margin margin,
                           Contract contract,
                           Trade trade,
-                          IDataConnection conn) throws EngineException {
+                          WriteBatch batch,
+                          LedgerChange change) throws EngineException {
         requireStatus(commission, FeeStatus.FORZEN);
         requireStatus(margin, FeeStatus.FORZEN);
         requireStatus(contract, ContractStatus.OPENING);
@@ -401,90 +413,105 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
          * Update commission.
          */
         commission.setStatus(FeeStatus.DEALED);
-        conn.updateCommission(commission);
+        updateCommission(commission, batch);
         /*
          * Update margin.
          */
         margin.setStatus(FeeStatus.DEALED);
-        conn.updateMargin(margin);
+        updateMargin(margin, batch);
         /*
          * Update contract.
          */
         var price = trade.getPrice();
         var instrument = getInstrument(trade.getInstrumentId());
         var amount = info.getEngine().getAlgorithm().getAmount(price, instrument);
-        contract.setOpenAmount(amount);
+        contract.setOpenAmount(amount * contract.getQuantity());
         contract.setStatus(ContractStatus.OPEN);
         contract.setTradeId(trade.getTradeId());
         contract.setOpenTimestamp(trade.getTimestamp());
         contract.setOpenTradingDay(trade.getTradingDay());
-        conn.updateCommission(commission);
+        updateContract(contract, batch);
+        change.dealOpen(margin.getMargin(), commission.getCommission());
     }
 
-    private void dealTrade(Trade trade) throws EngineException {
-        IDataConnection conn = null;
+    private boolean dealTrade(Trade trade, long rest, WriteBatch batch) {
         try {
-            /*
-             * Get data source and start transaction.
-             */
-            conn = getDataSource().getConnection();
-            conn.transaction();
-            /*
-             * Add trade. Please note that volumn in trade could be zero,
-             * notifying a status change of the inserted order request.
-             */
-            conn.addTrade(trade);
+            var change = new LedgerChange();
+            var opened = new LinkedList<Contract>();
             var offset = trade.getOffset();
             if (offset == null) {
                 throw new GatewayRuntimeException(ExceptionCodes.OFFSET_NULL.code(),
                                                   ExceptionCodes.OFFSET_NULL.message());
             }
-            if (Offset.OPEN == offset) {
-                openTrade(trade, conn);
+            var order = getWorkingOrder(trade.getOrderId());
+            synchronized (order) {
+                if (Offset.OPEN == offset) {
+                    openTrade(trade, order, batch, change, opened);
+                }
+                else {
+                    closeTrade(trade, order, batch, change);
+                }
             }
-            else {
-                closeTrade(trade, conn);
+            info.getLedger().apply(change);
+            info.getCloseIndex().add(opened);
+            undoOnDrop(trade.getOrderId(), change, opened, batch);
+            /*
+             * Add trade. Please note that volumn in trade could be zero,
+             * notifying a status change of the inserted order request.
+             */
+            addAudit(trade, batch);
+            if (rest == 0 && isTerminal(trade.getOrderId())) {
+                /*
+                 * Order is fulfilled, so it is in terminal status.
+                 */
+                info.getWorkingSet().remove(trade.getOrderId());
             }
-            conn.commit();
+            return true;
         }
         catch (GatewayException e) {
-            if (conn != null) {
-                rollback(conn);
-            }
             callOnException(new EngineRuntimeException(e.getCode(),
                                                        e.getMessage(),
                                                        e));
         }
         catch (GatewayRuntimeException e) {
-            if (conn != null) {
-                rollback(conn);
-            }
             callOnException(new EngineRuntimeException(e.getCode(),
                                                        e.getMessage(),
                                                        e));
         }
+        catch (EngineException e) {
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
+        }
+        catch (EngineRuntimeException e) {
+            callOnException(e);
+        }
+        return false;
     }
 
     private void deleteClose(Commission commission,
                              Contract contract,
-                             IDataConnection conn) throws DataSourceException {
+                             WriteBatch batch,
+                             LedgerChange change) {
         requireStatus(contract, ContractStatus.CLOSING);
         contract.setStatus(ContractStatus.OPEN);
-        conn.updateContract(contract);
-        conn.removeCommission(commission.getCommissionId());
+        updateContract(contract, batch);
+        batch.add(c -> c.removeCommission(commission.getCommissionId()));
+        change.deleteClose(commission.getCommission());
     }
 
     private void deleteOpen(Commission commission,
                             Margin margin,
                             Contract contract,
-                            IDataConnection conn) throws DataSourceException {
+                            WriteBatch batch,
+                            LedgerChange change) {
         requireStatus(commission, FeeStatus.FORZEN);
         requireStatus(margin, FeeStatus.FORZEN);
         requireStatus(contract, ContractStatus.OPENING);
-        conn.removeContract(contract.getContractId());
-        conn.removeCommission(commission.getCommissionId());
-        conn.removeMargin(margin.getMarginId());
-
+        batch.add(c -> c.removeContract(contract.getContractId()));
+        batch.add(c -> c.removeCommission(commission.getCommissionId()));
+        batch.add(c -> c.removeMargin(margin.getMarginId()));
+        change.deleteOpen(margin.getMargin(), commission.getCommission());
     }
 
     private void deleteOrderWhenException(Request request,
@@ -513,6 +540,47 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         }
     }
 
+    private void dispatch(Response response) {
+        execute(response.getInstrumentId(), () -> {
+            processResponse(response);
+        });
+    }
+
+    private void dispatch(Trade trade) {
+        execute(trade.getInstrumentId(), () -> {
+            processTrade(trade);
+        });
+    }
+
+    /*
+     * Events of the same instrument are executed on the same shard, in the
+     * order they arrive, if engine runs in sharded mode.
+     */
+    private void execute(String instrumentId, Runnable task) {
+        var shards = info.getShards();
+        if (shards == null) {
+            task.run();
+            return;
+        }
+        try {
+            shards.execute(instrumentId, task);
+        }
+        catch (EngineException ex) {
+            callOnException(new EngineRuntimeException(ex.getCode(),
+                                                       ex.getMessage(),
+                                                       ex));
+        }
+    }
+
+    private double getCloseProfit(Contract contract) {
+        if (contract.getDirection() == Direction.BUY) {
+            return contract.getCloseAmount() - contract.getOpenAmount();
+        }
+        else {
+            return contract.getOpenAmount() - contract.getCloseAmount();
+        }
+    }
+
     private IDataSource getDataSource() throws GatewayException {
         var ds = info.getEngine().getDataSource();
         if (ds == null) {
@@ -522,18 +590,45 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         return ds;
     }
 
+    /*
+     * Load margins, commissions and contracts of the order in bulk, and
+     * assemble bundles by contract ID, so a fill costs a constant number of
+     * queries no matter how many lots it touches.
+     */
     private Collection<FrozenBundle> getFrozenBundles(Long orderId, IDataConnection conn) throws DataSourceException {
-        final var map = new HashMap<Long, FrozenBundle>(128);
         var ms = conn.getMarginsByOrderId(orderId);
         checkMarginsNull(ms);
         var cs = conn.getCommissionsByOrderId(orderId);
         checkCommissionsNull(cs);
+        final var margins = new HashMap<Long, Margin>(ms.size() * 2 + 1);
+        for (var m : ms) {
+            margins.put(m.getContractId(), m);
+        }
+        final var cids = new HashSet<Long>(cs.size() * 2 + 1);
+        for (var c : cs) {
+            checkContractIdNull(c.getContractId());
+            cids.add(c.getContractId());
+        }
+        final var contracts = new HashMap<Long, Contract>(cids.size() * 2 + 1);
+        for (var c : conn.getContractsByIds(cids)) {
+            contracts.put(c.getContractId(), c);
+        }
+        /*
+         * Margin of closing contract belongs to its open order.
+         */
+        final var missing = new HashSet<Long>(cids);
+        missing.removeAll(margins.keySet());
+        if (!missing.isEmpty()) {
+            for (var m : conn.getMarginsByContractIds(missing)) {
+                margins.put(m.getContractId(), m);
+            }
+        }
+        final var map = new HashMap<Long, FrozenBundle>(cids.size() * 2 + 1);
         for (var c : cs) {
             var cid = c.getContractId();
-            checkContractIdNull(cid);
-            var cc = conn.getContractById(cid);
+            var cc = contracts.get(cid);
             checkContractNull(cc);
-            var m = getMarginByContractId(cid, ms);
+            var m = margins.get(cid);
             checkMarginNull(m);
             map.put(cid, new FrozenBundle(c, m, cc));
         }
@@ -552,13 +647,31 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         return instrument;
     }
 
-    private Margin getMarginByContractId(Long contractId, Collection<Margin> ms) {
-        for (var m : ms) {
-            if (Objects.equals(m.getContractId(), contractId)) {
-                return m;
-            }
+    /*
+     * Order frozen before restart isn't in working set, so load it from data
+     * source after the pending writes are done.
+     */
+    private WorkingOrder getWorkingOrder(Long orderId) throws GatewayException,
+                                                              DataSourceException {
+        var order = info.getWorkingSet().get(orderId);
+        if (order != null) {
+            return order;
         }
-        return null;
+        info.getPersister().flush();
+        var conn = getDataSource().getConnection();
+        var request = conn.getRequestByOrderId(orderId);
+        if (request == null) {
+            throw new EngineRuntimeException(ExceptionCodes.ORDER_ID_NOT_FOUND.code(),
+                                             ExceptionCodes.ORDER_ID_NOT_FOUND.message());
+        }
+        var offset = request.getOffset();
+        if (offset == null) {
+            throw new EngineRuntimeException(ExceptionCodes.OFFSET_NULL.code(),
+                                             ExceptionCodes.OFFSET_NULL.message());
+        }
+        order = new WorkingOrder(offset, getFrozenBundles(orderId, conn));
+        info.getWorkingSet().put(orderId, order);
+        return order;
     }
 
     private Long getSrcId(Long destId) {
@@ -582,9 +695,49 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         return r;
     }
 
-    private void openDelete(Response response, IDataConnection conn) throws DataSourceException {
-        var bs = getFrozenBundles(response.getOrderId(), conn);
-        for (var b : bs) {
+    /*
+     * Close order fans out into one leg per trader and offset, so the order is
+     * terminal only if all its destinated IDs are counted down to zero.
+     */
+    private boolean isTerminal(Long orderId) throws EngineException {
+        for (var rt : info.getEngine().getTraderServiceRuntimes()) {
+            if (!(rt instanceof ExtendedTraderServiceRuntime)) {
+                continue;
+            }
+            var t = ((ExtendedTraderServiceRuntime) rt).getIdTranslator();
+            var ids = t == null ? null : t.getDestinatedIds(orderId);
+            if (ids == null) {
+                continue;
+            }
+            for (var i : ids) {
+                var cd = t.getDownCountByDestId(i);
+                if (cd != null && cd > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void journal(IJournalWrite write) {
+        var j = info.getJournal();
+        if (j == null) {
+            return;
+        }
+        try {
+            write.write(j);
+        }
+        catch (EngineException e) {
+            callOnException(new EngineRuntimeException(e.getCode(),
+                                                       e.getMessage(),
+                                                       e));
+        }
+    }
+
+    private void openDelete(WorkingOrder order,
+                            WriteBatch batch,
+                            LedgerChange change) {
+        for (var b : order.getBundles()) {
             var s = b.getContract().getStatus();
             if (s != ContractStatus.OPENING) {
                 continue;
@@ -592,30 +745,40 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
             deleteOpen(b.getCommission(),
                        b.getMargin(),
                        b.getContract(),
-                       conn);
+                       batch,
+                       change);
         }
     }
 
-    private void openTrade(Trade trade, IDataConnection conn) throws EngineException {
+    private void openTrade(Trade trade,
+                           WorkingOrder order,
+                           WriteBatch batch,
+                           LedgerChange change,
+                           Collection<Contract> opened) throws EngineException {
         /*
          * Deal opening order.
          */
-        var bs = getFrozenBundles(trade.getOrderId(), conn);
-        int count = 0;
-        var it = bs.iterator();
+        long count = 0;
+        var it = order.getBundles().iterator();
         while (count < trade.getQuantity() && it.hasNext()) {
             var b = it.next();
             var s = b.getContract().getStatus();
             if (s != ContractStatus.OPENING) {
                 continue;
             }
+            var q = Math.min(trade.getQuantity() - count, b.getContract().getQuantity());
+            if (q < b.getContract().getQuantity()) {
+                b = splitBundle(b, q, batch);
+            }
             dealOpen(b.getCommission(),
                      b.getMargin(),
                      b.getContract(),
                      trade,
-                     conn
-            );
-            ++count;
+                     batch,
+                     change);
+            info.getCloseIndex().putMargin(b.getMargin());
+            opened.add(b.getContract());
+            count += q;
         }
         if (count < trade.getQuantity()) {
             throw new EngineRuntimeException(ExceptionCodes.INCONSISTENT_FROZEN_INFO.code(),
@@ -623,14 +786,22 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         }
     }
 
-    private void preprocess(Trade trade) throws EngineException {
+    private long preprocess(Trade trade) throws EngineException {
         try {
             /*
              * Order is deleted, so count down to zero.
              */
-            super.countDown(trade.getOrderId(), trade.getQuantity());
+            var rest = super.countDown(trade.getOrderId(), trade.getQuantity());
+            var latency = super.acknowledged(trade.getOrderId());
+            if (latency >= 0) {
+                info.getStatistics().acknowledged(latency);
+            }
+            if (rest == 0 && trade.getQuantity() > 0) {
+                info.getStatistics().completed();
+            }
             trade.setOrderId(getSrcId(trade.getOrderId()));
             trade.setTraderId(info.getTraderId());
+            return rest;
         }
         catch (Throwable th) {
             throw new EngineException(ExceptionCodes.PREPROC_RSPS_FAILED.code(),
@@ -649,6 +820,13 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
              * Order is deleted, so count down to zero.
              */
             super.countDown(response.getOrderId(), rest);
+            var latency = super.acknowledged(response.getOrderId());
+            if (latency >= 0) {
+                info.getStatistics().acknowledged(latency);
+            }
+            if (rest > 0) {
+                info.getStatistics().completed();
+            }
             response.setOrderId(getSrcId(response.getOrderId()));
             response.setTraderId(info.getTraderId());
         }
@@ -659,6 +837,90 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         }
     }
 
+    /*
+     * Split the lots to deal from a frozen bundle. The split contract and fees
+     * are added to data source and the original ones keep the rest lots.
+     */
+    private FrozenBundle splitBundle(FrozenBundle b,
+                                     long quantity,
+                                     WriteBatch batch) {
+        var total = b.getContract().getQuantity();
+        var contract = ContractSplitter.split(b.getContract(), quantity);
+        var commission = ContractSplitter.split(b.getCommission(), contract, total);
+        var margin = ContractSplitter.split(b.getMargin(), contract, total);
+        updateContract(b.getContract(), batch);
+        updateCommission(b.getCommission(), batch);
+        updateMargin(b.getMargin(), batch);
+        var cc = ContractSplitter.copy(contract);
+        var cm = ContractSplitter.copy(commission);
+        var mm = ContractSplitter.copy(margin);
+        batch.add(c -> {
+            c.addContract(cc);
+            c.addCommission(cm);
+            c.addMargin(mm);
+        });
+        return new FrozenBundle(commission, margin, contract);
+    }
+
+    private void processResponse(Response response) {
+        try {
+            preprocess(response);
+            if (response.getAction() == ActionType.DELETE) {
+                /*
+                 * Notify handlers after the deletion is committed.
+                 */
+                var batch = new WriteBatch("Response ID:" + response.getResponseId()
+                                           + ", order ID:" + response.getOrderId());
+                batch.onCommit(() -> callOnResponse(response));
+                if (dealDelete(response, batch)) {
+                    batch.onDrop(() -> callOnResponse(response));
+                    info.getPersister().submit(batch);
+                    return;
+                }
+                info.getWorkingSet().remove(response.getOrderId());
+            }
+            info.getAuditWriter().addResponse(response);
+            callOnResponse(response);
+        }
+        catch (EngineException ex) {
+            callOnException(new EngineRuntimeException(ExceptionCodes.PREPROCESS_RESPONSE_FAIL.code(),
+                                                       ExceptionCodes.PREPROCESS_RESPONSE_FAIL.message(),
+                                                       ex));
+        }
+    }
+
+    private void processTrade(Trade trade) {
+        try {
+            var rest = preprocess(trade);
+            /*
+             * Notify handlers after the trade is committed.
+             */
+            var batch = new WriteBatch("Trade ID:" + trade.getTradeId()
+                                       + ", order ID:" + trade.getOrderId());
+            batch.onCommit(() -> callOnTrade(trade));
+            if (dealTrade(trade, rest, batch)) {
+                /*
+                 * The trade happens even if it is not persisted, so handlers
+                 * still get it after the persister reports the drop.
+                 */
+                batch.onDrop(() -> callOnTrade(trade));
+                info.getPersister().submit(batch);
+            }
+            else {
+                /*
+                 * Bundles may be partly changed, so reload them next time.
+                 */
+                info.getWorkingSet().remove(trade.getOrderId());
+                callOnTrade(trade);
+            }
+        }
+        catch (EngineException ex) {
+            callOnException(new EngineRuntimeException(ExceptionCodes.PREPROCESS_TRADE_FAIL.code(),
+                                                       ExceptionCodes.PREPROCESS_TRADE_FAIL.message(),
+                                                       ex));
+        }
+    }
+
     private void requireStatus(Contract c, ContractStatus s) {
         if (!Objects.equals(c.getStatus(), s)) {
             throw new GatewayRuntimeException(ExceptionCodes.INVALID_DELETING_CONTRACT_STATUS.code(),
@@ -683,45 +945,39 @@ public class TraderServiceHandler extends IdTranslator implements ITraderGateway
         }
     }
 
-    private void rollback(IDataConnection conn) {
-        try {
-            conn.rollback();
-        }
-        catch (DataSourceException ex) {
-            callOnException(new EngineRuntimeException(
-                    ExceptionCodes.DS_FAILURE_UNFIXABLE.code(),
-                    ExceptionCodes.DS_FAILURE_UNFIXABLE.message(),
-                    ex));
-        }
+    /*
+     * If the batch is dropped, data source keeps the rows before the change.
+     * Revert the ledger change and the contracts made closable, and evict the
+     * order so it is reloaded from data source next time.
+     */
+    private void undoOnDrop(Long orderId,
+                            LedgerChange change,
+                            Collection<Contract> opened,
+                            WriteBatch batch) {
+        batch.onDrop(() -> {
+            info.getLedger().revert(change);
+            info.getCloseIndex().remove(opened);
+            info.getCloseIndex().removeMargins(opened);
+            info.getWorkingSet().remove(orderId);
+        });
     }
 
-    private class FrozenBundle {
-
-        private Commission commission;
-        private final Contract contract;
-        private final Margin margin;
-
-        FrozenBundle(Commission commission, Margin margin, Contract contract) {
-            this.commission = commission;
-            this.margin = margin;
-            this.contract = contract;
-        }
-
-        Commission getCommission() {
-            return commission;
-        }
-
-        void setCommission(Commission commission) {
-            this.commission = commission;
-        }
-
-        Contract getContract() {
-            return contract;
-        }
+    /*
+     * Rows are written on persister thread while the next event of the order
+     * may change them, so the batch writes a copy taken under order's lock.
+     */
+    private void updateCommission(Commission commission, WriteBatch batch) {
+        var r = ContractSplitter.copy(commission);
+        batch.add(c -> c.updateCommission(r));
+    }
 
-        Margin getMargin() {
-            return margin;
-        }
+    private void updateContract(Contract contract, WriteBatch batch) {
+        var r = ContractSplitter.copy(contract);
+        batch.add(c -> c.updateContract(r));
+    }
 
+    private void updateMargin(Margin margin, WriteBatch batch) {
+        var r = ContractSplitter.copy(margin);
+        batch.add(c -> c.updateMargin(r));
     }
 }
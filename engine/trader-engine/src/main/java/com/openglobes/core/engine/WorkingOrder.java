@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import com.openglobes.core.Offset;
+import java.util.Collection;
+
+/**
+ * Frozen contracts and fees of an order that is not yet in terminal status.
+ * <p>
+ * Bundles are mutated in place when order is traded or deleted, so callers
+ * synchronize on the working order while they deal its bundles.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class WorkingOrder {
+
+    private final Collection<FrozenBundle> bundles;
+    private final Offset offset;
+
+    public WorkingOrder(Offset offset, Collection<FrozenBundle> bundles) {
+        this.offset = offset;
+        this.bundles = bundles;
+    }
+
+    public Collection<FrozenBundle> getBundles() {
+        return bundles;
+    }
+
+    public Offset getOffset() {
+        return offset;
+    }
+}
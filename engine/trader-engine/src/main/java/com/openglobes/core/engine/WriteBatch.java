@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * Writes of one event, written in the same transaction, and the callbacks
+ * to run after they are committed, or after they are dropped because data
+ * source keeps failing.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class WriteBatch {
+
+    private final Collection<Runnable> callbacks;
+    private final Collection<Runnable> drops;
+    private final String name;
+    private final Collection<IDataWrite> writes;
+
+    public WriteBatch() {
+        this("");
+    }
+
+    /**
+     * Create batch with a name that tells what it writes, for example the
+     * trade it persists. The name is reported if the batch is dropped.
+     *
+     * @param name name of the batch
+     */
+    public WriteBatch(String name) {
+        this.name = name;
+        callbacks = new LinkedList<>();
+        drops = new LinkedList<>();
+        writes = new LinkedList<>();
+    }
+
+    public void add(IDataWrite write) {
+        writes.add(write);
+    }
+
+    /**
+     * Run the callbacks after the batch is committed.
+     */
+    public void committed() {
+        for (var c : callbacks) {
+            c.run();
+        }
+    }
+
+    /**
+     * Run the drop callbacks after the batch fails to be written.
+     */
+    public void dropped() {
+        for (var d : drops) {
+            d.run();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEmpty() {
+        return writes.isEmpty() && callbacks.isEmpty();
+    }
+
+    /**
+     * Add callback that runs after the batch is committed, so downstream
+     * handlers are notified only after the writes are durable.
+     *
+     * @param callback callback
+     */
+    public void onCommit(Runnable callback) {
+        callbacks.add(callback);
+    }
+
+    /**
+     * Add callback that runs if the batch is dropped. State in memory is
+     * changed before the batch is written, so the callback undoes the change
+     * that never reaches data source.
+     *
+     * @param callback callback
+     */
+    public void onDrop(Runnable callback) {
+        drops.add(callback);
+    }
+
+    /**
+     * Write to data connection in the order writes are added. Caller manages
+     * the transaction.
+     *
+     * @param conn data connection
+     *
+     * @throws DataSourceException if data source fails writing
+     */
+    public void write(IDataConnection conn) throws DataSourceException {
+        for (var w : writes) {
+            w.write(conn);
+        }
+    }
+}
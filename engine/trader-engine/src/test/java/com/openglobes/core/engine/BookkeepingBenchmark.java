@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memory and GC benchmark of order and ID bookkeeping.
+ * <p>
+ * Each order is put to the order-to-trader map, given one destinated ID with
+ * a count down, and translated back. The engine's primitive structures,
+ * {@link LongIntHashMap} and {@link IdTranslator}, are compared with the
+ * boxed maps they replaced, a {@code HashMap<Long, Integer>} of traders and
+ * {@code HashMap<Long, Long>} and {@code HashMap<Long, Set<Long>>} of IDs. It
+ * prints bytes allocated and retained per order, and collections and
+ * milliseconds of GC while filling.
+ * <p>
+ * Run it with {@code java -Xmx2g -cp <test classes>:<classes>
+ * com.openglobes.core.engine.BookkeepingBenchmark [orders]}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class BookkeepingBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        var n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        for (int r = 0; r < ROUNDS; ++r) {
+            var print = r == ROUNDS - 1;
+            run(print, "boxed", n, new Boxed());
+            run(print, "primitive", n, new Primitive());
+        }
+    }
+
+    private static void run(boolean print, String name, int n, Bookkeeping b) {
+        var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var id = Thread.currentThread().getId();
+        var h0 = retained();
+        var gc0 = gcCount();
+        var ms0 = gcMillis();
+        var a0 = bean.getThreadAllocatedBytes(id);
+        var t0 = System.nanoTime();
+        long s = 0;
+        for (long orderId = 1; orderId <= n; ++orderId) {
+            s += b.add(orderId, (int) (orderId & 7));
+        }
+        var elapsed = System.nanoTime() - t0;
+        var allocated = bean.getThreadAllocatedBytes(id) - a0;
+        var gcs = gcCount() - gc0;
+        var ms = gcMillis() - ms0;
+        var h1 = retained();
+        if (print) {
+            System.out.printf("%-10s orders=%d  %6.1f ns/order  allocated %6.1f B/order  retained %6.1f B/order  gc %d times %d ms  (%d)%n",
+                              name,
+                              n,
+                              (double) elapsed / n,
+                              (double) allocated / n,
+                              (double) (h1 - h0) / n,
+                              gcs,
+                              ms,
+                              (s + b.hashCode()) & 1);
+        }
+    }
+
+    private static long gcCount() {
+        long r = 0;
+        for (GarbageCollectorMXBean g : ManagementFactory.getGarbageCollectorMXBeans()) {
+            r += Math.max(0, g.getCollectionCount());
+        }
+        return r;
+    }
+
+    private static long gcMillis() {
+        long r = 0;
+        for (GarbageCollectorMXBean g : ManagementFactory.getGarbageCollectorMXBeans()) {
+            r += Math.max(0, g.getCollectionTime());
+        }
+        return r;
+    }
+
+    private static long retained() {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        var rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private interface Bookkeeping {
+
+        long add(long orderId, int traderId);
+    }
+
+    /*
+     * Bookkeeping before primitive maps.
+     */
+    private static class Boxed implements Bookkeeping {
+
+        private final Map<Long, Long> counts = new HashMap<>(1024);
+        private final Map<Long, Long> dests = new HashMap<>(1024);
+        private long id = 0L;
+        private final Map<Long, Integer> orderTraders = new HashMap<>(1024);
+        private final Map<Long, Set<Long>> srcs = new HashMap<>(1024);
+
+        @Override
+        public long add(long orderId, int traderId) {
+            orderTraders.put(orderId, traderId);
+            var destId = ++id;
+            dests.put(destId, orderId);
+            counts.put(destId, 1L);
+            srcs.computeIfAbsent(orderId, k -> new HashSet<>(64)).add(destId);
+            return dests.get(destId) + orderTraders.get(orderId);
+        }
+    }
+
+    private static class Primitive implements Bookkeeping {
+
+        private final LongIntHashMap orderTraders = new LongIntHashMap(1024, -1);
+        private final IdTranslator translator = new IdTranslator();
+
+        @Override
+        public long add(long orderId, int traderId) {
+            orderTraders.put(orderId, traderId);
+            var destId = translator.getDestinatedId(orderId, 1L);
+            return translator.getSourceId(destId) + orderTraders.get(orderId);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contention benchmark of {@link IdTranslator} on concurrent request threads.
+ * <p>
+ * Each operation issues a destinated ID for an order, reads back the
+ * destinated IDs of the order, counts down and translates back, as a request
+ * and its fill do. Each order has two legs, like a close request split over
+ * two traders, and threads issue IDs of their own orders at the same time,
+ * so they contend on the shared sequence and source index. It prints time
+ * and allocated bytes per operation for 1, 2, 4 and 8 threads, and only uses
+ * public methods, so it runs against any revision of the translator.
+ * <p>
+ * Run it with {@code java -cp <test classes>:<classes>
+ * com.openglobes.core.engine.IdTranslatorBenchmark [operations per thread]}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class IdTranslatorBenchmark {
+
+    private static final int LEGS = 2;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        var n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        for (var threads : new int[]{1, 2, 4, 8}) {
+            for (int r = 0; r < ROUNDS; ++r) {
+                run(r == ROUNDS - 1, threads, n);
+            }
+        }
+    }
+
+    private static void run(boolean print, int threads, int n) throws Exception {
+        var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var t = new IdTranslator();
+        var bytes = new AtomicLong(0L);
+        var sink = new AtomicLong(0L);
+        var start = new CountDownLatch(1);
+        var list = new ArrayList<Thread>(threads);
+        for (int i = 0; i < threads; ++i) {
+            final var base = (long) i * n;
+            var th = new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                var id = Thread.currentThread().getId();
+                var b0 = bean.getThreadAllocatedBytes(id);
+                long s = 0;
+                for (long k = base; k < base + n; ++k) {
+                    Long srcId = k / LEGS;
+                    var destId = t.getDestinatedId(srcId, 1L);
+                    s += t.getDestinatedIds(srcId).length;
+                    s += t.countDown(destId, 1L);
+                    s += t.getSourceId(destId);
+                }
+                bytes.addAndGet(bean.getThreadAllocatedBytes(id) - b0);
+                sink.addAndGet(s);
+            });
+            th.start();
+            list.add(th);
+        }
+        var t0 = System.nanoTime();
+        start.countDown();
+        for (var th : list) {
+            th.join();
+        }
+        var elapsed = System.nanoTime() - t0;
+        if (print) {
+            var ops = (double) threads * n;
+            System.out.printf("threads=%d  %8.1f ns/op  %10.0f ops/s  %6.1f B/op  (%d)%n",
+                              threads,
+                              elapsed / ops,
+                              ops * 1.0E9 / elapsed,
+                              bytes.get() / ops,
+                              sink.get() & 1);
+        }
+    }
+}
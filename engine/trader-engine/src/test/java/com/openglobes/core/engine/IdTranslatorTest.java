@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Stress {@link IdTranslator} with concurrent translating and counting down.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class IdTranslatorTest {
+
+    private static final int PER_THREAD = 20000;
+    private static final int SOURCES = 512;
+    private static final int THREADS = 8;
+
+    @Test
+    public void acknowledgedOnce() {
+        var t = new IdTranslator();
+        var destId = t.getDestinatedId(7L, 1L);
+        assertEquals(-1L, t.acknowledged(destId));
+        t.sent(destId);
+        assertTrue(t.acknowledged(destId) >= 0L);
+        assertEquals(-1L, t.acknowledged(destId));
+        t.sent(destId);
+        t.clear();
+        assertEquals(-1L, t.acknowledged(destId));
+        assertEquals(-1L, t.acknowledged(destId + 100000L));
+    }
+
+    @Test
+    public void clearKeepsLastId() {
+        var t = new IdTranslator();
+        t.getDestinatedId(7L, 1L);
+        t.getDestinatedId(7L, 1L);
+        assertArrayEquals(new long[]{1L, 2L}, t.getDestinatedIds(7L));
+        t.clear();
+        assertEquals(2L, t.getLastId());
+        assertNull(t.getDestinatedIds(7L));
+        assertNull(t.getSourceId(2L));
+        assertEquals(3L, (long) t.getDestinatedId(7L, 1L));
+        assertArrayEquals(new long[]{3L}, t.getDestinatedIds(7L));
+    }
+
+    @Test
+    public void concurrentCountDown() throws Exception {
+        var t = new IdTranslator();
+        var destId = t.getDestinatedId(1L, (long) THREADS * PER_THREAD);
+        run(k -> {
+            for (int i = 0; i < PER_THREAD; ++i) {
+                t.countDown(destId, 1L);
+            }
+        });
+        assertEquals(0L, (long) t.getDownCountByDestId(destId));
+        try {
+            t.countDown(destId, 1L);
+            fail("Count down below zero.");
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void concurrentTranslate() throws Exception {
+        var t = new IdTranslator();
+        var issued = new ConcurrentHashMap<Long, ConcurrentLinkedQueue<Long>>(SOURCES);
+        /*
+         * Threads share source IDs, so they contend on the same stripes, while
+         * readers translate back the IDs already issued.
+         */
+        run(k -> {
+            for (int i = 0; i < PER_THREAD; ++i) {
+                long srcId = (i * 31 + k) % SOURCES;
+                var destId = t.getDestinatedId(srcId, (long) (i % 5 + 1));
+                issued.computeIfAbsent(srcId, x -> new ConcurrentLinkedQueue<>()).add(destId);
+                assertEquals(srcId, (long) t.getSourceId(destId));
+                t.countDown(destId, 1L);
+                var ids = t.getDestinatedIds(srcId);
+                assertTrue(Arrays.stream(ids).anyMatch(x -> x == destId));
+            }
+        });
+        assertEquals((long) THREADS * PER_THREAD, t.getLastId());
+        var all = new HashSet<Long>();
+        for (var e : issued.entrySet()) {
+            var expected = e.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+            var actual = t.getDestinatedIds(e.getKey());
+            Arrays.sort(actual);
+            assertArrayEquals(expected, actual);
+            for (var destId : expected) {
+                assertTrue(all.add(destId));
+                assertEquals((long) e.getKey(), (long) t.getSourceId(destId));
+            }
+        }
+        assertEquals(THREADS * PER_THREAD, all.size());
+    }
+
+    private static void run(Task task) throws Exception {
+        var start = new CountDownLatch(1);
+        var error = new AtomicReference<Throwable>();
+        var threads = new ArrayList<Thread>(THREADS);
+        for (int k = 0; k < THREADS; ++k) {
+            final var n = k;
+            var th = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run(n);
+                }
+                catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            th.start();
+            threads.add(th);
+        }
+        start.countDown();
+        for (var th : threads) {
+            th.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+
+        void run(int k) throws Exception;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.engine;
+
+import java.util.HashMap;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Check primitive hash maps against {@link HashMap} with random operations.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class PrimitiveMapsTest {
+
+    private static final int KEYS = 4096;
+    private static final int OPERATIONS = 1000000;
+
+    @Test
+    public void longIntMatchesHashMap() {
+        var r = new Random(1L);
+        var m = new LongIntHashMap(16, -1);
+        var e = new HashMap<Long, Integer>(16);
+        for (int i = 0; i < OPERATIONS; ++i) {
+            /*
+             * Zero key is kept aside, so include it.
+             */
+            long k = r.nextInt(KEYS) - KEYS / 2;
+            switch (r.nextInt(3)) {
+                case 0:
+                    var v = r.nextInt(1000);
+                    assertEquals((int) e.getOrDefault(k, -1), m.put(k, v));
+                    e.put(k, v);
+                    break;
+                case 1:
+                    assertEquals((int) e.getOrDefault(k, -1), m.get(k));
+                    break;
+                default:
+                    var x = e.remove(k);
+                    assertEquals(x == null ? -1 : (int) x, m.remove(k));
+                    break;
+            }
+            assertEquals(e.size(), m.size());
+        }
+    }
+
+    @Test
+    public void longLongMatchesHashMap() {
+        var r = new Random(2L);
+        var m = new LongLongHashMap(16, Long.MIN_VALUE);
+        var e = new HashMap<Long, Long>(16);
+        for (int i = 0; i < OPERATIONS; ++i) {
+            long k = r.nextInt(KEYS) - KEYS / 2;
+            switch (r.nextInt(3)) {
+                case 0:
+                    var v = r.nextLong();
+                    assertEquals((long) e.getOrDefault(k, Long.MIN_VALUE), m.put(k, v));
+                    e.put(k, v);
+                    break;
+                case 1:
+                    assertEquals((long) e.getOrDefault(k, Long.MIN_VALUE), m.get(k));
+                    break;
+                default:
+                    var x = e.remove(k);
+                    assertEquals(x == null ? Long.MIN_VALUE : (long) x, m.remove(k));
+                    break;
+            }
+            assertEquals(e.size(), m.size());
+        }
+    }
+}
@@ -35,6 +35,7 @@ public class Contract {
     private Double openAmount;
     private ZonedDateTime openTimestamp;
     private LocalDate openTradingDay;
+    private Long quantity;
     private Long tradeId;
     private ContractStatus status;
     private ZonedDateTime timestamp;
@@ -107,6 +108,14 @@ public class Contract {
         this.openTradingDay = tradingDay;
     }
 
+    public Long getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Long quantity) {
+        this.quantity = quantity;
+    }
+
     public Long getTradeId() {
         return tradeId;
     }
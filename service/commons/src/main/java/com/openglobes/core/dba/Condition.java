@@ -6,8 +6,14 @@
 package com.openglobes.core.dba;
 
 import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
 
 /**
+ * Condition of a query. Its SQL has a {@code ?} placeholder for each value,
+ * so conditions of the same shape share one prepared statement, and the
+ * values are bound in the order of the placeholders.
  *
  * @author Hongbao Chen
  * @since 1.0
@@ -61,18 +67,48 @@ class Condition<T> implements ICondition<T> {
     }
 
     private String stringValue(T v) throws DbaException {
-        if (v instanceof Number) {
-            return "" + v;
-        }
-        else if (v instanceof String) {
-            return "'" + v + "'";
+        if (v instanceof Number || v instanceof String) {
+            return "?";
         }
         else if (v instanceof Condition) {
             return ((Condition) v).getSql();
         }
+        else if (v instanceof Collection) {
+            return stringValues((Collection<?>) v);
+        }
         throw new DbaException("Unsupported type <T>.");
     }
 
+    private String stringValues(Collection<?> vs) throws DbaException {
+        if (t != ConditionType.IN) {
+            throw new DbaException("Collection operand needs IN but found " + t + ".");
+        }
+        if (vs.isEmpty()) {
+            throw new DbaException("IN needs at least one value.");
+        }
+        for (var v : vs) {
+            if (!(v instanceof Number) && !(v instanceof String)) {
+                throw new DbaException("Unsupported type in IN.");
+            }
+        }
+        /*
+         * Pad placeholders to a power of two, so lists of different lengths
+         * share a few statements. Padding binds the last value again.
+         */
+        var n = padded(vs.size());
+        var sb = new StringBuilder(n * 2 + 2).append('(');
+        for (var i = 0; i < n; ++i) {
+            sb.append("?,");
+        }
+        sb.setCharAt(sb.length() - 1, ')');
+        return sb.toString();
+    }
+
+    private static int padded(int n) {
+        var h = Integer.highestOneBit(n);
+        return h == n ? n : h << 1;
+    }
+
     private String stringValue(T v0, T v1) throws DbaException {
         if (!(v0 instanceof Condition) || !(v1 instanceof Condition)) {
             throw new DbaException("AND/OR need condition operand.");
@@ -120,6 +156,46 @@ class Condition<T> implements ICondition<T> {
         }
     }
 
+    /**
+     * Bind values of the condition to the placeholders from the specified
+     * index.
+     *
+     * @param statement prepared statement of the condition's SQL
+     * @param index     index of the first placeholder of the condition
+     *
+     * @return index of the placeholder after the condition
+     *
+     * @throws SQLException if binding fails
+     * @throws DbaException if value doesn't fit the field
+     */
+    int bind(PreparedStatement statement, int index) throws SQLException, DbaException {
+        switch (t) {
+            case AND:
+            case OR:
+                index = ((Condition<?>) v0).bind(statement, index);
+                return ((Condition<?>) v1).bind(statement, index);
+            case NOT:
+                return ((Condition<?>) v0).bind(statement, index);
+            case IS_NULL:
+            case IS_NOT_NULL:
+                return index;
+            case IN:
+                var vs = (Collection<?>) v0;
+                Object last = null;
+                for (var v : vs) {
+                    DbaUtils.setParameter(statement, index++, meta.getType(), v);
+                    last = v;
+                }
+                for (var i = vs.size(); i < padded(vs.size()); ++i) {
+                    DbaUtils.setParameter(statement, index++, meta.getType(), last);
+                }
+                return index;
+            default:
+                DbaUtils.setParameter(statement, index, meta.getType(), v0);
+                return index + 1;
+        }
+    }
+
     boolean checkBelonging(Class<?> clazz) {
         return meta.getField().getDeclaringClass() == clazz;
     }
@@ -137,6 +213,11 @@ class Condition<T> implements ICondition<T> {
                 return meta.getName() + ">" + sqlv;
             case LIKE:
                 return meta.getName() + " LIKE " + sqlv;
+            case IN:
+                return meta.getName() + " IN " + sqlv;
+            case IS_NULL:
+            case IS_NOT_NULL:
+                return meta.getName() + " " + sqlv;
             case NOT:
                 return "NOT (" + sqlv + ")";
         }
@@ -11,5 +11,5 @@ package com.openglobes.core.dba;
  * @since 1.0
  */
 public enum ConditionType {
-    EQUALS, LESS_THAN, LARGER_THAN, AND, OR, NOT, LIKE, IS_NULL, IS_NOT_NULL
+    EQUALS, LESS_THAN, LARGER_THAN, AND, OR, NOT, LIKE, IS_NULL, IS_NOT_NULL, IN
 }
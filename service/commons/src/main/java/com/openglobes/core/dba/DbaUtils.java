@@ -17,6 +17,8 @@
 package com.openglobes.core.dba;
 
 import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Types;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
@@ -76,7 +78,7 @@ public class DbaUtils {
         else if (clazz == ZonedDateTime.class) {
             return Types.TIMESTAMP_WITH_TIMEZONE;
         }
-        else if (clazz == String.class) {
+        else if (clazz == String.class || clazz.isEnum()) {
             return Types.CHAR;
         }
         else {
@@ -104,6 +106,69 @@ public class DbaUtils {
                 "Semantic field type " + semanticType + " is not supported.");
     }
 
+    /**
+     * Bind value to the placeholder with the setter of its semantic type.
+     * Dates and timestamps are kept as strings, the same as their columns.
+     *
+     * @param statement    prepared statement
+     * @param index        index of the placeholder
+     * @param semanticType semantic type of the field
+     * @param value        value to bind, or {@code null}
+     *
+     * @throws SQLException if binding fails
+     * @throws DbaException if value doesn't fit the semantic type
+     */
+    public static void setParameter(PreparedStatement statement,
+                                    int index,
+                                    int semanticType,
+                                    Object value) throws SQLException, DbaException {
+        switch (semanticType) {
+            case Types.BIGINT:
+                if (value == null) {
+                    statement.setNull(index, Types.BIGINT);
+                }
+                else {
+                    statement.setLong(index, number(value).longValue());
+                }
+                return;
+            case Types.INTEGER:
+                if (value == null) {
+                    statement.setNull(index, Types.INTEGER);
+                }
+                else {
+                    statement.setInt(index, number(value).intValue());
+                }
+                return;
+            case Types.DECIMAL:
+                if (value == null) {
+                    statement.setNull(index, Types.DECIMAL);
+                }
+                else {
+                    statement.setDouble(index, number(value).doubleValue());
+                }
+                return;
+            case Types.DATE:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+            case Types.CHAR:
+                if (value == null) {
+                    statement.setNull(index, Types.CHAR);
+                }
+                else {
+                    statement.setString(index, value instanceof Enum ? ((Enum<?>) value).name() : value.toString());
+                }
+                return;
+            default:
+                throw new DbaException("Unsupported SQL types: " + semanticType + ".");
+        }
+    }
+
+    private static Number number(Object value) throws DbaException {
+        if (!(value instanceof Number)) {
+            throw new DbaException("Expect number but found " + value.getClass().getCanonicalName() + ".");
+        }
+        return (Number) value;
+    }
+
     private static List<String> split(String name) {
         var r = new LinkedList<String>();
         if (name.isBlank()) {
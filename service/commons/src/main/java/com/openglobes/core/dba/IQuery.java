@@ -16,6 +16,7 @@
  */
 package com.openglobes.core.dba;
 
+import java.lang.reflect.Field;
 import java.util.Collection;
 
 /**
@@ -25,11 +26,102 @@ import java.util.Collection;
  */
 public interface IQuery {
 
+    /**
+     * Close statements cached by the query. Connection is not closed, and
+     * statements are prepared again if the query is used later.
+     */
+    void close();
+
+    /**
+     * Create table of the class if it doesn't exist, or verify its columns.
+     * A table is verified once, and query on a verified table doesn't read
+     * database metadata.
+     *
+     * @param <T>   type of object
+     * @param clazz class of object
+     *
+     * @throws DbaException if table has wrong columns or database fails
+     */
+    <T> void ensureTable(Class<T> clazz) throws DbaException;
+
     <T> Collection<T> select(Class<T> clazz, ICondition<?> condition, IDefaultFactory<T> factory) throws DbaException;
 
+    /**
+     * Select objects and pass them to visitor one by one while rows are read
+     * from database, so the result is never held as a whole.
+     * <p>
+     * Fetch size is given to driver as a hint of how many rows to fetch in
+     * one round trip. Some drivers stream rows only under certain settings,
+     * for example fetch size {@link Integer#MIN_VALUE} for MySQL, or fetch
+     * size in a transaction for PostgreSQL. Visitor must not run other
+     * queries on the same connection if driver doesn't support that while a
+     * result set is open.
+     *
+     * @param <T>       type of object
+     * @param clazz     class of object
+     * @param condition selection condition
+     * @param factory   factory of object
+     * @param visitor   visitor of each object
+     * @param fetchSize rows to fetch in one round trip, or zero for driver's
+     *                  default
+     *
+     * @return number of visited objects
+     *
+     * @throws DbaException if database or visitor fails
+     */
+    <T> int select(Class<T> clazz,
+                   ICondition<?> condition,
+                   IDefaultFactory<T> factory,
+                   IRowVisitor<T> visitor,
+                   int fetchSize) throws DbaException;
+
     <T> int update(Class<T> clazz, T object, ICondition<?> condition) throws DbaException;
 
     <T> int insert(Class<T> clazz, T object) throws DbaException;
 
     <T> int remove(Class<T> clazz, ICondition<?> condition) throws DbaException;
+
+    /**
+     * Insert objects in JDBC batches. Caller manages the transaction.
+     *
+     * @param <T>     type of object
+     * @param clazz   class of object
+     * @param objects objects to insert
+     *
+     * @return number of inserted rows
+     *
+     * @throws DbaException if database fails executing batch
+     */
+    <T> int insertAll(Class<T> clazz, Collection<T> objects) throws DbaException;
+
+    /**
+     * Update rows whose key field equals that of each object, in JDBC batches.
+     * Caller manages the transaction.
+     *
+     * @param <T>     type of object
+     * @param clazz   class of object
+     * @param objects objects to update
+     * @param key     key field of the class
+     *
+     * @return number of updated rows
+     *
+     * @throws DbaException if database fails executing batch
+     */
+    <T> int updateAll(Class<T> clazz, Collection<T> objects, Field key) throws DbaException;
+
+    /**
+     * Remove rows whose key field equals one of the keys, in JDBC batches.
+     * Caller manages the transaction.
+     *
+     * @param <T>   type of object
+     * @param <V>   type of key
+     * @param clazz class of object
+     * @param key   key field of the class
+     * @param keys  keys of rows to remove
+     *
+     * @return number of removed rows
+     *
+     * @throws DbaException if database fails executing batch
+     */
+    <T, V> int removeAll(Class<T> clazz, Field key, Collection<V> keys) throws DbaException;
 }
@@ -18,6 +18,7 @@ package com.openglobes.core.dba;
 
 import java.lang.reflect.Field;
 import java.sql.Connection;
+import java.util.Collection;
 
 /**
  *
@@ -31,13 +32,32 @@ public class Queries {
     }
 
     public static IQuery createQuery(Connection dbConnection) {
-        return new Query(dbConnection);
+        return new Query(dbConnection, Query.BATCH_SIZE);
+    }
+
+    /**
+     * Create query that executes batch operations in the specified size.
+     *
+     * @param dbConnection database connection
+     * @param batchSize    maximum statements in one JDBC batch
+     *
+     * @return query
+     */
+    public static IQuery createQuery(Connection dbConnection, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive but found " + batchSize + ".");
+        }
+        return new Query(dbConnection, batchSize);
     }
 
     public static <T> ICondition<T> equals(Field field, T value) throws DbaException {
         return new Condition<>(field, value, ConditionType.EQUALS);
     }
 
+    public static <T> ICondition<Collection<T>> in(Field field, Collection<T> values) throws DbaException {
+        return new Condition<>(field, values, ConditionType.IN);
+    }
+
     public static ICondition<String> like(Field field, String pattern) throws DbaException {
         return new Condition<>(field, pattern, ConditionType.LIKE);
     }
@@ -16,64 +16,245 @@
  */
 package com.openglobes.core.dba;
 
+import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
-import java.time.LocalDate;
-import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Query on one database connection.
+ * <p>
+ * SQL is generated as a template with {@code ?} placeholders, one template
+ * for each table, operation and condition shape. Templates are prepared once
+ * and cached on the connection, and values are bound with typed setters, so
+ * database parses and plans each template only once. Cache keeps the most
+ * recently used statements and closes the others.
+ * <p>
+ * Batch operations add the bound values of each object to the JDBC batch of
+ * one statement, and execute the batch every batch size. Objects are read
+ * from rows and bound to statements by the {@link RowMapper} of their class.
+ * <p>
+ * Table is created or verified against its class the first time it is used,
+ * and the verified table is remembered on the query and for the database URL
+ * in the process, so later queries don't read database metadata again. If a
+ * statement on a table fails, the table and its statements are forgotten, so
+ * a table dropped, recreated or altered outside the process is created or
+ * verified again by the next operation.
  *
  * @author Hongbao Chen
  * @since 1.0
  */
 class Query implements IQuery {
 
+    static final int BATCH_SIZE = 512;
+    static final int STATEMENT_CACHE_SIZE = 256;
+
+    private static final Set<String> schemas = ConcurrentHashMap.newKeySet();
+
     private final String PRIMARY_KEY = "PRIMARY KEY";
+    private final int batchSize;
     private final Connection conn;
+    private final Map<String, String> inserts;
     private final Map<String, MetaTable<?>> meta;
+    private final Map<String, Prepared> statements;
+    private final Map<String, String> updates;
+    private String url;
+    private final Set<String> verified;
 
-    Query(Connection connection) {
+    Query(Connection connection, int batchSize) {
+        this.batchSize = batchSize;
         conn = connection;
+        inserts = new HashMap<>(64);
         meta = new HashMap<>(64);
+        statements = new LinkedHashMap<>(STATEMENT_CACHE_SIZE, 0.75F, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Prepared> eldest) {
+                if (size() <= STATEMENT_CACHE_SIZE) {
+                    return false;
+                }
+                eldest.getValue().close();
+                return true;
+            }
+        };
+        updates = new HashMap<>(64);
+        verified = new HashSet<>(64);
+    }
+
+    @Override
+    public void close() {
+        statements.values().forEach(Prepared::close);
+        statements.clear();
+    }
+
+    @Override
+    public <T> void ensureTable(Class<T> clazz) throws DbaException {
+        try {
+            ensureTable(findMeta(clazz));
+        }
+        catch (SQLException ex) {
+            throw new DbaException("Fail verifying table.", ex);
+        }
     }
 
     @Override
     public <T> int insert(Class<T> clazz, T object) throws DbaException {
+        var m = findMeta(clazz);
         try {
-            return execute(getInsertSql(findMeta(clazz), object));
+            var s = prepare(m, getInsertSql(m));
+            RowMapper.of(m).bind(s, object, 1);
+            return s.executeUpdate();
         }
         catch (SQLException ex) {
+            invalidate(m);
             throw new DbaException("Fail executing insertion.", ex);
         }
     }
 
+    @Override
+    public <T> int insertAll(Class<T> clazz, Collection<T> objects) throws DbaException {
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        var m = findMeta(clazz);
+        PreparedStatement s = null;
+        try {
+            s = prepare(m, getInsertSql(m));
+            var mapper = RowMapper.of(m);
+            var r = 0;
+            var n = 0;
+            for (var o : objects) {
+                mapper.bind(s, o, 1);
+                s.addBatch();
+                if (++n % batchSize == 0) {
+                    r += executeBatch(s);
+                }
+            }
+            if (n % batchSize != 0) {
+                r += executeBatch(s);
+            }
+            return r;
+        }
+        catch (SQLException ex) {
+            invalidate(m);
+            throw new DbaException("Fail executing batch insertion.", ex);
+        }
+        catch (DbaException | RuntimeException ex) {
+            clearBatch(m, s);
+            throw ex;
+        }
+    }
+
     @Override
     public <T> int remove(Class<T> clazz, ICondition<?> condition) throws DbaException {
+        var m = findMeta(clazz);
         try {
-            return execute(getRemoveSql(findMeta(clazz), condition));
+            var c = (Condition<?>) condition;
+            var s = prepare(m, getRemoveSql(m, c));
+            c.bind(s, 1);
+            return s.executeUpdate();
         }
         catch (SQLException ex) {
+            invalidate(m);
             throw new DbaException("Fail executing removal.", ex);
         }
     }
 
+    @Override
+    public <T, V> int removeAll(Class<T> clazz, Field key, Collection<V> keys) throws DbaException {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        var m = findMeta(clazz);
+        PreparedStatement s = null;
+        try {
+            var k = DbaUtils.inspectField(key);
+            var c = (Condition<?>) Queries.equals(key, keys.iterator().next());
+            s = prepare(m, getRemoveSql(m, c));
+            var r = 0;
+            var n = 0;
+            for (var v : keys) {
+                DbaUtils.setParameter(s, 1, k.getType(), v);
+                s.addBatch();
+                if (++n % batchSize == 0) {
+                    r += executeBatch(s);
+                }
+            }
+            if (n % batchSize != 0) {
+                r += executeBatch(s);
+            }
+            return r;
+        }
+        catch (SQLException ex) {
+            invalidate(m);
+            throw new DbaException("Fail executing batch removal.", ex);
+        }
+        catch (DbaException | RuntimeException ex) {
+            clearBatch(m, s);
+            throw ex;
+        }
+    }
+
     @Override
     public <T> Collection<T> select(Class<T> clazz,
                                     ICondition<?> condition,
                                     IDefaultFactory<T> factory) throws DbaException {
+        var m = findMeta(clazz);
         try {
-            var m = findMeta(clazz);
-            return executeSelect(m, getSelectSql(m, condition), factory);
+            var c = (Condition<?>) condition;
+            var s = prepare(m, getSelectSql(m, c));
+            c.bind(s, 1);
+            return executeSelect(m, s, factory);
+        }
+        catch (SQLException ex) {
+            invalidate(m);
+            throw new DbaException("Fail executing selection.", ex);
+        }
+    }
+
+    @Override
+    public <T> int select(Class<T> clazz,
+                          ICondition<?> condition,
+                          IDefaultFactory<T> factory,
+                          IRowVisitor<T> visitor,
+                          int fetchSize) throws DbaException {
+        if (fetchSize < 0) {
+            throw new DbaException("Fetch size must not be negative but found " + fetchSize + ".");
+        }
+        var m = findMeta(clazz);
+        /*
+         * Visitor may run queries with the same SQL while rows are read, so
+         * the selection doesn't use the cached statement.
+         */
+        try (var s = conn.prepareStatement(getSelectSql(m, (Condition<?>) condition))) {
+            ((Condition<?>) condition).bind(s, 1);
+            s.setFetchSize(fetchSize);
+            try (var rs = s.executeQuery()) {
+                var mapper = RowMapper.of(m);
+                var indexes = mapper.indexes(rs);
+                var r = 0;
+                while (rs.next()) {
+                    visitor.visit(mapper.read(rs, indexes, factory));
+                    ++r;
+                }
+                return r;
+            }
         }
-        catch (SQLException | ReflectiveOperationException ex) {
+        catch (SQLException ex) {
+            invalidate(m);
             throw new DbaException("Fail executing selection.", ex);
         }
     }
@@ -82,14 +263,57 @@ class Query implements IQuery {
     public <T> int update(Class<T> clazz,
                           T object,
                           ICondition<?> condition) throws DbaException {
+        var m = findMeta(clazz);
         try {
-            return execute(getUpdateSql(findMeta(clazz), object, condition));
+            var c = (Condition<?>) condition;
+            var s = prepare(m, getUpdateSql(m, c));
+            c.bind(s, RowMapper.of(m).bind(s, object, 1));
+            return s.executeUpdate();
         }
         catch (SQLException ex) {
+            invalidate(m);
             throw new DbaException("Fail executing update.", ex);
         }
     }
 
+    @Override
+    public <T> int updateAll(Class<T> clazz,
+                             Collection<T> objects,
+                             Field key) throws DbaException {
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        var k = DbaUtils.inspectField(key);
+        var m = findMeta(clazz);
+        PreparedStatement s = null;
+        try {
+            var mapper = RowMapper.of(m);
+            var c = (Condition<?>) Queries.equals(key, mapper.get(objects.iterator().next(), key));
+            s = prepare(m, getUpdateSql(m, c));
+            var r = 0;
+            var n = 0;
+            for (var o : objects) {
+                DbaUtils.setParameter(s, mapper.bind(s, o, 1), k.getType(), mapper.get(o, key));
+                s.addBatch();
+                if (++n % batchSize == 0) {
+                    r += executeBatch(s);
+                }
+            }
+            if (n % batchSize != 0) {
+                r += executeBatch(s);
+            }
+            return r;
+        }
+        catch (SQLException ex) {
+            invalidate(m);
+            throw new DbaException("Fail executing batch update.", ex);
+        }
+        catch (DbaException | RuntimeException ex) {
+            clearBatch(m, s);
+            throw ex;
+        }
+    }
+
     private String buildFieldPair(MetaField f) {
         return f.getName() + " " + DbaUtils.convertSqlType(f.getType());
     }
@@ -122,13 +346,31 @@ class Query implements IQuery {
         return sql;
     }
 
+    /*
+     * Statement is cached, so rows batched before a failure would be executed
+     * with the next batch. If they can't be cleared, the statement is closed.
+     */
+    private void clearBatch(MetaTable<?> meta, PreparedStatement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.clearBatch();
+        }
+        catch (SQLException ex) {
+            invalidate(meta);
+        }
+    }
+
     private <T> Collection<T> convert(MetaTable<T> meta,
                                       ResultSet rs,
-                                      IDefaultFactory<T> factory) throws ReflectiveOperationException,
-                                                                         SQLException {
-        Collection<T> c = new LinkedList<>();
+                                      IDefaultFactory<T> factory) throws SQLException,
+                                                                         DbaException {
+        var mapper = RowMapper.of(meta);
+        var indexes = mapper.indexes(rs);
+        Collection<T> c = new ArrayList<>(64);
         while (rs.next()) {
-            c.add(rowT(meta, rs, factory));
+            c.add(mapper.read(rs, indexes, factory));
         }
         return c;
     }
@@ -142,13 +384,28 @@ class Query implements IQuery {
 
     private <T> void ensureTable(MetaTable<T> meta) throws SQLException,
                                                            DbaException {
-        var dbm = conn.getMetaData();
-        if (!hasTableName(meta, dbm)) {
-            createTable(meta);
+        if (verified.contains(meta.getName())) {
+            return;
         }
-        else {
-            verifyTableColumns(meta, dbm);
+        var dbm = conn.getMetaData();
+        /*
+         * Without URL, tables of different databases can't be told apart, so
+         * only remember them on this query.
+         */
+        url = dbm.getURL();
+        var key = url == null ? null : url + "#" + meta.getName();
+        if (key == null || !schemas.contains(key)) {
+            if (!hasTableName(meta, dbm)) {
+                createTable(meta);
+            }
+            else {
+                verifyTableColumns(meta, dbm);
+            }
+            if (key != null) {
+                schemas.add(key);
+            }
         }
+        verified.add(meta.getName());
     }
 
     private boolean equalsType(int columnType, int semanticType) throws DbaException {
@@ -172,13 +429,23 @@ class Query implements IQuery {
         }
     }
 
+    /*
+     * Driver may not know the count of a statement in batch, and it counts
+     * one row.
+     */
+    private int executeBatch(PreparedStatement statement) throws SQLException {
+        var r = 0;
+        for (var n : statement.executeBatch()) {
+            r += n == Statement.SUCCESS_NO_INFO ? 1 : Math.max(n, 0);
+        }
+        return r;
+    }
+
     private <T> Collection<T> executeSelect(MetaTable<T> meta,
-                                            String sql,
+                                            PreparedStatement statement,
                                             IDefaultFactory<T> factory) throws SQLException,
-                                                                               ReflectiveOperationException {
-        ResultSet rs;
-        try (Statement stat = conn.createStatement()) {
-            rs = stat.executeQuery(sql);
+                                                                               DbaException {
+        try (var rs = statement.executeQuery()) {
             return convert(meta, rs, factory);
         }
     }
@@ -188,47 +455,40 @@ class Query implements IQuery {
         return (MetaTable<T>) meta.computeIfAbsent(clazz.getCanonicalName(), k -> new MetaTable<T>(clazz));
     }
 
-    private <T> String getInsertSql(MetaTable<T> meta,
-                                    Object object) throws SQLException,
-                                                          DbaException {
+    private <T> String getInsertSql(MetaTable<T> meta) throws SQLException,
+                                                              DbaException {
         if (meta.fields().isEmpty()) {
             throw new DbaException("No column in table '" + meta.getName() + "'.");
         }
         ensureTable(meta);
-        var sql = "INSERT INTO " + meta.getName();
-        String fields = "";
-        String values = "";
-        int i = 0;
-        try {
-            while (i < meta.fields().size() - 1) {
-                var f = meta.fields().get(i);
-                fields += f.getName() + ",";
-                values += getValue(f, object) + ",";
+        var sql = inserts.get(meta.getName());
+        if (sql == null) {
+            var fields = new StringBuilder(256);
+            var values = new StringBuilder(64);
+            for (var f : meta.fields()) {
+                fields.append(f.getName()).append(',');
+                values.append("?,");
             }
-            var f = meta.fields().get(i);
-            fields += f.getName();
-            values += getValue(f, object);
-            return sql + "(" + fields + ") VALUES (" + values + ")";
-        }
-        catch (IllegalArgumentException | IllegalAccessException ex) {
-            throw new DbaException(
-                    "Access field '" + meta.fields().get(i).getName() + "' failed.",
-                    ex);
+            fields.setLength(fields.length() - 1);
+            values.setLength(values.length() - 1);
+            sql = "INSERT INTO " + meta.getName() + "(" + fields + ") VALUES (" + values + ")";
+            inserts.put(meta.getName(), sql);
         }
+        return sql;
     }
 
     private <T> String getRemoveSql(MetaTable<T> meta,
-                                    ICondition<?> condition) throws SQLException,
-                                                                    DbaException {
+                                    Condition<?> condition) throws SQLException,
+                                                                   DbaException {
         ensureTable(meta);
-        return "DELETE FROM " + meta.getName() + " WHERE " + ((Condition<?>) condition).getSql();
+        return "DELETE FROM " + meta.getName() + " WHERE " + condition.getSql();
     }
 
     private <T> String getSelectSql(MetaTable<T> meta,
-                                    ICondition<?> condition) throws SQLException,
-                                                                    DbaException {
+                                    Condition<?> condition) throws SQLException,
+                                                                   DbaException {
         ensureTable(meta);
-        return "SELECT * FROM " + meta.getName() + " WHERE " + ((Condition<?>) condition).getSql();
+        return "SELECT * FROM " + meta.getName() + " WHERE " + condition.getSql();
     }
 
     private Map<String, Integer> getTableColumns(String name, DatabaseMetaData dbMeta) throws SQLException {
@@ -241,53 +501,23 @@ class Query implements IQuery {
     }
 
     private <T> String getUpdateSql(MetaTable<T> meta,
-                                    Object object,
-                                    ICondition<?> condition) throws SQLException,
-                                                                    DbaException {
+                                    Condition<?> condition) throws SQLException,
+                                                                   DbaException {
         if (meta.fields().isEmpty()) {
             throw new DbaException("No column in table '" + meta.getName() + "'.");
         }
         ensureTable(meta);
-        var sql = "UPDATE " + meta.getName() + " SET ";
-        int i = 0;
-        try {
-            while (i < meta.fields().size() - 1) {
-                var f = meta.fields().get(i);
-                sql += f.getName() + "=" + getValue(f, object) + ",";
+        var sql = updates.get(meta.getName());
+        if (sql == null) {
+            var sb = new StringBuilder(256).append("UPDATE ").append(meta.getName()).append(" SET ");
+            for (var f : meta.fields()) {
+                sb.append(f.getName()).append("=?,");
             }
-            var f = meta.fields().get(i);
-            sql += f.getName() + "=" + getValue(f, object);
-            return sql + " WHERE " + ((Condition<?>) condition).getSql();
-        }
-        catch (IllegalArgumentException | IllegalAccessException ex) {
-            throw new DbaException(
-                    "Access field '" + meta.fields().get(i).getName() + "' failed.",
-                    ex);
-        }
-    }
-
-    private String getValue(MetaField f, Object object) throws IllegalArgumentException,
-                                                               IllegalAccessException,
-                                                               DbaException {
-        switch (f.getType()) {
-            case Types.BIGINT:
-                return Long.toString(f.getField().getLong(object));
-            case Types.INTEGER:
-                return Integer.toString(f.getField().getInt(object));
-            case Types.DECIMAL:
-                return Double.toString(f.getField().getDouble(object));
-            case Types.DATE:
-                var date = (LocalDate) f.getField().get(object);
-                return date != null ? sqlStringValue(date.toString()) : null;
-            case Types.TIMESTAMP_WITH_TIMEZONE:
-                var timestamp = (ZonedDateTime) f.getField().get(object);
-                return timestamp != null ? sqlStringValue(timestamp.toString()) : null;
-            case Types.CHAR:
-                var str = (String) f.getField().get(object);
-                return str != null ? sqlStringValue(str) : null;
-            default:
-                throw new DbaException("Unsupported SQL types: " + f.getType() + ".");
+            sb.setLength(sb.length() - 1);
+            sql = sb.toString();
+            updates.put(meta.getName(), sql);
         }
+        return sql + " WHERE " + condition.getSql();
     }
 
     private <T> boolean hasTableName(MetaTable<T> meta, DatabaseMetaData dbMeta) throws SQLException {
@@ -296,53 +526,43 @@ class Query implements IQuery {
         }
     }
 
+    /*
+     * Statement fails if its table is dropped or altered outside the process,
+     * so forget the table and close its statements, and the next operation
+     * creates or verifies the table again.
+     */
+    private void invalidate(MetaTable<?> meta) {
+        var name = meta.getName();
+        verified.remove(name);
+        if (url != null) {
+            schemas.remove(url + "#" + name);
+        }
+        var i = statements.values().iterator();
+        while (i.hasNext()) {
+            var p = i.next();
+            if (p.getTable().equals(name)) {
+                i.remove();
+                p.close();
+            }
+        }
+    }
+
     private <T> boolean isPrimaryKey(MetaField f, MetaTable<T> table) {
         var pkn = table.getName().toLowerCase() + "id";
         return f.getField().getName().compareToIgnoreCase(pkn) == 0;
     }
 
-    private <T> T rowT(MetaTable<T> meta, ResultSet rs, IDefaultFactory<T> factory) throws SQLException {
-        @SuppressWarnings("unchecked")
-        T r = factory.contruct();
-        for (var f : meta.fields()) {
-            setField(f, r, rs);
-        }
-        return r;
-    }
-
-    private void setField(MetaField field, Object object, ResultSet rs) throws SQLException {
-        var f = field.getField();
-        var n = field.getName();
-        try {
-            switch (field.getType()) {
-                case Types.BIGINT:
-                    f.setLong(object, rs.getLong(n));
-                    break;
-                case Types.INTEGER:
-                    f.setInt(object, rs.getInt(n));
-                    break;
-                case Types.DECIMAL:
-                    f.setDouble(object, rs.getDouble(n));
-                    break;
-                case Types.DATE:
-                    var ds = rs.getString(n);
-                    f.set(object, ds != null ? LocalDate.parse(ds) : null);
-                    break;
-                case Types.TIMESTAMP_WITH_TIMEZONE:
-                    var ts = rs.getString(n);
-                    f.set(object, ts != null ? ZonedDateTime.parse(ts) : null);
-                    break;
-                case Types.CHAR:
-                    f.set(object, rs.getString(n));
-            }
+    /*
+     * Statements are closed with the connection, and a closed one is prepared
+     * again.
+     */
+    private PreparedStatement prepare(MetaTable<?> meta, String sql) throws SQLException {
+        var p = statements.get(sql);
+        if (p == null || p.getStatement().isClosed()) {
+            p = new Prepared(meta.getName(), conn.prepareStatement(sql));
+            statements.put(sql, p);
         }
-        catch (IllegalAccessException | IllegalArgumentException e) {
-            throw new NoSuchFieldError("Fail setting field '" + f.getName() + "'.");
-        }
-    }
-
-    private String sqlStringValue(String raw) {
-        return "'" + raw + "'";
+        return p.getStatement();
     }
 
     private <T> void verifyTableColumns(MetaTable<T> meta, DatabaseMetaData dbMeta) throws SQLException,
@@ -359,4 +579,30 @@ class Query implements IQuery {
         }
     }
 
+    private static class Prepared {
+
+        private final PreparedStatement statement;
+        private final String table;
+
+        Prepared(String table, PreparedStatement statement) {
+            this.statement = statement;
+            this.table = table;
+        }
+
+        void close() {
+            try {
+                statement.close();
+            }
+            catch (SQLException ignored) {
+            }
+        }
+
+        PreparedStatement getStatement() {
+            return statement;
+        }
+
+        String getTable() {
+            return table;
+        }
+    }
 }
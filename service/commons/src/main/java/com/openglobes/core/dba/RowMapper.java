@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.dba;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads rows into objects and binds objects to statements for one class.
+ * <p>
+ * Field accessors are unreflected into method handles, and a reader is
+ * chosen for each field by its type when the mapper is built, so reading a
+ * row neither looks up columns by name nor switches on SQL type. Primitive
+ * columns are set without boxing. Mappers are built once for each class and
+ * shared by all queries.
+ *
+ * @param <T> type of object
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class RowMapper<T> {
+
+    private static final Map<Class<?>, RowMapper<?>> mappers = new ConcurrentHashMap<>(64);
+    private static final Map<String, ZoneOffset> offsets = new ConcurrentHashMap<>(16);
+    private static final Map<String, ZoneId> zones = new ConcurrentHashMap<>(16);
+
+    private final Column[] columns;
+    private final Map<String, Column> fields;
+
+    private RowMapper(MetaTable<T> meta) throws DbaException {
+        columns = new Column[meta.fields().size()];
+        fields = new HashMap<>(columns.length * 2);
+        var i = 0;
+        for (var f : meta.fields()) {
+            var c = new Column(f);
+            columns[i++] = c;
+            fields.put(f.getField().getName(), c);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> RowMapper<T> of(MetaTable<T> meta) throws DbaException {
+        var m = mappers.get(meta.getType());
+        if (m == null) {
+            m = new RowMapper<>(meta);
+            var o = mappers.putIfAbsent(meta.getType(), m);
+            if (o != null) {
+                m = o;
+            }
+        }
+        return (RowMapper<T>) m;
+    }
+
+    /**
+     * Bind fields of the object in the order of table fields, and return the
+     * index of the placeholder after them.
+     */
+    int bind(PreparedStatement statement, Object object, int index) throws SQLException,
+                                                                          DbaException {
+        for (var c : columns) {
+            DbaUtils.setParameter(statement, index++, c.meta.getType(), c.get(object));
+        }
+        return index;
+    }
+
+    Object get(Object object, Field field) throws DbaException {
+        var c = fields.get(field.getName());
+        if (c == null || !c.meta.getField().equals(field)) {
+            throw new DbaException("Field '" + field.getName() + "' not found in table.");
+        }
+        return c.get(object);
+    }
+
+    /**
+     * Find indexes of columns in result set. They are found once for a result
+     * set, and passed to {@link #read(ResultSet, int[], IDefaultFactory)} for
+     * each row.
+     */
+    int[] indexes(ResultSet rs) throws SQLException {
+        var r = new int[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            r[i] = rs.findColumn(columns[i].meta.getName());
+        }
+        return r;
+    }
+
+    T read(ResultSet rs, int[] indexes, IDefaultFactory<T> factory) throws SQLException,
+                                                                           DbaException {
+        T r = factory.contruct();
+        for (int i = 0; i < columns.length; ++i) {
+            var c = columns[i];
+            try {
+                c.reader.read(rs, indexes[i], r);
+            }
+            catch (SQLException | RuntimeException | Error ex) {
+                throw ex;
+            }
+            catch (Throwable th) {
+                throw new DbaException("Fail setting field '" + c.meta.getName() + "'.", th);
+            }
+        }
+        return r;
+    }
+
+    /*
+     * Parse yyyy-MM-dd without formatter, and leave other forms to parse().
+     */
+    private static LocalDate parseDate(String s) {
+        if (s.length() != 10 || s.charAt(4) != '-' || s.charAt(7) != '-') {
+            return LocalDate.parse(s);
+        }
+        var y = digits(s, 0, 4);
+        var m = digits(s, 5, 7);
+        var d = digits(s, 8, 10);
+        if (y < 0 || m < 0 || d < 0) {
+            return LocalDate.parse(s);
+        }
+        return LocalDate.of(y, m, d);
+    }
+
+    /*
+     * Parse the form ZonedDateTime.toString() writes, that is
+     * yyyy-MM-ddTHH:mm[:ss[.fraction]] and offset, followed by optional
+     * [region], and leave other forms to parse(). Like parse(), instant is
+     * kept and offset follows the region's rules.
+     */
+    private static ZonedDateTime parseTimestamp(String s) {
+        var n = s.length();
+        if (n < 17 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' || s.charAt(13) != ':') {
+            return ZonedDateTime.parse(s);
+        }
+        var y = digits(s, 0, 4);
+        var mo = digits(s, 5, 7);
+        var d = digits(s, 8, 10);
+        var h = digits(s, 11, 13);
+        var mi = digits(s, 14, 16);
+        var sec = 0;
+        var nano = 0;
+        var i = 16;
+        if (i < n && s.charAt(i) == ':') {
+            if (i + 3 > n) {
+                return ZonedDateTime.parse(s);
+            }
+            sec = digits(s, i + 1, i + 3);
+            i += 3;
+            if (i < n && s.charAt(i) == '.') {
+                var j = ++i;
+                while (i < n && i - j < 9 && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                    nano = nano * 10 + (s.charAt(i++) - '0');
+                }
+                if (i == j) {
+                    return ZonedDateTime.parse(s);
+                }
+                for (var k = i - j; k < 9; ++k) {
+                    nano *= 10;
+                }
+            }
+        }
+        if (y < 0 || mo < 0 || d < 0 || h < 0 || mi < 0 || sec < 0 || i >= n) {
+            return ZonedDateTime.parse(s);
+        }
+        var e = s.indexOf('[', i);
+        if (e < 0) {
+            e = n;
+        }
+        else if (s.charAt(n - 1) != ']') {
+            return ZonedDateTime.parse(s);
+        }
+        var os = s.substring(i, e);
+        var offset = offsets.computeIfAbsent(os, ZoneOffset::of);
+        var t = LocalDateTime.of(y, mo, d, h, mi, sec, nano);
+        if (e == n) {
+            return ZonedDateTime.of(t, offset);
+        }
+        var zone = zones.computeIfAbsent(s.substring(e + 1, n - 1), ZoneId::of);
+        return ZonedDateTime.ofInstant(t, offset, zone);
+    }
+
+    private static int digits(String s, int from, int to) {
+        var r = 0;
+        for (int i = from; i < to; ++i) {
+            var c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            r = r * 10 + (c - '0');
+        }
+        return r;
+    }
+
+    @FunctionalInterface
+    private interface ColumnReader {
+
+        void read(ResultSet rs, int index, Object object) throws Throwable;
+    }
+
+    private static class Column {
+
+        private final MethodHandle getter;
+        private final MetaField meta;
+        private final ColumnReader reader;
+
+        Column(MetaField f) throws DbaException {
+            meta = f;
+            var field = f.getField();
+            try {
+                field.setAccessible(true);
+                var lookup = MethodHandles.lookup();
+                getter = lookup.unreflectGetter(field)
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                reader = reader(field, lookup.unreflectSetter(field));
+            }
+            catch (IllegalAccessException | RuntimeException ex) {
+                throw new DbaException("Access field '" + field.getName() + "' failed.", ex);
+            }
+        }
+
+        Object get(Object object) throws DbaException {
+            try {
+                return (Object) getter.invokeExact(object);
+            }
+            catch (RuntimeException | Error ex) {
+                throw ex;
+            }
+            catch (Throwable th) {
+                throw new DbaException("Access field '" + meta.getName() + "' failed.", th);
+            }
+        }
+
+        /*
+         * NULL leaves a primitive field its default value.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private ColumnReader reader(Field field, MethodHandle setter) throws DbaException {
+            var type = field.getType();
+            if (type == long.class) {
+                var h = setter.asType(MethodType.methodType(void.class, Object.class, long.class));
+                return (rs, i, o) -> {
+                    var v = rs.getLong(i);
+                    if (!rs.wasNull()) {
+                        h.invokeExact(o, v);
+                    }
+                };
+            }
+            else if (type == int.class) {
+                var h = setter.asType(MethodType.methodType(void.class, Object.class, int.class));
+                return (rs, i, o) -> {
+                    var v = rs.getInt(i);
+                    if (!rs.wasNull()) {
+                        h.invokeExact(o, v);
+                    }
+                };
+            }
+            else if (type == double.class) {
+                var h = setter.asType(MethodType.methodType(void.class, Object.class, double.class));
+                return (rs, i, o) -> {
+                    var v = rs.getDouble(i);
+                    if (!rs.wasNull()) {
+                        h.invokeExact(o, v);
+                    }
+                };
+            }
+            var h = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            if (type == Long.class) {
+                return (rs, i, o) -> {
+                    var v = rs.getLong(i);
+                    h.invokeExact(o, rs.wasNull() ? null : (Object) v);
+                };
+            }
+            else if (type == Integer.class) {
+                return (rs, i, o) -> {
+                    var v = rs.getInt(i);
+                    h.invokeExact(o, rs.wasNull() ? null : (Object) v);
+                };
+            }
+            else if (type == Double.class) {
+                return (rs, i, o) -> {
+                    var v = rs.getDouble(i);
+                    h.invokeExact(o, rs.wasNull() ? null : (Object) v);
+                };
+            }
+            else if (type == String.class) {
+                return (rs, i, o) -> {
+                    h.invokeExact(o, (Object) rs.getString(i));
+                };
+            }
+            else if (type == LocalDate.class) {
+                return (rs, i, o) -> {
+                    var s = rs.getString(i);
+                    h.invokeExact(o, s == null ? null : (Object) parseDate(s.trim()));
+                };
+            }
+            else if (type == ZonedDateTime.class) {
+                return (rs, i, o) -> {
+                    var s = rs.getString(i);
+                    h.invokeExact(o, s == null ? null : (Object) parseTimestamp(s.trim()));
+                };
+            }
+            else if (type.isEnum()) {
+                var e = (Class<? extends Enum>) type;
+                return (rs, i, o) -> {
+                    var s = rs.getString(i);
+                    h.invokeExact(o, s == null ? null : (Object) Enum.valueOf(e, s.trim()));
+                };
+            }
+            throw new DbaException("Field type " + type.getCanonicalName() + " is not supported.");
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2020 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.core.dba;
+
+import com.openglobes.core.Contract;
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Time and allocation benchmark of mapping result set rows to objects.
+ * <p>
+ * {@link Contract} rows in an {@link InMemoryResultSet} are mapped by
+ * {@link RowMapper}, and by the per-name mapping it replaced, which reads
+ * each column by name, switches on its SQL type and sets the field through
+ * reflection. Both results are checked equal field by field before timing.
+ * It prints the best time of a pass over all rows and the bytes allocated
+ * per row.
+ * <p>
+ * Run it with {@code java -cp <test classes>:<classes>
+ * com.openglobes.core.dba.RowMapperBenchmark [rows]}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class RowMapperBenchmark {
+
+    private static final int PASSES = 30;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        var n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        var meta = new MetaTable<>(Contract.class);
+        for (var f : meta.fields()) {
+            f.getField().setAccessible(true);
+        }
+        /* Columns are in another order than fields. */
+        var cols = new ArrayList<>(meta.fields());
+        Collections.reverse(cols);
+        var columns = new HashMap<String, Integer>(cols.size() * 2);
+        for (int i = 0; i < cols.size(); ++i) {
+            columns.put(cols.get(i).getName(), i + 1);
+        }
+        var rows = rows(cols, n);
+        check(meta, columns, rows);
+        for (int r = 0; r < ROUNDS; ++r) {
+            var print = r == ROUNDS - 1;
+            run(print, "reflective", meta, columns, rows, RowMapperBenchmark::reflective);
+            run(print, "RowMapper", meta, columns, rows, RowMapperBenchmark::mapped);
+        }
+    }
+
+    private static void check(MetaTable<Contract> meta,
+                              Map<String, Integer> columns,
+                              Object[][] rows) throws Exception {
+        var x = reflective(meta, new InMemoryResultSet(columns, rows));
+        var y = mapped(meta, new InMemoryResultSet(columns, rows));
+        for (int i = 0; i < rows.length; ++i) {
+            for (var f : meta.fields()) {
+                if (!Objects.equals(f.getField().get(x.get(i)), f.getField().get(y.get(i)))) {
+                    throw new AssertionError("Field " + f.getName() + " differs at row " + i + ".");
+                }
+            }
+        }
+    }
+
+    private static List<Contract> mapped(MetaTable<Contract> meta, ResultSet rs) throws Exception {
+        var mapper = RowMapper.of(meta);
+        var indexes = mapper.indexes(rs);
+        var r = new ArrayList<Contract>();
+        while (rs.next()) {
+            r.add(mapper.read(rs, indexes, Contract::new));
+        }
+        return r;
+    }
+
+    /*
+     * The per-name mapping before RowMapper, with values boxed for set() so it
+     * runs on the boxed model fields, and enums by valueOf().
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<Contract> reflective(MetaTable<Contract> meta, ResultSet rs) throws Exception {
+        var r = new ArrayList<Contract>();
+        while (rs.next()) {
+            var c = new Contract();
+            for (var field : meta.fields()) {
+                var f = field.getField();
+                var name = field.getName();
+                switch (field.getType()) {
+                    case Types.BIGINT:
+                        f.set(c, rs.getLong(name));
+                        break;
+                    case Types.INTEGER:
+                        f.set(c, rs.getInt(name));
+                        break;
+                    case Types.DECIMAL:
+                        f.set(c, rs.getDouble(name));
+                        break;
+                    case Types.DATE:
+                        var d = rs.getString(name);
+                        f.set(c, d != null ? LocalDate.parse(d) : null);
+                        break;
+                    case Types.TIMESTAMP_WITH_TIMEZONE:
+                        var ts = rs.getString(name);
+                        f.set(c, ts != null ? ZonedDateTime.parse(ts) : null);
+                        break;
+                    case Types.CHAR:
+                        var s = rs.getString(name);
+                        if (f.getType().isEnum()) {
+                            f.set(c, s != null ? Enum.valueOf((Class) f.getType(), s) : null);
+                        }
+                        else {
+                            f.set(c, s);
+                        }
+                        break;
+                    default:
+                        throw new AssertionError("Unsupported SQL type " + field.getType() + ".");
+                }
+            }
+            r.add(c);
+        }
+        return r;
+    }
+
+    private static Object[][] rows(List<MetaField> cols, int n) {
+        var now = ZonedDateTime.now().toString();
+        var rows = new Object[n][];
+        for (int k = 0; k < n; ++k) {
+            var row = new Object[cols.size()];
+            for (int i = 0; i < row.length; ++i) {
+                var t = cols.get(i).getField().getType();
+                if (t == Long.class) {
+                    row[i] = k * 1000003L;
+                }
+                else if (t == Integer.class) {
+                    row[i] = k % 100;
+                }
+                else if (t == Double.class) {
+                    row[i] = k * 1.25D;
+                }
+                else if (t == LocalDate.class) {
+                    row[i] = k % 7 == 0 ? null : "2020-10-1" + (k % 10);
+                }
+                else if (t == ZonedDateTime.class) {
+                    row[i] = now;
+                }
+                else if (t == String.class) {
+                    row[i] = "c" + (k % 50);
+                }
+                else {
+                    var e = t.getEnumConstants();
+                    row[i] = e[k % e.length].toString();
+                }
+            }
+            rows[k] = row;
+        }
+        return rows;
+    }
+
+    private static void run(boolean print,
+                            String name,
+                            MetaTable<Contract> meta,
+                            Map<String, Integer> columns,
+                            Object[][] rows,
+                            Mapping mapping) throws Exception {
+        var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var id = Thread.currentThread().getId();
+        var best = Long.MAX_VALUE;
+        var allocated = 0L;
+        var s = 0L;
+        for (int p = 0; p < PASSES; ++p) {
+            var rs = new InMemoryResultSet(columns, rows);
+            var a0 = bean.getThreadAllocatedBytes(id);
+            var t0 = System.nanoTime();
+            s += mapping.map(meta, rs).size();
+            best = Math.min(best, System.nanoTime() - t0);
+            allocated = bean.getThreadAllocatedBytes(id) - a0;
+        }
+        if (print) {
+            System.out.printf("%-10s: best %.1f ms for %d rows, %.0f bytes/row (%d)%n",
+                              name,
+                              best / 1.0E6,
+                              rows.length,
+                              (double) allocated / rows.length,
+                              s);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Mapping {
+
+        List<Contract> map(MetaTable<Contract> meta, ResultSet rs) throws Exception;
+    }
+}
@@ -38,4 +38,15 @@ public interface ITraderGatewayHandler {
     void onException(Request request, GatewayRuntimeException exception, int requestId);
 
     void onStatusChange(int status);
+
+    /**
+     * Get number of events the handler accepts before it is saturated.
+     * Gateway should stop reading from its counterparty when credit is zero,
+     * instead of piling up events in its own threads.
+     *
+     * @return credit, {@link Long#MAX_VALUE} if handler has no limit
+     */
+    default long getCredit() {
+        return Long.MAX_VALUE;
+    }
 }